@@ -0,0 +1,275 @@
+package victorzinho.music.hexgrid;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Coordinate;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_GEOM;
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_VALUE;
+
+/**
+ * Compact representation of a generated {@link HexGridFeatureCollection}. Instead of a polygon and a feature per
+ * cell, only the origin of each UTM zone is kept, and cells are stored off-heap as fixed size records with the
+ * index of their zone, their axial coordinates and the index of their value in a dictionary of distinct values
+ * (so there can be at most 256 different values).
+ * <p>
+ * Cells are kept in the order they were generated. Polygons are only built when the grid is exported through
+ * {@link #asFeatureCollection()}.
+ *
+ * @param <T> The type of values of the cells.
+ */
+public class CompactHexGrid<T> {
+    /**
+     * Size of each cell record: zone index (1 byte), q (4 bytes), r (4 bytes), value index (1 byte).
+     */
+    public static final int CELL_BYTES = 10;
+    static final int MAX_ZONES = 256;
+    static final int MAX_VALUES = 256;
+
+    private final float width;
+    private final float height;
+    private final ReferencedEnvelope bounds;
+    private final Class<T> valueClass;
+    private final List<UtmZone> zones;
+    private final List<Coordinate> origins;
+    private final List<T> values;
+    private final ByteBuffer cells;
+
+    CompactHexGrid(
+            float width, float height, ReferencedEnvelope bounds, Class<T> valueClass,
+            List<UtmZone> zones, List<Coordinate> origins, List<T> values, ByteBuffer cells
+    ) {
+        this.width = width;
+        this.height = height;
+        this.bounds = bounds;
+        this.valueClass = valueClass;
+        this.zones = List.copyOf(zones);
+        this.origins = List.copyOf(origins);
+        this.values = List.copyOf(values);
+        this.cells = cells;
+    }
+
+    /**
+     * @return the number of cells in the grid.
+     */
+    public int size() {
+        return cells.limit() / CELL_BYTES;
+    }
+
+    public ReferencedEnvelope getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @param index The index of the cell, in generation order.
+     * @return the identifier of the cell.
+     */
+    public HexGridCellId getCellId(int index) {
+        int offset = index * CELL_BYTES;
+        return new HexGridCellId(getZone(offset).getCode(), cells.getInt(offset + 1), cells.getInt(offset + 5));
+    }
+
+    /**
+     * @param index The index of the cell, in generation order.
+     * @return the value of the cell.
+     */
+    public T getValue(int index) {
+        return values.get(Byte.toUnsignedInt(cells.get(index * CELL_BYTES + 9)));
+    }
+
+    /**
+     * @param index The index of the cell, in generation order.
+     * @return the cell, with its center in the UTM CRS of its zone.
+     */
+    public HexGridCell<T> getCell(int index) {
+        int offset = index * CELL_BYTES;
+        int zoneIndex = Byte.toUnsignedInt(cells.get(offset));
+        Coordinate center = HexGridCellId.getCenter(
+                origins.get(zoneIndex), cells.getInt(offset + 1), cells.getInt(offset + 5), width, height);
+        return new HexGridCell<>(zones.get(zoneIndex), center, getValue(index));
+    }
+
+    /**
+     * Builds a lookup for the values of this grid, without generating it again.
+     *
+     * @param hexGridValueProvider The provider the grid was generated with.
+     * @return the lookup for the values of this grid.
+     * @see HexGridFeatureCollection#buildLookup()
+     */
+    public HexGridLookup<T> buildLookup(HexGridValueProvider<T> hexGridValueProvider) {
+        if (hexGridValueProvider instanceof RandomAccessHexGridValueProvider<T> randomAccessProvider
+                && randomAccessProvider.isPathIndependent()) {
+            HexGridLookup<T> lookup = new HexGridLookup<>(width, height, bounds, randomAccessProvider);
+            int foundZones = 0;
+            for (int i = 0; i < size() && foundZones < zones.size(); i++) {
+                HexGridCell<T> cell = getCell(i);
+                if (!lookup.hasZone(cell.zone().getCode())) {
+                    lookup.add(cell);
+                    foundZones++;
+                }
+            }
+            return lookup;
+        }
+
+        HexGridLookup<T> lookup = new HexGridLookup<>(width, height);
+        for (int i = 0; i < size(); i++) {
+            lookup.add(getCell(i));
+        }
+        return lookup;
+    }
+
+    /**
+     * @return a view of this grid as a feature collection (as {@link HexGridFeatureCollection}), building the
+     * polygons as the features are iterated.
+     */
+    public SimpleFeatureCollection asFeatureCollection() {
+        return new FeatureView();
+    }
+
+    float getWidth() {
+        return width;
+    }
+
+    float getHeight() {
+        return height;
+    }
+
+    Class<T> getValueClass() {
+        return valueClass;
+    }
+
+    List<UtmZone> getZones() {
+        return zones;
+    }
+
+    List<Coordinate> getOrigins() {
+        return origins;
+    }
+
+    List<T> getValues() {
+        return values;
+    }
+
+    /**
+     * @return a read-only view of the cell records.
+     */
+    ByteBuffer getCells() {
+        return cells.asReadOnlyBuffer();
+    }
+
+    private UtmZone getZone(int offset) {
+        return zones.get(Byte.toUnsignedInt(cells.get(offset)));
+    }
+
+    private class FeatureView extends AbstractFeatureCollection implements SimpleFeatureCollection {
+        private FeatureView() {
+            super(HexGridFeatureCollection.buildSchema(valueClass));
+        }
+
+        @Override
+        protected Iterator<SimpleFeature> openIterator() {
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+            return new Iterator<>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < CompactHexGrid.this.size();
+                }
+
+                @Override
+                public SimpleFeature next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    HexGridCell<T> cell = getCell(index++);
+                    builder.set(ATTR_GEOM, cell.zone().toWgs84(
+                            HexGridFeatureCollection.toUtmPolygon(cell.center(), width, height)));
+                    builder.set(ATTR_VALUE, cell.value());
+                    return builder.buildFeature(null);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return CompactHexGrid.this.size();
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            return bounds;
+        }
+    }
+
+    /**
+     * Collects the cells of a grid walk into a {@link CompactHexGrid}.
+     */
+    static class Builder<T> {
+        private static final int INITIAL_CAPACITY = 1 << 16;
+
+        private final float width;
+        private final float height;
+        private final ReferencedEnvelope bounds;
+        private final Class<T> valueClass;
+        private final Map<Integer, Integer> zoneIndices = new HashMap<>();
+        private final List<UtmZone> zones = new ArrayList<>();
+        private final List<Coordinate> origins = new ArrayList<>();
+        private final Map<T, Integer> valueIndices = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+        private ByteBuffer cells = ByteBuffer.allocateDirect(INITIAL_CAPACITY * CELL_BYTES);
+
+        Builder(float width, float height, ReferencedEnvelope bounds, Class<T> valueClass) {
+            this.width = width;
+            this.height = height;
+            this.bounds = bounds;
+            this.valueClass = valueClass;
+        }
+
+        void add(HexGridCell<T> cell) {
+            Integer zoneIndex = zoneIndices.get(cell.zone().getCode());
+            if (zoneIndex == null) {
+                if (zones.size() == MAX_ZONES) {
+                    throw new IllegalStateException("Too many UTM zones for a compact hex grid: " + zones.size());
+                }
+                zoneIndex = zones.size();
+                zoneIndices.put(cell.zone().getCode(), zoneIndex);
+                zones.add(cell.zone());
+                origins.add(cell.center());
+            }
+
+            int valueIndex = valueIndices.computeIfAbsent(cell.value(), value -> {
+                if (values.size() == MAX_VALUES) {
+                    throw new IllegalStateException("Too many distinct values for a compact hex grid: " + values.size());
+                }
+                values.add(value);
+                return values.size() - 1;
+            });
+
+            if (cells.remaining() < CELL_BYTES) {
+                ByteBuffer grown = ByteBuffer.allocateDirect(cells.capacity() * 2);
+                cells.flip();
+                grown.put(cells);
+                cells = grown;
+            }
+
+            long axialKey = HexGridCellId.axialKey(origins.get(zoneIndex), cell.center(), width, height);
+            cells.put((byte) (int) zoneIndex);
+            cells.putInt((int) (axialKey >> 32));
+            cells.putInt((int) axialKey);
+            cells.put((byte) valueIndex);
+        }
+
+        CompactHexGrid<T> build() {
+            ByteBuffer built = ByteBuffer.allocateDirect(cells.position());
+            cells.flip();
+            built.put(cells);
+            built.flip();
+            return new CompactHexGrid<>(width, height, bounds, valueClass, zones, origins, values, built);
+        }
+    }
+}
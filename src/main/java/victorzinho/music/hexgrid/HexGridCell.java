@@ -0,0 +1,14 @@
+package victorzinho.music.hexgrid;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * A cell of a hexagonal grid, as generated in its UTM zone.
+ *
+ * @param zone   The UTM zone where the cell was generated.
+ * @param center The center of the cell, in the UTM CRS of the zone.
+ * @param value  The value of the cell.
+ * @param <T>    The type of values of the cells.
+ */
+public record HexGridCell<T>(UtmZone zone, Coordinate center, T value) {
+}
@@ -0,0 +1,63 @@
+package victorzinho.music.hexgrid;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Identifies a cell of a hexagonal grid by its UTM zone and its axial coordinates in that zone. Axial coordinates
+ * are relative to the first cell generated in the zone: <code>q</code> grows to the east and <code>r</code> to the
+ * north-east (so the cell to the north-west of <code>(q, r)</code> is <code>(q - 1, r + 1)</code>).
+ *
+ * @param zone The EPSG code of the UTM zone of the cell.
+ * @param q    The axial column.
+ * @param r    The axial row.
+ */
+public record HexGridCellId(int zone, int q, int r) {
+    /**
+     * @return the axial coordinates packed in a single long, unique within the zone.
+     */
+    public long axialKey() {
+        return axialKey(q, r);
+    }
+
+    static long axialKey(int q, int r) {
+        return ((long) q << 32) | (r & 0xffffffffL);
+    }
+
+    /**
+     * @return the packed axial coordinates of the (pointy top) hexagon containing the given position, relative to
+     * the cell at the given origin. Both positions are in the same UTM CRS.
+     */
+    static long axialKey(Coordinate originUtm, Coordinate positionUtm, float width, float height) {
+        // fractional axial coordinates; rows are 3/4 of the height apart and indented half a width
+        double r = (positionUtm.y - originUtm.y) / (0.75 * height);
+        double q = (positionUtm.x - originUtm.x) / width - r / 2;
+        return roundAxial(q, r);
+    }
+
+    /**
+     * @return the packed axial coordinates of the hexagon containing the given fractional axial coordinates.
+     */
+    static long roundAxial(double q, double r) {
+        // round in cube coordinates (q + r + s = 0), fixing the component with the largest error
+        double s = -q - r;
+        long roundedQ = Math.round(q);
+        long roundedR = Math.round(r);
+        long roundedS = Math.round(s);
+        double diffQ = Math.abs(roundedQ - q);
+        double diffR = Math.abs(roundedR - r);
+        double diffS = Math.abs(roundedS - s);
+        if (diffQ > diffR && diffQ > diffS) {
+            roundedQ = -roundedR - roundedS;
+        } else if (diffR > diffS) {
+            roundedR = -roundedQ - roundedS;
+        }
+        return axialKey((int) roundedQ, (int) roundedR);
+    }
+
+    /**
+     * @return the center of the cell with the given axial coordinates, relative to the cell at the given origin.
+     */
+    static Coordinate getCenter(Coordinate originUtm, int q, int r, float width, float height) {
+        return new Coordinate(originUtm.x + width * (q + r / 2.0), originUtm.y + 0.75 * height * r);
+    }
+}
@@ -0,0 +1,184 @@
+package victorzinho.music.hexgrid;
+
+import org.locationtech.jts.geom.Coordinate;
+import victorzinho.music.pointdata.PointData;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Computes the cells of a hexagonal grid visited by a trajectory, with the instants it enters and leaves each of
+ * them. Instead of sampling the trajectory, each segment between consecutive points is intersected with the edges of
+ * the cells it crosses, so there is one lookup per cell transition.
+ * <p>
+ * Positions are interpolated linearly between consecutive points (as {@link victorzinho.music.pointdata.PointDataInterpolator}
+ * does) and, within each cell, segments are considered straight in the UTM zone of the cell. Parts of the trajectory
+ * outside the grid produce no visits.
+ *
+ * @param <T> The type of values of the cells.
+ */
+public class HexGridCellTransitions<T> {
+    // meters in a degree of latitude; degrees of longitude are never longer, so steps are conservative
+    private static final double METERS_PER_DEGREE = 111_320;
+    // how far to move past an edge to locate the next cell
+    private static final double EDGE_NUDGE_METERS = 0.001;
+
+    private final HexGridLookup<T> lookup;
+
+    /**
+     * @param lookup The lookup for the values of the grid.
+     */
+    public HexGridCellTransitions(HexGridLookup<T> lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * @param trajectory The points of the trajectory, sorted by instant (raw or interpolated).
+     * @return the visits, in order.
+     */
+    public List<HexGridCellVisit<T>> getVisits(List<? extends PointData> trajectory) {
+        List<HexGridCellVisit<T>> visits = new ArrayList<>();
+        getVisits(trajectory.iterator()).forEachRemaining(visits::add);
+        return visits;
+    }
+
+    /**
+     * Computes the visits lazily, as the trajectory is consumed.
+     *
+     * @param trajectory The points of the trajectory, sorted by instant (raw or interpolated).
+     * @return the visits, in order.
+     */
+    public Iterator<HexGridCellVisit<T>> getVisits(Iterator<? extends PointData> trajectory) {
+        return new VisitIterator(trajectory);
+    }
+
+    private class VisitIterator implements Iterator<HexGridCellVisit<T>> {
+        private final Iterator<? extends PointData> trajectory;
+        private final Deque<HexGridCellVisit<T>> pending = new ArrayDeque<>();
+
+        private PointData previous;
+        private HexGridCellId currentCell;
+        private Instant currentEnterTime;
+
+        private VisitIterator(Iterator<? extends PointData> trajectory) {
+            this.trajectory = trajectory;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending.isEmpty() && (trajectory.hasNext() || previous != null)) {
+                if (trajectory.hasNext()) {
+                    PointData next = trajectory.next();
+                    if (previous == null) {
+                        enter(lookup.locate(next.getPosition()), next.getInstant());
+                    } else {
+                        traverse(previous, next);
+                    }
+                    previous = next;
+                } else {
+                    leave(previous.getInstant());
+                    previous = null;
+                }
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public HexGridCellVisit<T> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return pending.poll();
+        }
+
+        private void traverse(PointData from, PointData to) {
+            double degrees = from.getPosition().distance(to.getPosition());
+            if (degrees == 0) return;
+
+            double meters = degrees * METERS_PER_DEGREE;
+            double outsideStep = lookup.getWidth() / 2 / meters;
+            double fraction = 0;
+            while (fraction < 1) {
+                if (currentCell == null) {
+                    // outside the grid; move half a cell at a time until entering it again
+                    fraction = Math.min(1, fraction + outsideStep);
+                    enter(lookup.locate(interpolate(from, to, fraction)), interpolateInstant(from, to, fraction));
+                    continue;
+                }
+
+                double exit = getExitFraction(currentCell, from, to, fraction);
+                if (exit >= 1) return;
+
+                // move a bit past the edge; further if the next cell is not found yet due to projection differences
+                HexGridCellId next = currentCell;
+                double nudge = EDGE_NUDGE_METERS / meters;
+                while (currentCell.equals(next) && exit + nudge < 1) {
+                    next = lookup.locate(interpolate(from, to, exit + nudge));
+                    nudge *= 2;
+                }
+                if (currentCell.equals(next)) return;
+
+                Instant exitTime = interpolateInstant(from, to, exit);
+                leave(exitTime);
+                enter(next, exitTime);
+                fraction = exit + nudge / 2;
+            }
+        }
+
+        private void enter(HexGridCellId cell, Instant instant) {
+            this.currentCell = cell;
+            this.currentEnterTime = cell != null ? instant : null;
+        }
+
+        private void leave(Instant instant) {
+            if (currentCell != null) {
+                pending.add(new HexGridCellVisit<>(currentEnterTime, instant, currentCell, lookup.getValue(currentCell)));
+            }
+            this.currentCell = null;
+            this.currentEnterTime = null;
+        }
+    }
+
+    /**
+     * Intersects the rest of the segment (from the given fraction) with the edges of the cell. The cell is the
+     * intersection of six half-planes <code>n &middot; (p - center) &lt;= d</code>; the segment leaves it through
+     * the first one it crosses moving outwards.
+     *
+     * @return the fraction of the whole segment where it leaves the cell, or 1 if it ends within it.
+     */
+    private double getExitFraction(HexGridCellId cell, PointData from, PointData to, double fraction) {
+        UtmZone zone = UtmZone.of(cell.zone());
+        Coordinate center = lookup.getCenter(cell);
+        Coordinate start = zone.fromWgs84(interpolate(from, to, fraction));
+        Coordinate end = zone.fromWgs84(to.getPosition());
+
+        double w = lookup.getWidth();
+        double h = lookup.getHeight();
+        // east, west, north-east, north-west, south-east, south-west edges
+        double[][] normals = {{1, 0}, {-1, 0}, {h / 4, w / 2}, {-h / 4, w / 2}, {h / 4, -w / 2}, {-h / 4, -w / 2}};
+        double[] distances = {w / 2, w / 2, w * h / 4, w * h / 4, w * h / 4, w * h / 4};
+
+        double startX = start.x - center.x;
+        double startY = start.y - center.y;
+        double dx = end.x - start.x;
+        double dy = end.y - start.y;
+        double exit = 1;
+        for (int i = 0; i < normals.length; i++) {
+            double speed = normals[i][0] * dx + normals[i][1] * dy;
+            if (speed <= 0) continue;
+            double s = (distances[i] - (normals[i][0] * startX + normals[i][1] * startY)) / speed;
+            exit = Math.min(exit, Math.max(s, 0));
+        }
+        return fraction + exit * (1 - fraction);
+    }
+
+    private static Coordinate interpolate(PointData from, PointData to, double fraction) {
+        Coordinate a = from.getPosition();
+        Coordinate b = to.getPosition();
+        return new Coordinate(a.x + fraction * (b.x - a.x), a.y + fraction * (b.y - a.y));
+    }
+
+    private static Instant interpolateInstant(PointData from, PointData to, double fraction) {
+        long nanos = Duration.between(from.getInstant(), to.getInstant()).toNanos();
+        return from.getInstant().plusNanos(Math.round(fraction * nanos));
+    }
+}
@@ -0,0 +1,15 @@
+package victorzinho.music.hexgrid;
+
+import java.time.Instant;
+
+/**
+ * A visit of a trajectory to a cell of a hexagonal grid.
+ *
+ * @param enterTime The instant the trajectory enters the cell.
+ * @param exitTime  The instant the trajectory leaves the cell (or ends).
+ * @param cell      The identifier of the cell.
+ * @param value     The value of the cell.
+ * @param <T>       The type of values of the cells.
+ */
+public record HexGridCellVisit<T>(Instant enterTime, Instant exitTime, HexGridCellId cell, T value) {
+}
@@ -1,27 +1,20 @@
 package victorzinho.music.hexgrid;
 
-import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.collection.AbstractFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.*;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.metadata.extent.GeographicBoundingBox;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
-import static com.diffplug.common.base.Errors.rethrow;
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
 
 public class HexGridFeatureCollection<T> extends AbstractFeatureCollection implements SimpleFeatureCollection {
@@ -30,10 +23,16 @@ public class HexGridFeatureCollection<T> extends AbstractFeatureCollection imple
     public static final String ATTR_GEOM = "geom";
     public static final String ATTR_VALUE = "value";
 
+    private static final int ROWS_PER_BAND = 64;
+    // the false easting of UTM: the easting of the central meridian of every zone
+    private static final double CENTRAL_MERIDIAN_EASTING = 500_000;
+
     private final float width;
     private final float height;
     private final ReferencedEnvelope bounds;
     private final HexGridValueProvider<T> hexGridValueProvider;
+    // counted on the first call
+    private volatile Map<Integer, Integer> cellCountPerZone;
 
     /**
      * Creates a new feature collection representing a hexagonal grid. The collection is in WGS84 but the hexagons
@@ -55,7 +54,7 @@ public class HexGridFeatureCollection<T> extends AbstractFeatureCollection imple
         this.hexGridValueProvider = hexGridValueProvider;
     }
 
-    private static SimpleFeatureType buildSchema(Class<?> outputValueBinding) {
+    static SimpleFeatureType buildSchema(Class<?> outputValueBinding) {
         SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
         builder.setName("hexGrid");
         builder.add(ATTR_GEOM, Polygon.class);
@@ -71,7 +70,23 @@ public class HexGridFeatureCollection<T> extends AbstractFeatureCollection imple
 
     @Override
     public int size() {
-        return DataUtilities.count(this);
+        return getCellCountPerZone().values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Obtains the number of cells generated in each UTM zone, without generating them: rows are walked a run of cells
+     * in the same zone at a time (see {@link RunIterator}), so only a few cells of each row are transformed to WGS84
+     * and no value, geometry or feature is computed. The counts are kept for later calls.
+     *
+     * @return the number of cells by EPSG code of the UTM zone, in the order the zones are entered.
+     */
+    public Map<Integer, Integer> getCellCountPerZone() {
+        if (cellCountPerZone == null) {
+            Map<Integer, Integer> counts = new LinkedHashMap<>();
+            new RunIterator().forEachRemaining(run -> counts.merge(run.zone().getCode(), run.count(), Integer::sum));
+            cellCountPerZone = Collections.unmodifiableMap(counts);
+        }
+        return cellCountPerZone;
     }
 
     @Override
@@ -79,32 +94,324 @@ public class HexGridFeatureCollection<T> extends AbstractFeatureCollection imple
         return this.bounds;
     }
 
+    /**
+     * Generates the grid in memory, building the features on the given number of threads.
+     * <p>
+     * If the value provider is a path independent {@link RandomAccessHexGridValueProvider}, only the runs of cells
+     * of each row in the same zone are walked in order (see {@link RunIterator}). Runs are then split in tiles
+     * (UTM zone &times; band of rows) which are generated independently in parallel: the value of each cell is
+     * computed from its axial coordinates in the zone (see {@link #buildLookup()}).
+     * <p>
+     * Otherwise, cell positions and values are obtained walking the grid in order (values depend on the previous
+     * cells and zone seams on the previous rows), but that walk does not build any geometry. The cells are then split
+     * in tiles whose polygons are built and transformed to WGS84 in parallel.
+     * <p>
+     * In both cases, the result contains exactly the same cells and values as iterating this collection, in the
+     * same order.
+     *
+     * @param parallelism The number of threads to use.
+     * @return the generated grid.
+     */
+    public SimpleFeatureCollection generateParallel(int parallelism) {
+        if (hexGridValueProvider instanceof RandomAccessHexGridValueProvider<T> randomAccessProvider
+                && randomAccessProvider.isPathIndependent()) {
+            return generateParallelFromAxialCoordinates(parallelism);
+        }
+
+        List<HexGridCell<T>> cells = new ArrayList<>();
+        Map<Long, List<Integer>> tiles = new LinkedHashMap<>();
+        CellIterator cellIterator = new CellIterator();
+        while (cellIterator.hasNext()) {
+            HexGridCell<T> cell = cellIterator.next();
+            tiles.computeIfAbsent(getTileKey(cell.zone(), cellIterator.lastRow), key -> new ArrayList<>())
+                    .add(cells.size());
+            cells.add(cell);
+        }
+
+        SimpleFeature[] features = new SimpleFeature[cells.size()];
+        runInParallel(parallelism, tiles.values(), tile -> {
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+            for (int index : tile) {
+                features[index] = buildFeature(builder, cells.get(index));
+            }
+        });
+        return new ListFeatureCollection(getSchema(), Arrays.asList(features));
+    }
+
+    private SimpleFeatureCollection generateParallelFromAxialCoordinates(int parallelism) {
+        HexGridLookup<T> lookup = buildLookup();
+
+        // index of the first feature of each run, by tile
+        List<CellRun> runs = new ArrayList<>();
+        Map<Long, List<Integer>> tiles = new LinkedHashMap<>();
+        int cellCount = 0;
+        for (RunIterator iterator = new RunIterator(); iterator.hasNext(); ) {
+            CellRun run = iterator.next();
+            tiles.computeIfAbsent(getTileKey(run.zone(), run.row()), key -> new ArrayList<>()).add(runs.size());
+            runs.add(run);
+            cellCount += run.count();
+        }
+        int[] firstIndex = new int[runs.size()];
+        for (int i = 1; i < firstIndex.length; i++) {
+            firstIndex[i] = firstIndex[i - 1] + runs.get(i - 1).count();
+        }
+
+        SimpleFeature[] features = new SimpleFeature[cellCount];
+        runInParallel(parallelism, tiles.values(), tile -> {
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+            for (int runIndex : tile) {
+                CellRun run = runs.get(runIndex);
+                int zoneCode = run.zone().getCode();
+                // eastings accumulated as in the walk, so centers are exactly the same
+                double x = run.first().x;
+                for (int i = 0; i < run.count(); i++, x += width) {
+                    Coordinate center = new Coordinate(x, run.first().y);
+                    HexGridCell<T> cell = new HexGridCell<>(run.zone(), center, lookup.getValue(zoneCode, center));
+                    features[firstIndex[runIndex] + i] = buildFeature(builder, cell);
+                }
+            }
+        });
+        return new ListFeatureCollection(getSchema(), Arrays.asList(features));
+    }
+
+    private static long getTileKey(UtmZone zone, int row) {
+        return ((long) zone.getCode() << 32) | (row / ROWS_PER_BAND);
+    }
+
+    private static void runInParallel(int parallelism, Collection<List<Integer>> tiles, Consumer<List<Integer>> task) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> tiles.parallelStream().forEach(task)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Generates the grid into a {@link CompactHexGrid}, without building any geometry or feature.
+     *
+     * @return the compact grid, with the same cells and values as this collection.
+     */
+    public CompactHexGrid<T> buildCompactGrid() {
+        CompactHexGrid.Builder<T> builder = new CompactHexGrid.Builder<>(
+                width, height, bounds, hexGridValueProvider.getValueClass());
+        new CellIterator().forEachRemaining(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Builds a lookup to obtain the values of the grid for any WGS84 coordinate in constant time.
+     * <p>
+     * If the value provider is a path independent {@link RandomAccessHexGridValueProvider}, the grid is only walked
+     * until the first cell of every UTM zone it enters is found (zones are known from
+     * {@link #getCellCountPerZone()}), and values are computed from axial coordinates.
+     * Otherwise, the grid is generated once (without building any geometry or feature) and the value of each cell
+     * is indexed by its UTM zone and axial coordinates.
+     *
+     * @return the lookup for the values of this grid.
+     */
+    public HexGridLookup<T> buildLookup() {
+        CellIterator cells = new CellIterator();
+        if (hexGridValueProvider instanceof RandomAccessHexGridValueProvider<T> randomAccessProvider
+                && randomAccessProvider.isPathIndependent()) {
+            HexGridLookup<T> lookup = new HexGridLookup<>(width, height, bounds, randomAccessProvider);
+            Set<Integer> pendingZoneCodes = new HashSet<>(getCellCountPerZone().keySet());
+            while (!pendingZoneCodes.isEmpty() && cells.hasNext()) {
+                HexGridCell<T> cell = cells.next();
+                if (!lookup.hasZone(cell.zone().getCode())) {
+                    lookup.add(cell);
+                    pendingZoneCodes.remove(cell.zone().getCode());
+                }
+            }
+            return lookup;
+        }
+
+        HexGridLookup<T> lookup = new HexGridLookup<>(width, height);
+        cells.forEachRemaining(lookup::add);
+        return lookup;
+    }
+
+    static Polygon toUtmPolygon(Coordinate center, float width, float height) {
+        return GEOMETRY_FACTORY.createPolygon(new Coordinate[]{
+                new Coordinate(center.x - 0.5 * width, center.y - 0.25 * height),
+                new Coordinate(center.x, center.y - 0.5 * height),
+                new Coordinate(center.x + 0.5 * width, center.y - 0.25 * height),
+                new Coordinate(center.x + 0.5 * width, center.y + 0.25 * height),
+                new Coordinate(center.x, center.y + 0.5 * height),
+                new Coordinate(center.x - 0.5 * width, center.y + 0.25 * height),
+                new Coordinate(center.x - 0.5 * width, center.y - 0.25 * height)
+        });
+    }
+
+    private SimpleFeature buildFeature(SimpleFeatureBuilder builder, HexGridCell<T> cell) {
+        builder.set(ATTR_GEOM, cell.zone().toWgs84(toUtmPolygon(cell.center(), width, height)));
+        builder.set(ATTR_VALUE, cell.value());
+        return builder.buildFeature(null);
+    }
+
     private class HexGridIterator implements Iterator<SimpleFeature> {
-        private final SimpleFeatureBuilder builder;
-        private SimpleFeature next;
+        private final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+        private final CellIterator cells = new CellIterator();
 
-        private T previousValueWest;
-        private T previousValueSouthEast;
-        private T previousValueSouthWest;
-        private T previousValue;
-        private T westernValueInRow;
+        @Override
+        public boolean hasNext() {
+            return cells.hasNext();
+        }
 
-        private Coordinate nextPositionUtm;
-        private CoordinateReferenceSystem currentCrs;
-        private Envelope currentCrsEnvelope;
+        @Override
+        public SimpleFeature next() {
+            HexGridCell<T> cell = cells.next();
+            if (cell == null) return null;
+
+            return buildFeature(builder, cell);
+        }
+    }
 
-        private boolean lastRowIndented;
+    /**
+     * How a row starts, from the western cell of the previous row.
+     */
+    private enum RowStart {
+        // the cell to the north-west or north-east of the western cell of the previous row (alternatively)
+        ABOVE,
+        // the next cell to the east, when the one above is out of the region of interest
+        EAST_OF_ABOVE,
+        // no more rows
+        NONE
+    }
+
+    /**
+     * Walks the positions of the cells of the grid row by row (from south to north, west to east), switching to
+     * another UTM zone where rows leave the domain of validity of the current one.
+     */
+    private abstract class GridWalk {
+        // row of the cell at the next position
+        int row;
+        Coordinate nextPositionUtm;
+        UtmZone currentZone;
+
+        boolean lastRowIndented;
         private Coordinate westernPositionInRow;
-        private CoordinateReferenceSystem westernCrsInRow;
-        private final Map<String, Coordinate> crsToFirstCoordinateInRow = new HashMap<>();
-        private final Map<String, STRtree> crsToIndex = new HashMap<>();
+        private UtmZone westernZoneInRow;
+        private final Map<Integer, Coordinate> zoneToFirstCoordinateInRow = new HashMap<>();
 
-        public HexGridIterator() {
-            this.builder = new SimpleFeatureBuilder(getSchema());
+        GridWalk() {
             updateCrs(new Coordinate(bounds.getMinX(), bounds.getMinY()));
             this.lastRowIndented = false;
             this.westernPositionInRow = this.nextPositionUtm;
-            this.westernCrsInRow = this.currentCrs;
+            this.westernZoneInRow = this.currentZone;
+        }
+
+        /**
+         * Moves to the next cell to the east, in another zone if it leaves the current one.
+         *
+         * @return <code>false</code> if the cell is not contained in the region of interest (the next position is
+         * unchanged then).
+         */
+        boolean moveEast() {
+            return updatePosition(new Coordinate(nextPositionUtm.x + width, nextPositionUtm.y));
+        }
+
+        /**
+         * Moves to the western cell of the next row (the next position is <code>null</code> if there is none).
+         */
+        RowStart moveToNextRow() {
+            this.currentZone = this.westernZoneInRow;
+            Coordinate coordinate = new Coordinate(westernPositionInRow.x, westernPositionInRow.y + 0.75 * height);
+            coordinate.x += (lastRowIndented ? -width / 2 : width / 2);
+
+            RowStart rowStart = RowStart.NONE;
+            if (!bounds.contains(toWgs84(coordinate))) {
+                // depending on the inclination of the wgs84 envelope in regard to the utm crs, the western
+                // hexagon might fall outside of bounds for the next row; if that's the case, try again with
+                // the next one
+                coordinate.x += width;
+                if (updatePosition(coordinate)) {
+                    rowStart = RowStart.EAST_OF_ABOVE;
+                }
+            } else if (updatePosition(coordinate)) {
+                rowStart = RowStart.ABOVE;
+            }
+
+            if (rowStart == RowStart.NONE) {
+                this.nextPositionUtm = null;
+            } else {
+                this.westernPositionInRow = this.nextPositionUtm;
+                this.westernZoneInRow = this.currentZone;
+                this.lastRowIndented = !this.lastRowIndented;
+                this.row++;
+            }
+            return rowStart;
+        }
+
+        /**
+         * @return whether the given position is contained in the region of interest; it is the next position then,
+         * in another zone if it is not contained in the current one.
+         */
+        boolean updatePosition(Coordinate positionUtm) {
+            Coordinate positionWgs84 = toWgs84(positionUtm);
+            if (!bounds.contains(positionWgs84)) {
+                return false;
+            }
+
+            if (this.currentZone.contains(positionUtm)) {
+                // contained in both current UTM projection and region of interest
+                this.nextPositionUtm = positionUtm;
+            } else {
+                // contained in region of interest, different UTM zone
+                updateCrs(positionWgs84);
+            }
+
+            return true;
+        }
+
+        private void updateCrs(Coordinate currentPositionWgs84) {
+            this.currentZone = UtmZone.of(currentPositionWgs84);
+            this.nextPositionUtm = this.currentZone.fromWgs84(currentPositionWgs84);
+
+            // Adjust to grid
+            int zoneCode = this.currentZone.getCode();
+            Coordinate firstCoordinate = this.zoneToFirstCoordinateInRow.get(zoneCode);
+            if (firstCoordinate != null) {
+                double diffX = (this.nextPositionUtm.x - firstCoordinate.x) % width;
+                this.nextPositionUtm.x -= diffX;
+                this.nextPositionUtm.x += lastRowIndented ? -width / 2 : width / 2;
+                this.nextPositionUtm.y = firstCoordinate.y + 0.75 * height;
+                onZoneReentered(zoneCode);
+            }
+
+            this.zoneToFirstCoordinateInRow.put(zoneCode, this.nextPositionUtm);
+        }
+
+        /**
+         * Called when the walk enters a zone again, once the next position is adjusted to the grid of the zone (never
+         * for the first zone, so it can be called before subclasses are initialized).
+         */
+        void onZoneReentered(int zoneCode) {
+        }
+
+        Coordinate toWgs84(Coordinate coordinate) {
+            return this.currentZone.toWgs84(coordinate);
+        }
+    }
+
+    /**
+     * Walks the grid row by row (from south to north, west to east), computing the position and value of each cell.
+     */
+    private class CellIterator extends GridWalk implements Iterator<HexGridCell<T>> {
+        private HexGridCell<T> next;
+        // row of the last cell returned by next()
+        private int lastRow;
+        private int nextRow;
+
+        private T previousValueWest;
+        private T previousValueSouthEast;
+        private T previousValueSouthWest;
+        private T previousValue;
+        private T westernValueInRow;
+
+        private final Map<Integer, STRtree> zoneToIndex = new HashMap<>();
+
+        public CellIterator() {
             this.previousValueWest = hexGridValueProvider.getInitialValue();
         }
 
@@ -117,13 +424,15 @@ public class HexGridFeatureCollection<T> extends AbstractFeatureCollection imple
         }
 
         @Override
-        public SimpleFeature next() {
-            SimpleFeature ret = next;
+        public HexGridCell<T> next() {
+            hasNext();
+            HexGridCell<T> ret = next;
+            lastRow = nextRow;
             next = null;
             return ret;
         }
 
-        private SimpleFeature findNext() {
+        private HexGridCell<T> findNext() {
             T value;
 
             if (previousValueSouthWest != null) {
@@ -141,27 +450,20 @@ public class HexGridFeatureCollection<T> extends AbstractFeatureCollection imple
                 this.westernValueInRow = value;
             }
 
-            Polygon hexUtm = GEOMETRY_FACTORY.createPolygon(new Coordinate[]{
-                    new Coordinate(this.nextPositionUtm.x - 0.5 * width, this.nextPositionUtm.y - 0.25 * height),
-                    new Coordinate(this.nextPositionUtm.x, this.nextPositionUtm.y - 0.5 * height),
-                    new Coordinate(this.nextPositionUtm.x + 0.5 * width, this.nextPositionUtm.y - 0.25 * height),
-                    new Coordinate(this.nextPositionUtm.x + 0.5 * width, this.nextPositionUtm.y + 0.25 * height),
-                    new Coordinate(this.nextPositionUtm.x, this.nextPositionUtm.y + 0.5 * height),
-                    new Coordinate(this.nextPositionUtm.x - 0.5 * width, this.nextPositionUtm.y + 0.25 * height),
-                    new Coordinate(this.nextPositionUtm.x - 0.5 * width, this.nextPositionUtm.y - 0.25 * height)
-            });
-
-            builder.set(ATTR_GEOM, toWgs84(hexUtm));
-            builder.set(ATTR_VALUE, value);
-
-            String currentCrsName = currentCrs.getName().toString();
-            if (!this.crsToIndex.containsKey(currentCrsName)) {
-                this.crsToIndex.put(currentCrsName, new STRtree());
+            HexGridCell<T> cell = new HexGridCell<>(currentZone, nextPositionUtm, value);
+            this.nextRow = this.row;
+
+            int currentZoneCode = currentZone.getCode();
+            if (!this.zoneToIndex.containsKey(currentZoneCode)) {
+                this.zoneToIndex.put(currentZoneCode, new STRtree());
             }
-            this.crsToIndex.get(currentCrsName).insert(hexUtm.getEnvelopeInternal(), previousValue);
+            Envelope hexEnvelope = new Envelope(
+                    nextPositionUtm.x - 0.5 * width, nextPositionUtm.x + 0.5 * width,
+                    nextPositionUtm.y - 0.5 * height, nextPositionUtm.y + 0.5 * height);
+            this.zoneToIndex.get(currentZoneCode).insert(hexEnvelope, previousValue);
 
             updateNextPosition();
-            return builder.buildFeature(null);
+            return cell;
         }
 
         private void updateNextPosition() {
@@ -170,131 +472,155 @@ public class HexGridFeatureCollection<T> extends AbstractFeatureCollection imple
             this.previousValueSouthEast = null;
 
             // Try one more hex to the east
-            Coordinate coordinate = new Coordinate(nextPositionUtm.x + width, nextPositionUtm.y);
-            if (updatePosition(coordinate)) {
+            if (moveEast()) {
                 this.previousValueWest = previousValue;
                 return;
             }
 
             // Not contained in bounds, try next row (western hex to the north)
-            this.currentCrs = this.westernCrsInRow;
-            coordinate = new Coordinate(westernPositionInRow.x, westernPositionInRow.y + 0.75 * height);
-            coordinate.x += (lastRowIndented ? -width / 2 : width / 2);
-
-            if (!bounds.contains(toWgs84(coordinate))) {
-                // depending on the inclination of the wgs84 envelope in regard to the utm crs, the western
-                // hexagon might fall outside of bounds for the next row; if that's the case, try again with
-                // the next one
-                coordinate.x += width;
-                if (updatePosition(coordinate)) {
-                    this.previousValueSouthWest = this.lastRowIndented
-                            ? this.westernValueInRow
-                            : hexGridValueProvider.getValueFromWest(this.westernValueInRow);
-                    resetRow();
-                    return;
+            boolean lastRowIndented = this.lastRowIndented;
+            switch (moveToNextRow()) {
+                case ABOVE -> {
+                    if (lastRowIndented) {
+                        this.previousValueSouthEast = this.westernValueInRow;
+                    } else {
+                        this.previousValueSouthWest = this.westernValueInRow;
+                    }
                 }
-            } else if (updatePosition(coordinate)) {
-                if (this.lastRowIndented) {
-                    this.previousValueSouthEast = this.westernValueInRow;
-                } else {
-                    this.previousValueSouthWest = this.westernValueInRow;
+                case EAST_OF_ABOVE -> this.previousValueSouthWest = lastRowIndented
+                        ? this.westernValueInRow
+                        : hexGridValueProvider.getValueFromWest(this.westernValueInRow);
+                case NONE -> {
+                    return;
                 }
-                resetRow();
-                return;
             }
-
-            this.nextPositionUtm = null;
-        }
-
-        private void resetRow() {
-            this.westernPositionInRow = this.nextPositionUtm;
-            this.westernCrsInRow = this.currentCrs;
             this.westernValueInRow = null;
-            this.lastRowIndented = !this.lastRowIndented;
         }
 
-        private boolean updatePosition(Coordinate positionUtm) {
-            Coordinate positionWgs84 = toWgs84(positionUtm);
-            if (!bounds.contains(positionWgs84)) {
-                return false;
+        @Override
+        @SuppressWarnings("unchecked")
+        void onZoneReentered(int zoneCode) {
+            if (this.zoneToIndex.containsKey(zoneCode)) {
+                List<?> values = this.zoneToIndex.get(zoneCode)
+                        .query(new Envelope(
+                                nextPositionUtm.x - width / 2,
+                                nextPositionUtm.x - width / 2,
+                                nextPositionUtm.y - 0.75 * height,
+                                nextPositionUtm.y - 0.75 * height));
+                if (!values.isEmpty()) {
+                    this.previousValueSouthWest = (T) values.get(0);
+                } else {
+                    this.previousValueSouthEast = (T) this.zoneToIndex.get(zoneCode)
+                            .query(new Envelope(
+                                    nextPositionUtm.x + width / 2,
+                                    nextPositionUtm.x + width / 2,
+                                    nextPositionUtm.y - 0.75 * height,
+                                    nextPositionUtm.y - 0.75 * height))
+                            .get(0);
+                }
             }
+            this.zoneToIndex.remove(zoneCode);
+        }
+    }
 
-            if (this.currentCrsEnvelope.contains(positionUtm)) {
-                // contained in both current UTM projection and region of interest
-                this.nextPositionUtm = positionUtm;
-            } else {
-                // contained in region of interest, different UTM zone
-                updateCrs(positionWgs84);
-            }
+    /**
+     * A run of cells of a row in the same UTM zone, from west to east.
+     *
+     * @param zone  The UTM zone of the cells.
+     * @param row   The row of the cells.
+     * @param first The center of the western cell, in the UTM CRS of the zone; the next ones follow every cell width.
+     * @param count The number of cells.
+     */
+    private record CellRun(UtmZone zone, int row, Coordinate first, int count) {
+    }
 
-            return true;
-        }
+    /**
+     * Walks the same positions as {@link CellIterator}, but a run of cells of a row in the same zone at a time, and
+     * without values.
+     * <p>
+     * Along a row, eastings grow, so cells leave the domain of validity of the zone only once; longitudes grow too,
+     * and latitudes are monotonic on each side of the central meridian of the zone, so cells leave the region of
+     * interest at most once on each side. The end of each run is then found with a galloping search, transforming
+     * <code>O(log n)</code> cells to WGS84 instead of all of them. Eastings are still accumulated cell by cell (as
+     * {@link #moveEast()} does), so runs end at exactly the same cells as the walk.
+     */
+    private class RunIterator extends GridWalk implements Iterator<CellRun> {
+        // eastings of the cells of the current run, from its first cell, as far as they were needed
+        private double[] eastings = new double[1024];
+        private int eastingCount;
+        private double northing;
+        private Envelope zoneEnvelope;
 
-        @SuppressWarnings("unchecked")
-        private void updateCrs(Coordinate currentPositionWgs84) {
-            this.currentCrs = getUtmCrs(currentPositionWgs84);
-            GeographicBoundingBox geographicBbox = (GeographicBoundingBox) this.currentCrs.getDomainOfValidity()
-                    .getGeographicElements().stream().filter(extent -> extent instanceof GeographicBoundingBox).findAny()
-                    .orElseThrow(() -> new IllegalStateException("Cannot find bbox for CRS"));
-            Envelope crsEnvelope = new Envelope(
-                    geographicBbox.getEastBoundLongitude(),
-                    geographicBbox.getWestBoundLongitude(),
-                    geographicBbox.getSouthBoundLatitude(),
-                    geographicBbox.getNorthBoundLatitude());
-            MathTransform mathTransform = rethrow().wrap(() -> CRS.findMathTransform(WGS84, currentCrs)).get();
-            this.currentCrsEnvelope = rethrow().wrap(() -> JTS.transform(crsEnvelope, mathTransform)).get();
-
-            this.nextPositionUtm = rethrow().wrap(() -> JTS.transform(currentPositionWgs84, null, mathTransform)).get();
+        @Override
+        public boolean hasNext() {
+            return nextPositionUtm != null;
+        }
 
-            // Adjust to grid
-            String crsName = this.currentCrs.getName().toString();
-            Coordinate firstCoordinate = this.crsToFirstCoordinateInRow.get(crsName);
-            if (firstCoordinate != null) {
-                double diffX = (this.nextPositionUtm.x - firstCoordinate.x) % width;
-                this.nextPositionUtm.x -= diffX;
-                this.nextPositionUtm.x += lastRowIndented ? -width / 2 : width / 2;
-                this.nextPositionUtm.y = firstCoordinate.y + 0.75 * height;
+        @Override
+        public CellRun next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            UtmZone zone = this.currentZone;
+            int runRow = this.row;
+            Coordinate first = this.nextPositionUtm;
+            int count = countRun();
+
+            // the cell after the run is in another zone, or the row ends
+            if (!updatePosition(new Coordinate(getEasting(count), northing))) {
+                moveToNextRow();
+            }
+            return new CellRun(zone, runRow, first, count);
+        }
 
-                if (this.crsToIndex.containsKey(crsName)) {
-                    List<?> values = this.crsToIndex.get(crsName)
-                            .query(new Envelope(
-                                    nextPositionUtm.x - width / 2,
-                                    nextPositionUtm.x - width / 2,
-                                    nextPositionUtm.y - 0.75 * height,
-                                    nextPositionUtm.y - 0.75 * height));
-                    if (!values.isEmpty()) {
-                        this.previousValueSouthWest = (T) values.get(0);
+        // the number of cells in the run starting at the next position
+        private int countRun() {
+            this.eastings[0] = nextPositionUtm.x;
+            this.eastingCount = 1;
+            this.northing = nextPositionUtm.y;
+            this.zoneEnvelope = currentZone.getEnvelope();
+
+            int last = 0;
+            while (isInRun(last + 1)) {
+                // the next cell starts a monotonic stretch: on the same side of the central meridian as it
+                boolean west = eastings[last + 1] < CENTRAL_MERIDIAN_EASTING;
+                int inRun = last + 1;
+                int step = 1;
+                int notInRun = inRun + step;
+                while (isInRun(notInRun, west)) {
+                    inRun = notInRun;
+                    step *= 2;
+                    notInRun = inRun + step;
+                }
+                while (notInRun - inRun > 1) {
+                    int middle = (inRun + notInRun) >>> 1;
+                    if (isInRun(middle, west)) {
+                        inRun = middle;
                     } else {
-                        this.previousValueSouthEast = (T) this.crsToIndex.get(crsName)
-                                .query(new Envelope(
-                                        nextPositionUtm.x + width / 2,
-                                        nextPositionUtm.x + width / 2,
-                                        nextPositionUtm.y - 0.75 * height,
-                                        nextPositionUtm.y - 0.75 * height))
-                                .get(0);
+                        notInRun = middle;
                     }
                 }
-                this.crsToIndex.remove(crsName);
+                last = inRun;
             }
-
-            this.crsToFirstCoordinateInRow.put(crsName, this.nextPositionUtm);
+            return last + 1;
         }
 
-        private Coordinate toWgs84(Coordinate coordinate) {
-            return rethrow().get(() -> JTS.transform(coordinate, null, CRS.findMathTransform(currentCrs, WGS84, true)));
+        private boolean isInRun(int index, boolean west) {
+            return (getEasting(index) < CENTRAL_MERIDIAN_EASTING) == west && isInRun(index);
         }
 
-        private Geometry toWgs84(Geometry g) {
-            return rethrow().get(() -> JTS.transform(g, CRS.findMathTransform(currentCrs, WGS84, true)));
+        // whether the cell at the given index of the run is contained in both the current zone and region of interest
+        private boolean isInRun(int index) {
+            Coordinate positionUtm = new Coordinate(getEasting(index), northing);
+            return zoneEnvelope.contains(positionUtm) && bounds.contains(toWgs84(positionUtm));
         }
 
-        private CoordinateReferenceSystem getUtmCrs(Coordinate coordinateWgs84) {
-            // UTM divides the world in 60 zones per hemisphere; 6 degrees each, starting on
-            // -180 for zone 1
-            int zone = 1 + ((int) coordinateWgs84.x + 180) / 6;
-            // EPSG:326xx is for northern hemisphere; EPSG:327xx for southern
-            int code = (coordinateWgs84.y > 0 ? 32600 : 32700) + zone;
-            return rethrow().get(() -> CRS.decode("EPSG:" + code, true));
+        private double getEasting(int index) {
+            if (index >= eastings.length) {
+                eastings = Arrays.copyOf(eastings, Math.max(2 * eastings.length, index + 1));
+            }
+            for (; eastingCount <= index; eastingCount++) {
+                eastings[eastingCount] = eastings[eastingCount - 1] + width;
+            }
+            return eastings[index];
         }
     }
 }
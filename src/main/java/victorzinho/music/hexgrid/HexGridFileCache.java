@@ -0,0 +1,195 @@
+package victorzinho.music.hexgrid;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import victorzinho.music.pitch.PitchClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+
+/**
+ * On-disk cache for hexagonal grids of pitch classes. The grid is generated once, written as a
+ * {@link CompactHexGrid} to a binary file and memory-mapped on later runs.
+ * <p>
+ * There is a file per grid, named after a checksum of the parameters the grid was generated with (cell size, region
+ * of interest and semitones of the {@link HexGridPitchClassProvider}), so grids with different parameters can share
+ * the directory. The file starts with those parameters and a checksum of the rest of the file, which are read and
+ * checked before mapping it; if any parameter differs (a checksum collision) or the checksum does not match, the grid
+ * is generated again and the file replaced.
+ */
+public class HexGridFileCache {
+    private static final String FILE_PREFIX = "hexgrid_";
+    private static final String FILE_SUFFIX = ".cache";
+
+    private static final int MAGIC = 0x48455847; // HEXG
+    private static final int VERSION = 1;
+    private static final int PARAMETERS_BYTES = 2 * Integer.BYTES + Float.BYTES + 4 * Double.BYTES + 3 * Integer.BYTES;
+
+    private final File directory;
+
+    /**
+     * @param directory The directory to keep the cache files in.
+     */
+    public HexGridFileCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Obtains the grid for the given parameters, from the cache file if it was generated with the same ones.
+     *
+     * @param outerCircleCellSize       The size of each cell (see {@link HexGridFeatureCollection}).
+     * @param regionOfInterestInWgs84   The region of interest, in WGS84.
+     * @param hexGridPitchClassProvider The provider of values for the hex grid.
+     * @return the grid.
+     * @throws IOException if the cache file cannot be read or written.
+     */
+    public CompactHexGrid<PitchClass> getGrid(
+            float outerCircleCellSize, Envelope regionOfInterestInWgs84,
+            HexGridPitchClassProvider hexGridPitchClassProvider
+    ) throws IOException {
+        ByteBuffer parameters = encodeParameters(outerCircleCellSize, regionOfInterestInWgs84, hexGridPitchClassProvider);
+        File file = getFile(parameters);
+        CompactHexGrid<PitchClass> grid = read(file, parameters, regionOfInterestInWgs84);
+        if (grid == null) {
+            grid = new HexGridFeatureCollection<>(outerCircleCellSize, regionOfInterestInWgs84, hexGridPitchClassProvider)
+                    .buildCompactGrid();
+            write(file, parameters, grid);
+        }
+        return grid;
+    }
+
+    // named after the parameters
+    private File getFile(ByteBuffer parameters) {
+        CRC32 crc = new CRC32();
+        crc.update(parameters.duplicate());
+        return new File(directory, String.format("%s%08x%s", FILE_PREFIX, crc.getValue(), FILE_SUFFIX));
+    }
+
+    private static ByteBuffer encodeParameters(
+            float outerCircleCellSize, Envelope envelope, HexGridPitchClassProvider provider
+    ) {
+        return ByteBuffer.allocate(PARAMETERS_BYTES)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putFloat(outerCircleCellSize)
+                .putDouble(envelope.getMinX())
+                .putDouble(envelope.getMaxX())
+                .putDouble(envelope.getMinY())
+                .putDouble(envelope.getMaxY())
+                .putInt(provider.getWestSemitones())
+                .putInt(provider.getSouthEastSemitones())
+                .putInt(provider.getSouthWestSemitones())
+                .flip();
+    }
+
+    /**
+     * @return the cached grid or <code>null</code> if there is no cache file or it does not match the parameters.
+     */
+    private static CompactHexGrid<PitchClass> read(File file, ByteBuffer parameters, Envelope envelope)
+            throws IOException {
+        if (!file.isFile()) return null;
+
+        // checked with plain reads, since a mapped file cannot be replaced on some systems (Windows)
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            ByteBuffer start = ByteBuffer.allocate(PARAMETERS_BYTES + Long.BYTES);
+            while (start.hasRemaining()) {
+                if (channel.read(start) < 0) return null;
+            }
+            if (!start.flip().slice(0, PARAMETERS_BYTES).equals(parameters)) return null;
+            long checksum = start.getLong(PARAMETERS_BYTES);
+            CRC32 crc = new CRC32();
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+            while (channel.read(chunk.clear()) >= 0) {
+                crc.update(chunk.flip());
+            }
+            if (crc.getValue() != checksum) return null;
+
+            // the mapping stays valid after closing the channel
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            buffer.position(PARAMETERS_BYTES + Long.BYTES);
+            float width = buffer.getFloat();
+            float height = buffer.getFloat();
+            int zoneCount = buffer.getInt();
+            List<UtmZone> zones = new ArrayList<>(zoneCount);
+            List<Coordinate> origins = new ArrayList<>(zoneCount);
+            for (int i = 0; i < zoneCount; i++) {
+                zones.add(UtmZone.of(buffer.getInt()));
+                origins.add(new Coordinate(buffer.getDouble(), buffer.getDouble()));
+            }
+            int valueCount = buffer.getInt();
+            List<PitchClass> values = new ArrayList<>(valueCount);
+            for (int i = 0; i < valueCount; i++) {
+                values.add(PitchClass.fromSemitones(buffer.get()));
+            }
+            int cellCount = buffer.getInt();
+            ByteBuffer cells = buffer.slice(buffer.position(), cellCount * CompactHexGrid.CELL_BYTES);
+
+            return new CompactHexGrid<>(width, height, new ReferencedEnvelope(envelope, WGS84), PitchClass.class,
+                    zones, origins, values, cells);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // truncated or otherwise corrupt
+            return null;
+        }
+    }
+
+    private static void write(File file, ByteBuffer parameters, CompactHexGrid<PitchClass> grid) throws IOException {
+        List<UtmZone> zones = grid.getZones();
+        List<Coordinate> origins = grid.getOrigins();
+        List<PitchClass> values = grid.getValues();
+
+        ByteBuffer header = ByteBuffer.allocate(2 * Float.BYTES
+                + Integer.BYTES + zones.size() * (Integer.BYTES + 2 * Double.BYTES)
+                + Integer.BYTES + values.size()
+                + Integer.BYTES);
+        header.putFloat(grid.getWidth());
+        header.putFloat(grid.getHeight());
+        header.putInt(zones.size());
+        for (int i = 0; i < zones.size(); i++) {
+            header.putInt(zones.get(i).getCode());
+            header.putDouble(origins.get(i).x);
+            header.putDouble(origins.get(i).y);
+        }
+        header.putInt(values.size());
+        for (PitchClass value : values) {
+            header.put((byte) value.getSemitones());
+        }
+        header.putInt(grid.size());
+        header.flip();
+
+        ByteBuffer cells = grid.getCells();
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate());
+        crc.update(cells.duplicate());
+        ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).flip();
+
+        // write to a temporary file first, so a failed write never leaves a valid looking cache
+        Files.createDirectories(file.getParentFile().toPath());
+        Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, WRITE, TRUNCATE_EXISTING)) {
+            for (ByteBuffer buffer : new ByteBuffer[]{parameters.duplicate(), checksum, header, cells}) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        Files.move(tmp, file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
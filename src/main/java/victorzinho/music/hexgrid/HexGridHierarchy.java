@@ -0,0 +1,141 @@
+package victorzinho.music.hexgrid;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-resolution view of a hexagonal grid with an aperture 7 hierarchy: each cell of level <code>n + 1</code>
+ * groups a cell of level <code>n</code> (its center child) and the six neighbours of that one. Level 0 is the grid of
+ * the given {@link HexGridLookup}; coarser levels are not generated, but derived from its axial coordinates.
+ * <p>
+ * In axial coordinates of the children, the parent lattice is spanned by <code>(2, 1)</code> and
+ * <code>(-1, 3)</code> (rotated and &radic;7 times bigger), so the center child of parent <code>(a, b)</code> is
+ * <code>(2a - b, a + 3b)</code> and the parent of child <code>(q, r)</code> is the rounding of
+ * <code>((3q + r) / 7, (2r - q) / 7)</code>. Both are constant time. Cell identifiers of all levels keep the UTM zone
+ * of level 0.
+ * <p>
+ * Values of coarser levels are propagated from the center child with
+ * {@link HexGridValueProvider#getValueFromCenterChild(Object)}.
+ *
+ * @param <T> The type of values of the cells.
+ */
+public class HexGridHierarchy<T> {
+    private static final int APERTURE = 7;
+    // axial offsets of the neighbours of a cell
+    private static final int[][] NEIGHBOURS = {{1, 0}, {1, -1}, {0, -1}, {-1, 0}, {-1, 1}, {0, 1}};
+
+    private final HexGridLookup<T> lookup;
+    private final HexGridValueProvider<T> hexGridValueProvider;
+
+    /**
+     * @param lookup               The lookup for the finest level.
+     * @param hexGridValueProvider The provider the grid was generated with.
+     */
+    public HexGridHierarchy(HexGridLookup<T> lookup, HexGridValueProvider<T> hexGridValueProvider) {
+        this.lookup = lookup;
+        this.hexGridValueProvider = hexGridValueProvider;
+    }
+
+    /**
+     * @param cell A cell of any level.
+     * @return the cell of the next (coarser) level containing it.
+     */
+    public static HexGridCellId getParent(HexGridCellId cell) {
+        double a = (3.0 * cell.q() + cell.r()) / APERTURE;
+        double b = (2.0 * cell.r() - cell.q()) / APERTURE;
+        long key = HexGridCellId.roundAxial(a, b);
+        return new HexGridCellId(cell.zone(), (int) (key >> 32), (int) key);
+    }
+
+    /**
+     * @param cell A cell of any level but 0.
+     * @return the center child of the cell, in the previous (finer) level.
+     */
+    public static HexGridCellId getCenterChild(HexGridCellId cell) {
+        return new HexGridCellId(cell.zone(), 2 * cell.q() - cell.r(), cell.q() + 3 * cell.r());
+    }
+
+    /**
+     * @param cell A cell of any level but 0.
+     * @return the 7 children of the cell in the previous (finer) level, the center one first.
+     */
+    public static List<HexGridCellId> getChildren(HexGridCellId cell) {
+        HexGridCellId center = getCenterChild(cell);
+        List<HexGridCellId> children = new ArrayList<>(APERTURE);
+        children.add(center);
+        for (int[] neighbour : NEIGHBOURS) {
+            children.add(new HexGridCellId(center.zone(), center.q() + neighbour[0], center.r() + neighbour[1]));
+        }
+        return children;
+    }
+
+    /**
+     * @param coordinateWgs84 The coordinate to look up, in WGS84.
+     * @param level           The level of the cell to obtain, 0 being the finest one.
+     * @return the cell of the given level containing the coordinate or <code>null</code> if it is not contained in
+     * the grid.
+     */
+    public HexGridCellId locate(Coordinate coordinateWgs84, int level) {
+        HexGridCellId cell = lookup.locate(coordinateWgs84);
+        for (int i = 0; cell != null && i < level; i++) {
+            cell = getParent(cell);
+        }
+        return cell;
+    }
+
+    /**
+     * @param cell  The cell.
+     * @param level The level of the cell.
+     * @return the value of the cell or <code>null</code> if its central cell of level 0 is not part of the grid.
+     */
+    public T getValue(HexGridCellId cell, int level) {
+        HexGridCellId center = getFinestCenter(cell, level);
+        T value = lookup.getValue(center);
+        for (int i = 0; value != null && i < level; i++) {
+            value = hexGridValueProvider.getValueFromCenterChild(value);
+        }
+        return value;
+    }
+
+    /**
+     * @param coordinateWgs84 The coordinate to look up, in WGS84.
+     * @param level           The level to use, 0 being the finest one.
+     * @return the value of the cell of the given level containing the coordinate or <code>null</code> if it is not
+     * contained in the grid.
+     */
+    public T getValue(Coordinate coordinateWgs84, int level) {
+        HexGridCellId cell = locate(coordinateWgs84, level);
+        return cell != null ? getValue(cell, level) : null;
+    }
+
+    /**
+     * @param coordinateWgs84 The coordinate to look up, in WGS84.
+     * @param speed           The speed at the coordinate (m/s), <code>null</code> if unknown.
+     * @param levelSelector   The selector of the level to use.
+     * @return the value of the cell of the selected level containing the coordinate or <code>null</code> if it is
+     * not contained in the grid.
+     */
+    public T getValue(Coordinate coordinateWgs84, Double speed, HexGridLevelSelector levelSelector) {
+        return getValue(coordinateWgs84, levelSelector.getLevel(coordinateWgs84, speed));
+    }
+
+    /**
+     * @param cell  The cell.
+     * @param level The level of the cell.
+     * @return the center of the cell, in the UTM CRS of its zone, or <code>null</code> if the zone is not part of
+     * the grid.
+     */
+    public Coordinate getCenter(HexGridCellId cell, int level) {
+        return lookup.getCenter(getFinestCenter(cell, level));
+    }
+
+    private static HexGridCellId getFinestCenter(HexGridCellId cell, int level) {
+        HexGridCellId center = cell;
+        for (int i = 0; i < level; i++) {
+            center = getCenterChild(center);
+        }
+        return center;
+    }
+}
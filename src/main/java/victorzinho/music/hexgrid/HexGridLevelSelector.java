@@ -0,0 +1,54 @@
+package victorzinho.music.hexgrid;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chooses the level of a {@link HexGridHierarchy} to use for a position of a trajectory.
+ */
+@FunctionalInterface
+public interface HexGridLevelSelector {
+    /**
+     * @param coordinateWgs84 The position, in WGS84.
+     * @param speed           The speed at the position (m/s), <code>null</code> if unknown.
+     * @return the level to use, 0 being the finest one.
+     */
+    int getLevel(Coordinate coordinateWgs84, Double speed);
+
+    /**
+     * Uses coarser cells the faster the trajectory goes.
+     *
+     * @param speedThresholds Increasing speeds (m/s) from which to move to the next level.
+     * @return the selector; level 0 for unknown speeds.
+     */
+    static HexGridLevelSelector bySpeed(double... speedThresholds) {
+        return (coordinateWgs84, speed) -> {
+            if (speed == null) return 0;
+            int level = 0;
+            while (level < speedThresholds.length && speed >= speedThresholds[level]) {
+                level++;
+            }
+            return level;
+        };
+    }
+
+    /**
+     * Uses a level per region (e.g. coarse cells offshore and fine cells near the coast).
+     *
+     * @param regionsInWgs84 The level for each region. When regions overlap, the first one containing the position
+     *                       is used.
+     * @param defaultLevel   The level for positions outside all regions.
+     * @return the selector.
+     */
+    static HexGridLevelSelector byRegion(Map<Envelope, Integer> regionsInWgs84, int defaultLevel) {
+        Map<Envelope, Integer> regions = new LinkedHashMap<>(regionsInWgs84);
+        return (coordinateWgs84, speed) -> regions.entrySet().stream()
+                .filter(region -> region.getKey().contains(coordinateWgs84))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(defaultLevel);
+    }
+}
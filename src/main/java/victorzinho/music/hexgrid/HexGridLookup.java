@@ -0,0 +1,157 @@
+package victorzinho.music.hexgrid;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Constant time point-to-cell lookup for a {@link HexGridFeatureCollection}. Instead of querying the cell polygons,
+ * WGS84 coordinates are projected to the UTM zone of the grid and converted to the axial coordinates of the
+ * (pointy top) hexagon containing them, using the same geometry as the feature collection.
+ * <p>
+ * With a path independent {@link RandomAccessHexGridValueProvider}, only the first cell of each zone is kept and
+ * values are computed from the axial coordinates; a cell is then considered part of the grid when its center is
+ * contained in the region of interest and in the domain of validity of its zone. Otherwise, the value of every
+ * cell is indexed.
+ *
+ * @param <T> The type of values of the cells.
+ */
+public class HexGridLookup<T> {
+    private final float width;
+    private final float height;
+    private final Envelope bounds;
+    private final RandomAccessHexGridValueProvider<T> randomAccessProvider;
+    // in the order the zones were found when generating the grid (west to east)
+    private final Map<Integer, Zone<T>> zones = new LinkedHashMap<>();
+
+    /**
+     * Creates a lookup indexing the value of every cell added.
+     */
+    HexGridLookup(float width, float height) {
+        this(width, height, null, null);
+    }
+
+    /**
+     * Creates a lookup computing values from the first cell added for each zone.
+     */
+    HexGridLookup(float width, float height, Envelope bounds, RandomAccessHexGridValueProvider<T> randomAccessProvider) {
+        this.width = width;
+        this.height = height;
+        this.bounds = bounds;
+        this.randomAccessProvider = randomAccessProvider;
+    }
+
+    float getWidth() {
+        return width;
+    }
+
+    float getHeight() {
+        return height;
+    }
+
+    void add(HexGridCell<T> cell) {
+        Zone<T> zone = zones.computeIfAbsent(cell.zone().getCode(), code -> new Zone<>(cell, randomAccessProvider == null));
+        if (zone.values != null) {
+            zone.values.put(toAxialKey(zone, cell.center()), cell.value());
+        }
+    }
+
+    boolean hasZone(int zoneCode) {
+        return zones.containsKey(zoneCode);
+    }
+
+    /**
+     * @param coordinateWgs84 The coordinate to look up, in WGS84.
+     * @return the value of the cell containing the coordinate or <code>null</code> if it is not contained in the grid.
+     */
+    public T getValue(Coordinate coordinateWgs84) {
+        HexGridCellId id = locate(coordinateWgs84);
+        return id != null ? getValue(id) : null;
+    }
+
+    /**
+     * @param id The identifier of the cell.
+     * @return the value of the cell or <code>null</code> if it is not part of the grid.
+     */
+    public T getValue(HexGridCellId id) {
+        Zone<T> zone = zones.get(id.zone());
+        if (zone == null) return null;
+        if (zone.values != null) return zone.values.get(id.axialKey());
+        return contains(zone, id.q(), id.r()) ? randomAccessProvider.valueAt(zone.originValue, id.q(), id.r()) : null;
+    }
+
+    /**
+     * Computes the value of a cell from its axial coordinates, without checking it is part of the grid (only for
+     * lookups computing values).
+     *
+     * @param zoneCode  The EPSG code of the UTM zone of the cell.
+     * @param centerUtm The center of the cell, in the UTM CRS of its zone.
+     * @return the value of the cell.
+     */
+    T getValue(int zoneCode, Coordinate centerUtm) {
+        Zone<T> zone = zones.get(zoneCode);
+        long key = toAxialKey(zone, centerUtm);
+        return randomAccessProvider.valueAt(zone.originValue, (int) (key >> 32), (int) key);
+    }
+
+    /**
+     * Obtains the cell containing the given coordinate. When several cells contain it (seams between UTM zones
+     * overlap), the one from the western zone is returned.
+     *
+     * @param coordinateWgs84 The coordinate to look up, in WGS84.
+     * @return the identifier of the cell containing the coordinate or <code>null</code> if it is not contained in
+     * the grid.
+     */
+    public HexGridCellId locate(Coordinate coordinateWgs84) {
+        for (Zone<T> zone : zones.values()) {
+            Coordinate positionUtm = zone.utmZone.fromWgs84(coordinateWgs84);
+            long key = toAxialKey(zone, positionUtm);
+            int q = (int) (key >> 32);
+            int r = (int) key;
+            if (zone.values != null ? zone.values.containsKey(key) : contains(zone, q, r)) {
+                return new HexGridCellId(zone.utmZone.getCode(), q, r);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param id The identifier of the cell.
+     * @return the center of the cell, in the UTM CRS of its zone, or <code>null</code> if the zone is not part of
+     * the grid.
+     */
+    public Coordinate getCenter(HexGridCellId id) {
+        Zone<T> zone = zones.get(id.zone());
+        return zone != null ? getCenter(zone, id.q(), id.r()) : null;
+    }
+
+    private boolean contains(Zone<T> zone, int q, int r) {
+        Coordinate centerUtm = getCenter(zone, q, r);
+        return zone.utmZone.contains(centerUtm) && bounds.contains(zone.utmZone.toWgs84(centerUtm));
+    }
+
+    private Coordinate getCenter(Zone<T> zone, int q, int r) {
+        return HexGridCellId.getCenter(zone.origin, q, r, width, height);
+    }
+
+    private long toAxialKey(Zone<T> zone, Coordinate positionUtm) {
+        return HexGridCellId.axialKey(zone.origin, positionUtm, width, height);
+    }
+
+    private static class Zone<T> {
+        private final UtmZone utmZone;
+        private final Coordinate origin;
+        private final T originValue;
+        private final Map<Long, T> values;
+
+        private Zone(HexGridCell<T> firstCell, boolean indexValues) {
+            this.utmZone = firstCell.zone();
+            this.origin = firstCell.center();
+            this.originValue = firstCell.value();
+            this.values = indexValues ? new HashMap<>() : null;
+        }
+    }
+}
@@ -4,8 +4,12 @@ import victorzinho.music.pitch.PitchClass;
 
 /**
  * {@link HexGridValueProvider} for pitches.
+ * <p>
+ * Values are additive, so the value at axial <code>(q, r)</code> is <code>origin + q * west + r * southWest</code>
+ * (mod 12). That only matches the values obtained walking the grid if moving north-west is the same as moving
+ * north-east and then west, i.e. <code>southEast == southWest - west</code> (mod 12).
  */
-public class HexGridPitchClassProvider implements HexGridValueProvider<PitchClass> {
+public class HexGridPitchClassProvider implements RandomAccessHexGridValueProvider<PitchClass> {
     private final int westSemitones;
     private final int southEastSemitones;
     private final int southWestSemitones;
@@ -23,6 +27,18 @@ public class HexGridPitchClassProvider implements HexGridValueProvider<PitchClas
         this.southWestSemitones = southWestSemitones;
     }
 
+    public int getWestSemitones() {
+        return westSemitones;
+    }
+
+    public int getSouthEastSemitones() {
+        return southEastSemitones;
+    }
+
+    public int getSouthWestSemitones() {
+        return southWestSemitones;
+    }
+
     @Override
     public PitchClass getValueFromWest(PitchClass west) {
         return PitchClass.fromSemitones(west.getSemitones() + this.westSemitones);
@@ -53,6 +69,17 @@ public class HexGridPitchClassProvider implements HexGridValueProvider<PitchClas
         return PitchClass.fromSemitones((12 + northWest.getSemitones() - this.southEastSemitones) % 12);
     }
 
+    @Override
+    public PitchClass valueAt(PitchClass origin, int q, int r) {
+        long semitones = origin.getSemitones() + (long) q * this.westSemitones + (long) r * this.southWestSemitones;
+        return PitchClass.fromSemitones((int) Math.floorMod(semitones, 12L));
+    }
+
+    @Override
+    public boolean isPathIndependent() {
+        return Math.floorMod(this.southWestSemitones - this.westSemitones - this.southEastSemitones, 12) == 0;
+    }
+
     @Override
     public PitchClass getInitialValue() {
         return PitchClass.C;
@@ -54,6 +54,17 @@ public interface HexGridValueProvider<T> {
      */
     T getValueFromNorthWest(T northWest);
 
+    /**
+     * Returns the value of a cell of a coarser level of a {@link HexGridHierarchy}, from the value of its center
+     * child. By default, the value is inherited as is.
+     *
+     * @param centerChild The value of the center child of the cell to obtain.
+     * @return The value of the parent cell.
+     */
+    default T getValueFromCenterChild(T centerChild) {
+        return centerChild;
+    }
+
     /**
      * @return the initial value of any cell. Needed to start generating the grid.
      */
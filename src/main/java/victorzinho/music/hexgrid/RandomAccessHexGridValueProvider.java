@@ -0,0 +1,44 @@
+package victorzinho.music.hexgrid;
+
+/**
+ * {@link HexGridValueProvider} that can compute the value of any cell directly from its axial coordinates, without
+ * walking the grid from a known cell.
+ * <p>
+ * Axial coordinates are the ones in {@link HexGridCellId}: <code>(1, 0)</code> is the cell to the east of the origin
+ * and <code>(0, 1)</code> the one to the north-east.
+ *
+ * @param <T> The type of values of the cells.
+ */
+public interface RandomAccessHexGridValueProvider<T> extends HexGridValueProvider<T> {
+    /**
+     * Returns the value of the cell at the given axial coordinates, relative to an origin cell with the given value.
+     *
+     * @param origin The value of the cell at <code>(0, 0)</code>.
+     * @param q      The axial column of the cell.
+     * @param r      The axial row of the cell.
+     * @return The value of the cell at <code>(q, r)</code>.
+     */
+    T valueAt(T origin, int q, int r);
+
+    /**
+     * Returns the value of the cell at the given axial coordinates, relative to an origin cell with the initial
+     * value.
+     *
+     * @param q The axial column of the cell.
+     * @param r The axial row of the cell.
+     * @return The value of the cell at <code>(q, r)</code>.
+     * @see #getInitialValue()
+     */
+    default T valueAt(int q, int r) {
+        return valueAt(getInitialValue(), q, r);
+    }
+
+    /**
+     * Values computed with {@link #valueAt(Object, int, int)} only match the ones obtained by walking neighbours
+     * (with the <code>getValueFrom...</code> methods) if every path between two cells produces the same value.
+     * Otherwise values depend on the order cells are generated.
+     *
+     * @return <code>true</code> if the values do not depend on the path between cells, <code>false</code> otherwise.
+     */
+    boolean isPathIndependent();
+}
@@ -0,0 +1,155 @@
+package victorzinho.music.hexgrid;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.*;
+
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_GEOM;
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_VALUE;
+
+/**
+ * The cells of a hexagonal grid visited by a trajectory. Cells are only materialized (and kept) as the trajectory
+ * passes through them, optionally with a corridor of neighbouring cells around them, so the cost depends on the
+ * length of the trajectory and not on the size of the grid.
+ * <p>
+ * Values are obtained with a {@link HexGridLookup}; built from a path independent
+ * {@link RandomAccessHexGridValueProvider}, it only needs the first cell of each UTM zone (see
+ * {@link HexGridFeatureCollection#buildLookup()}).
+ *
+ * @param <T> The type of values of the cells.
+ */
+public class TrajectoryHexGrid<T> {
+    // meters in a degree of latitude; degrees of longitude are never longer, so sampling is conservative
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private final HexGridLookup<T> lookup;
+    private final Class<T> valueClass;
+    private final int corridorRings;
+    private final Map<HexGridCellId, T> cells = new LinkedHashMap<>();
+    private final Set<HexGridCellId> visitedCells = new HashSet<>();
+    private Coordinate lastVisited;
+
+    /**
+     * @param lookup        The lookup for the values of the grid.
+     * @param valueClass    The type of values of the cells.
+     * @param corridorRings The number of rings of neighbouring cells to materialize around each visited cell
+     *                      (0 for only the visited cells).
+     */
+    public TrajectoryHexGrid(HexGridLookup<T> lookup, Class<T> valueClass, int corridorRings) {
+        if (corridorRings < 0) {
+            throw new IllegalArgumentException("Corridor rings cannot be negative: " + corridorRings);
+        }
+        this.lookup = lookup;
+        this.valueClass = valueClass;
+        this.corridorRings = corridorRings;
+    }
+
+    /**
+     * Visits the next position of the trajectory, materializing the cells crossed from the previous position.
+     *
+     * @param coordinateWgs84 The next position of the trajectory, in WGS84.
+     * @return the value of the cell containing the position or <code>null</code> if it is not contained in the grid.
+     */
+    public T visit(Coordinate coordinateWgs84) {
+        if (lastVisited != null) {
+            // sample the segment from the previous position, at least twice per cell
+            double stepInDegrees = lookup.getWidth() / 2 / METERS_PER_DEGREE;
+            int steps = (int) Math.ceil(lastVisited.distance(coordinateWgs84) / stepInDegrees);
+            for (int i = 1; i < steps; i++) {
+                double fraction = (double) i / steps;
+                materialize(new Coordinate(
+                        lastVisited.x + fraction * (coordinateWgs84.x - lastVisited.x),
+                        lastVisited.y + fraction * (coordinateWgs84.y - lastVisited.y)));
+            }
+        }
+        lastVisited = coordinateWgs84;
+
+        HexGridCellId id = materialize(coordinateWgs84);
+        return id != null ? cells.get(id) : null;
+    }
+
+    /**
+     * @return the number of materialized cells.
+     */
+    public int size() {
+        return cells.size();
+    }
+
+    /**
+     * @return a view of the materialized cells as a feature collection (as {@link HexGridFeatureCollection}), in the
+     * order they were visited.
+     */
+    public SimpleFeatureCollection asFeatureCollection() {
+        return new FeatureView();
+    }
+
+    private HexGridCellId materialize(Coordinate coordinateWgs84) {
+        HexGridCellId id = lookup.locate(coordinateWgs84);
+        if (id == null || !visitedCells.add(id)) return id;
+
+        for (int dq = -corridorRings; dq <= corridorRings; dq++) {
+            int minDr = Math.max(-corridorRings, -dq - corridorRings);
+            int maxDr = Math.min(corridorRings, -dq + corridorRings);
+            for (int dr = minDr; dr <= maxDr; dr++) {
+                HexGridCellId neighbour = new HexGridCellId(id.zone(), id.q() + dq, id.r() + dr);
+                if (!cells.containsKey(neighbour)) {
+                    T value = lookup.getValue(neighbour);
+                    if (value != null) cells.put(neighbour, value);
+                }
+            }
+        }
+        return id;
+    }
+
+    private class FeatureView extends AbstractFeatureCollection implements SimpleFeatureCollection {
+        private FeatureView() {
+            super(HexGridFeatureCollection.buildSchema(valueClass));
+        }
+
+        @Override
+        protected Iterator<SimpleFeature> openIterator() {
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+            Iterator<Map.Entry<HexGridCellId, T>> entries = new ArrayList<>(cells.entrySet()).iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public SimpleFeature next() {
+                    Map.Entry<HexGridCellId, T> entry = entries.next();
+                    HexGridCellId id = entry.getKey();
+                    builder.set(ATTR_GEOM, UtmZone.of(id.zone()).toWgs84(HexGridFeatureCollection.toUtmPolygon(
+                            lookup.getCenter(id), lookup.getWidth(), lookup.getHeight())));
+                    builder.set(ATTR_VALUE, entry.getValue());
+                    return builder.buildFeature(null);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return cells.size();
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            ReferencedEnvelope bounds = new ReferencedEnvelope(WGS84);
+            try (SimpleFeatureIterator features = features()) {
+                while (features.hasNext()) {
+                    bounds.expandToInclude(((Geometry) features.next().getDefaultGeometry()).getEnvelopeInternal());
+                }
+            }
+            return bounds;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package victorzinho.music.hexgrid;
+
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.metadata.extent.GeographicBoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.diffplug.common.base.Errors.rethrow;
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+
+/**
+ * A UTM zone with its CRS, its domain of validity and the transforms from and to WGS84.
+ * <p>
+ * Decoding CRSs and finding transforms is far more expensive than the hexagon math, so zones are created once and
+ * shared by all grids and threads. There are only 120 of them (60 per hemisphere), so the cache is bounded.
+ */
+public final class UtmZone {
+    private static final int ZONES_PER_HEMISPHERE = 60;
+    private static final int NORTH_BASE_CODE = 32600;
+    private static final int SOUTH_BASE_CODE = 32700;
+
+    private static final Map<Integer, UtmZone> ZONES = new ConcurrentHashMap<>(2 * ZONES_PER_HEMISPHERE);
+
+    private final int code;
+    private final CoordinateReferenceSystem crs;
+    private final Envelope envelope;
+    private final MathTransform fromWgs84;
+    private final MathTransform toWgs84;
+
+    /**
+     * @param code The EPSG code of the zone (EPSG:326xx for the northern hemisphere, EPSG:327xx for the southern).
+     * @return the (shared) UTM zone for the code.
+     */
+    public static UtmZone of(int code) {
+        int zone = code % 100;
+        int baseCode = code - zone;
+        if (zone < 1 || zone > ZONES_PER_HEMISPHERE || (baseCode != NORTH_BASE_CODE && baseCode != SOUTH_BASE_CODE)) {
+            throw new IllegalArgumentException("Not a UTM zone: EPSG:" + code);
+        }
+        return ZONES.computeIfAbsent(code, UtmZone::new);
+    }
+
+    /**
+     * @param coordinateWgs84 A coordinate, in WGS84.
+     * @return the (shared) UTM zone containing the coordinate.
+     */
+    public static UtmZone of(Coordinate coordinateWgs84) {
+        return of(getCode(coordinateWgs84));
+    }
+
+    /**
+     * @return the EPSG code of the UTM zone containing the given coordinate.
+     */
+    public static int getCode(Coordinate coordinateWgs84) {
+        // UTM divides the world in 60 zones per hemisphere; 6 degrees each, starting on
+        // -180 for zone 1
+        int zone = 1 + ((int) coordinateWgs84.x + 180) / 6;
+        // EPSG:326xx is for northern hemisphere; EPSG:327xx for southern
+        return (coordinateWgs84.y > 0 ? NORTH_BASE_CODE : SOUTH_BASE_CODE) + zone;
+    }
+
+    private UtmZone(int code) {
+        this.code = code;
+        this.crs = rethrow().get(() -> CRS.decode("EPSG:" + code, true));
+        this.fromWgs84 = rethrow().get(() -> CRS.findMathTransform(WGS84, crs));
+        this.toWgs84 = rethrow().get(() -> CRS.findMathTransform(crs, WGS84, true));
+
+        GeographicBoundingBox geographicBbox = (GeographicBoundingBox) crs.getDomainOfValidity()
+                .getGeographicElements().stream().filter(extent -> extent instanceof GeographicBoundingBox).findAny()
+                .orElseThrow(() -> new IllegalStateException("Cannot find bbox for CRS"));
+        Envelope crsEnvelope = new Envelope(
+                geographicBbox.getEastBoundLongitude(),
+                geographicBbox.getWestBoundLongitude(),
+                geographicBbox.getSouthBoundLatitude(),
+                geographicBbox.getNorthBoundLatitude());
+        this.envelope = rethrow().get(() -> JTS.transform(crsEnvelope, fromWgs84));
+    }
+
+    /**
+     * @return the EPSG code of the zone.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public CoordinateReferenceSystem getCrs() {
+        return crs;
+    }
+
+    /**
+     * @return the domain of validity of the zone, in UTM coordinates.
+     */
+    public Envelope getEnvelope() {
+        return new Envelope(envelope);
+    }
+
+    /**
+     * @return whether the given UTM coordinate is contained in the domain of validity of the zone.
+     */
+    public boolean contains(Coordinate coordinateUtm) {
+        return envelope.contains(coordinateUtm);
+    }
+
+    public Coordinate fromWgs84(Coordinate coordinateWgs84) {
+        return rethrow().get(() -> JTS.transform(coordinateWgs84, null, fromWgs84));
+    }
+
+    public Coordinate toWgs84(Coordinate coordinateUtm) {
+        return rethrow().get(() -> JTS.transform(coordinateUtm, null, toWgs84));
+    }
+
+    public Geometry toWgs84(Geometry geometryUtm) {
+        return rethrow().get(() -> JTS.transform(geometryUtm, toWgs84));
+    }
+
+    @Override
+    public String toString() {
+        return "EPSG:" + code;
+    }
+}
@@ -0,0 +1,176 @@
+package victorzinho.music.pointdata;
+
+import net.sf.geographiclib.Geodesic;
+import net.sf.geographiclib.GeodesicData;
+import net.sf.geographiclib.GeodesicMask;
+
+/**
+ * Stateless geodesic computations (distance and azimuth between WGS84 positions), safe to use from any thread and
+ * batched for consecutive fixes of a track. Replaces GeoTools' <code>GeodeticCalculator</code>, which is mutable and
+ * goes through CRS objects for each pair.
+ * <p>
+ * Azimuths are in degrees, from -180 to 180 (clockwise from north), as returned by
+ * <code>GeodeticCalculator.getAzimuth()</code>, including its convention for coincident positions (180, or 0 in the
+ * southern hemisphere); distances are in meters.
+ */
+public enum GeodesicKernel {
+    /**
+     * Great circle on a sphere with the mean radius of the WGS84 ellipsoid (haversine formula). Fast, but distances
+     * differ up to 0.6% from the ellipsoidal ones (and azimuths up to some tenths of degree between close positions).
+     */
+    SPHERICAL {
+        @Override
+        void inverse(
+                double lon1, double lat1, double lon2, double lat2,
+                double[] distances, int distanceIndex, double[] azimuths, int azimuthIndex
+        ) {
+            double phi1 = Math.toRadians(lat1);
+            double phi2 = Math.toRadians(lat2);
+            double deltaLambda = Math.toRadians(lon2 - lon1);
+            double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+            double sinHalfDeltaLambda = Math.sin(deltaLambda / 2);
+            double cosPhi1 = Math.cos(phi1);
+            double cosPhi2 = Math.cos(phi2);
+
+            double h = sinHalfDeltaPhi * sinHalfDeltaPhi + cosPhi1 * cosPhi2 * sinHalfDeltaLambda * sinHalfDeltaLambda;
+            distances[distanceIndex] = 2 * MEAN_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+            if (h == 0) {
+                if (azimuths != null) azimuths[azimuthIndex] = getSamePositionAzimuth(lat1);
+            } else if (azimuths != null) {
+                double y = Math.sin(deltaLambda) * cosPhi2;
+                double x = cosPhi1 * Math.sin(phi2) - Math.sin(phi1) * cosPhi2 * Math.cos(deltaLambda);
+                azimuths[azimuthIndex] = Math.toDegrees(Math.atan2(y, x));
+            }
+        }
+    },
+
+    /**
+     * Geodesic on the WGS84 ellipsoid (Vincenty's inverse formula). Compared with <code>GeodeticCalculator</code>
+     * on random pairs (see <code>GeodesicBenchmark</code>), distances are within 0.1 mm and azimuths within 1e-6
+     * degrees for positions a few meters apart or more. Positions for which the formula does not converge (less than
+     * about 1 degree from antipodal) are solved with GeographicLib, as the calculator does.
+     */
+    ELLIPSOIDAL {
+        @Override
+        void inverse(
+                double lon1, double lat1, double lon2, double lat2,
+                double[] distances, int distanceIndex, double[] azimuths, int azimuthIndex
+        ) {
+            double l = Math.toRadians(lon2 - lon1);
+            double u1 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(lat1)));
+            double u2 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(lat2)));
+            double sinU1 = Math.sin(u1);
+            double cosU1 = Math.cos(u1);
+            double sinU2 = Math.sin(u2);
+            double cosU2 = Math.cos(u2);
+
+            double lambda = l;
+            double sinLambda;
+            double cosLambda;
+            double sinSigma;
+            double cosSigma;
+            double sigma;
+            double cosSqAlpha;
+            double cos2SigmaM;
+            int iterations = 0;
+            double previousLambda;
+            do {
+                sinLambda = Math.sin(lambda);
+                cosLambda = Math.cos(lambda);
+                double a = cosU2 * sinLambda;
+                double b = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+                sinSigma = Math.sqrt(a * a + b * b);
+                if (sinSigma == 0) {
+                    // same position
+                    distances[distanceIndex] = 0;
+                    if (azimuths != null) azimuths[azimuthIndex] = getSamePositionAzimuth(lat1);
+                    return;
+                }
+                cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+                sigma = Math.atan2(sinSigma, cosSigma);
+                double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+                cosSqAlpha = 1 - sinAlpha * sinAlpha;
+                // on the equator cos²α is 0
+                cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+                double c = FLATTENING / 16 * cosSqAlpha * (4 + FLATTENING * (4 - 3 * cosSqAlpha));
+                previousLambda = lambda;
+                lambda = l + (1 - c) * FLATTENING * sinAlpha
+                        * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            } while (Math.abs(lambda - previousLambda) > LAMBDA_TOLERANCE && ++iterations < MAX_ITERATIONS);
+
+            if (iterations >= MAX_ITERATIONS) {
+                GeodesicData geodesic = Geodesic.WGS84.Inverse(lat1, lon1, lat2, lon2,
+                        GeodesicMask.DISTANCE | GeodesicMask.AZIMUTH);
+                distances[distanceIndex] = geodesic.s12;
+                if (azimuths != null) azimuths[azimuthIndex] = geodesic.azi1;
+                return;
+            }
+
+            double uSq = cosSqAlpha * (SEMI_MAJOR_AXIS * SEMI_MAJOR_AXIS - SEMI_MINOR_AXIS * SEMI_MINOR_AXIS)
+                    / (SEMI_MINOR_AXIS * SEMI_MINOR_AXIS);
+            double a = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+            double b = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+            double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                    - b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+            distances[distanceIndex] = SEMI_MINOR_AXIS * a * (sigma - deltaSigma);
+            if (azimuths != null) {
+                azimuths[azimuthIndex] = Math.toDegrees(Math.atan2(cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+            }
+        }
+    };
+
+    private static final double SEMI_MAJOR_AXIS = 6_378_137;
+    private static final double FLATTENING = 1 / 298.257223563;
+    private static final double SEMI_MINOR_AXIS = SEMI_MAJOR_AXIS * (1 - FLATTENING);
+    // (2a + b) / 3
+    private static final double MEAN_RADIUS = 6_371_008.7714;
+    private static final int MAX_ITERATIONS = 200;
+    // 1e-12 left azimuths between fixes a few meters apart ~1e-4 degrees off
+    private static final double LAMBDA_TOLERANCE = 1e-15;
+
+    // as GeodeticCalculator (GeographicLib) for coincident positions
+    private static double getSamePositionAzimuth(double lat) {
+        return lat < 0 ? 0 : 180;
+    }
+
+    /**
+     * @return the distance between the positions (in meters).
+     */
+    public double distance(double lon1, double lat1, double lon2, double lat2) {
+        double[] distance = new double[1];
+        inverse(lon1, lat1, lon2, lat2, distance, 0, null, 0);
+        return distance[0];
+    }
+
+    /**
+     * Computes the distance and azimuth between two positions.
+     *
+     * @param result Where to write the distance (in meters, at index 0) and the azimuth from the first position to
+     *               the second (in degrees, at index 1).
+     */
+    public void inverse(double lon1, double lat1, double lon2, double lat2, double[] result) {
+        inverse(lon1, lat1, lon2, lat2, result, 0, result, 1);
+    }
+
+    /**
+     * Computes the distance and azimuth from each fix of a track to the next one.
+     *
+     * @param lons      The longitudes of the fixes.
+     * @param lats      The latitudes of the fixes.
+     * @param count     The number of fixes.
+     * @param distances Where to write the distance from each fix to the next one (in meters); at least
+     *                  <code>count - 1</code> long.
+     * @param azimuths  Where to write the azimuth from each fix to the next one (in degrees); at least
+     *                  <code>count - 1</code> long, or <code>null</code> if not needed.
+     */
+    public void inverse(double[] lons, double[] lats, int count, double[] distances, double[] azimuths) {
+        for (int i = 0; i < count - 1; i++) {
+            inverse(lons[i], lats[i], lons[i + 1], lats[i + 1], distances, i, azimuths, i);
+        }
+    }
+
+    abstract void inverse(
+            double lon1, double lat1, double lon2, double lat2,
+            double[] distances, int distanceIndex, double[] azimuths, int azimuthIndex
+    );
+}
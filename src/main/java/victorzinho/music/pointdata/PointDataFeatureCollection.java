@@ -4,7 +4,6 @@ import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.collection.BaseSimpleFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.referencing.GeodeticCalculator;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
@@ -12,6 +11,7 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -21,6 +21,10 @@ import java.util.function.Supplier;
 
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
 
+/**
+ * Feature view of point data, with speed and course computed from the previous point data when missing and extra
+ * attributes extracted from each point data. Iterators own their state, so they can be used concurrently.
+ */
 public class PointDataFeatureCollection<TPointData extends PointData> extends BaseSimpleFeatureCollection {
     public static final String ATTR_GEOM = "geom";
     /**
@@ -32,12 +36,18 @@ public class PointDataFeatureCollection<TPointData extends PointData> extends Ba
      */
     public static final String ATTR_SPEED = "speed";
 
-    private static final GeodeticCalculator GEODETIC_CALCULATOR = new GeodeticCalculator();
     private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+    // index of the attributes in the schema, extra attributes go after them
+    private static final int GEOM = 0;
+    private static final int COURSE = 1;
+    private static final int SPEED = 2;
 
     private final Supplier<Iterator<TPointData>> pointDataSupplier;
     private final List<? extends AttributeDescriptor<TPointData, ?>> attributeDescriptors;
-    private final SimpleFeatureBuilder builder;
+    private boolean flyweight;
+    // attribute values of all features, by attribute and then feature; null if not materialized
+    private Object[][] columns;
+    private int materializedSize;
 
     @SuppressWarnings({"rawtypes", "unchecked"})
     public PointDataFeatureCollection(
@@ -47,7 +57,6 @@ public class PointDataFeatureCollection<TPointData extends PointData> extends Ba
         super(buildSchema((List) attributeDescriptors));
         this.pointDataSupplier = pointDataSupplier;
         this.attributeDescriptors = attributeDescriptors != null ? attributeDescriptors : Collections.emptyList();
-        this.builder = new SimpleFeatureBuilder(getSchema());
     }
 
     private static SimpleFeatureType buildSchema(List<AttributeDescriptor<?, ?>> attributeDescriptors) {
@@ -66,55 +75,182 @@ public class PointDataFeatureCollection<TPointData extends PointData> extends Ba
         return builder.buildFeatureType();
     }
 
+    public boolean isFlyweight() {
+        return flyweight;
+    }
+
+    /**
+     * Whether the iterators return the same feature instance (one per iterator) over and over, updating its
+     * attributes on each {@link SimpleFeatureIterator#next()} call, instead of building a new feature every time.
+     * <p>
+     * Only for consumers that do not keep the features after moving to the next one (such as the score generators,
+     * classifiers and shapefile dumper); <code>false</code> by default.
+     */
+    public PointDataFeatureCollection<TPointData> setFlyweight(boolean flyweight) {
+        this.flyweight = flyweight;
+        return this;
+    }
+
+    public boolean isMaterialized() {
+        return columns != null;
+    }
+
+    /**
+     * Iterates the point data once and keeps the values of all attributes (including the computed speed and course
+     * and the extra attributes) by columns, so later iterations neither consume the point data supplier again nor
+     * compute any value. Meant for collections iterated several times, at the cost of keeping the values in memory.
+     * <p>
+     * Not thread safe; call it before iterating the collection concurrently.
+     *
+     * @return this collection.
+     */
+    public PointDataFeatureCollection<TPointData> materialize() {
+        if (columns != null) return this;
+
+        Object[][] materialized = new Object[getSchema().getAttributeCount()][16];
+        int size = 0;
+        ComputedValues values = new ComputedValues(pointDataSupplier.get());
+        Object[] row = new Object[materialized.length];
+        while (values.next(row)) {
+            if (size == materialized[0].length) {
+                for (int i = 0; i < materialized.length; i++) {
+                    materialized[i] = Arrays.copyOf(materialized[i], size * 2);
+                }
+            }
+            for (int i = 0; i < materialized.length; i++) {
+                materialized[i][size] = row[i];
+            }
+            size++;
+        }
+        this.materializedSize = size;
+        this.columns = materialized;
+        return this;
+    }
+
     @Override
     public SimpleFeatureIterator features() {
-        return new CalculatedSpeedAndCourseIterator(pointDataSupplier.get());
+        Values values = columns != null
+                ? new MaterializedValues(columns, materializedSize)
+                : new ComputedValues(pointDataSupplier.get());
+        return new PointDataFeatureIterator(values);
     }
 
-    private class CalculatedSpeedAndCourseIterator implements SimpleFeatureIterator {
-        private final Iterator<TPointData> pointDataIterator;
+    @Override
+    public int size() {
+        return columns != null ? materializedSize : super.size();
+    }
 
-        private SimpleFeature nextFeature;
-        private PointData previousPointData;
+    /**
+     * Source of the attribute values of the features, in schema order.
+     */
+    private interface Values {
+        /**
+         * @param values Where to write the values of the next feature.
+         * @return false if there are no more features.
+         */
+        boolean next(Object[] values);
+    }
 
-        public CalculatedSpeedAndCourseIterator(Iterator<TPointData> pointDataIterator) {
-            this.pointDataIterator = pointDataIterator;
+    /**
+     * Builds (or updates, for flyweights) the features from the values. Owns all its state, so any number of
+     * iterators can be used at the same time.
+     */
+    private class PointDataFeatureIterator implements SimpleFeatureIterator {
+        private final Values source;
+        private final Object[] values = new Object[getSchema().getAttributeCount()];
+        private final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+
+        private boolean hasPendingValues;
+        private SimpleFeature flyweightFeature;
+
+        public PointDataFeatureIterator(Values source) {
+            this.source = source;
         }
 
         @Override
         public boolean hasNext() {
-            return findNext() != null;
+            if (!hasPendingValues) hasPendingValues = source.next(values);
+            return hasPendingValues;
         }
 
         @Override
         public SimpleFeature next() throws NoSuchElementException {
-            findNext();
-            SimpleFeature ret = this.nextFeature;
-            this.nextFeature = null;
-            return ret;
-        }
-
-        private SimpleFeature findNext() {
-            while (this.nextFeature == null && pointDataIterator.hasNext()) {
-                TPointData pointDataNext = pointDataIterator.next();
-                setupGeodeticCalculator(pointDataNext);
-                builder.set(ATTR_GEOM, GEOMETRY_FACTORY.createPoint(pointDataNext.getPosition()));
-                builder.set(ATTR_SPEED, getSpeed(pointDataNext));
-                builder.set(ATTR_COURSE, getCourse(pointDataNext));
-                for (AttributeDescriptor<TPointData, ?> descriptor : attributeDescriptors) {
-                    builder.set(descriptor.attribute, descriptor.getExtractor().apply(pointDataNext));
+            if (!hasNext()) throw new NoSuchElementException();
+            hasPendingValues = false;
+            if (!flyweight) return builder.buildFeature(null, values);
+            if (flyweightFeature == null) {
+                flyweightFeature = builder.buildFeature(null, values);
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    flyweightFeature.setAttribute(i, values[i]);
                 }
-                this.nextFeature = builder.buildFeature(null);
-                this.previousPointData = pointDataNext;
             }
+            return flyweightFeature;
+        }
 
-            return this.nextFeature;
+        @Override
+        public void close() {
+            // do nothing
+        }
+    }
+
+    private static class MaterializedValues implements Values {
+        private final Object[][] columns;
+        private final int size;
+        private int row;
+
+        private MaterializedValues(Object[][] columns, int size) {
+            this.columns = columns;
+            this.size = size;
+        }
+
+        @Override
+        public boolean next(Object[] values) {
+            if (row == size) return false;
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = columns[i][row];
+            }
+            row++;
+            return true;
+        }
+    }
+
+    /**
+     * Computes the values from the point data, calculating speed and course from the previous point data when
+     * missing.
+     */
+    private class ComputedValues implements Values {
+        private final Iterator<TPointData> pointDataIterator;
+        // distance and azimuth from the previous point data, computed only if speed or course are missing
+        private final double[] inverse = new double[2];
+
+        private PointData previousPointData;
+
+        public ComputedValues(Iterator<TPointData> pointDataIterator) {
+            this.pointDataIterator = pointDataIterator;
+        }
+
+        @Override
+        public boolean next(Object[] values) {
+            if (!pointDataIterator.hasNext()) return false;
+
+            TPointData pointDataNext = pointDataIterator.next();
+            computeInverse(pointDataNext);
+            values[GEOM] = GEOMETRY_FACTORY.createPoint(pointDataNext.getPosition());
+            values[COURSE] = toDouble(getCourse(pointDataNext));
+            values[SPEED] = toDouble(getSpeed(pointDataNext));
+            int i = SPEED + 1;
+            for (AttributeDescriptor<TPointData, ?> descriptor : attributeDescriptors) {
+                values[i++] = descriptor.getExtractor().apply(pointDataNext);
+            }
+            this.previousPointData = pointDataNext;
+            return true;
         }
 
         private Float getSpeed(TPointData current) {
             if (current.getSpeed() != null) return current.getSpeed();
             if (previousPointData == null) return null;
-            double meters = GEODETIC_CALCULATOR.getOrthodromicDistance();
+            double meters = inverse[0];
             double seconds = Duration.between(this.previousPointData.getInstant(), current.getInstant()).getSeconds();
             return (float) (meters / seconds);
         }
@@ -122,20 +258,20 @@ public class PointDataFeatureCollection<TPointData extends PointData> extends Ba
         private Float getCourse(TPointData current) {
             if (current.getCourse() != null) return current.getCourse();
             if (previousPointData == null) return null;
-            return (float) Math.toRadians((GEODETIC_CALCULATOR.getAzimuth() + 360) % 360);
+            return (float) Math.toRadians((inverse[1] + 360) % 360);
         }
 
-        private void setupGeodeticCalculator(PointData currentPointData) {
+        private void computeInverse(PointData currentPointData) {
             if (previousPointData == null) return;
+            if (currentPointData.getSpeed() != null && currentPointData.getCourse() != null) return;
             Coordinate previous = previousPointData.getPosition();
             Coordinate current = currentPointData.getPosition();
-            GEODETIC_CALCULATOR.setStartingGeographicPoint(previous.x, previous.y);
-            GEODETIC_CALCULATOR.setDestinationGeographicPoint(current.x, current.y);
+            GeodesicKernel.ELLIPSOIDAL.inverse(previous.x, previous.y, current.x, current.y, inverse);
         }
 
-        @Override
-        public void close() {
-            // do nothing
+        // same conversion as the feature builder would do, so flyweights can set the value directly
+        private static Double toDouble(Float value) {
+            return value != null ? value.doubleValue() : null;
         }
     }
 
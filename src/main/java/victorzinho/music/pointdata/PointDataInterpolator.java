@@ -1,97 +1,492 @@
 package victorzinho.music.pointdata;
 
 import org.apache.commons.math3.analysis.interpolation.LinearInterpolator;
-import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 import org.locationtech.jts.geom.Coordinate;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 import java.util.function.Function;
-
-import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class PointDataInterpolator<TPointData extends PointData> {
-    private final Adapter<TPointData> adapter;
+    private final PrimitiveAdapter<TPointData> adapter;
 
     /**
      * @param adapter An adapter to obtain all relevant Y values, filter them if needed and rebuild the object
      *                for interpolated data (as double[]).
      */
-    public PointDataInterpolator(Adapter<TPointData> adapter) {
+    public PointDataInterpolator(PrimitiveAdapter<TPointData> adapter) {
         this.adapter = adapter;
     }
 
+    /**
+     * @param adapter An adapter to obtain all relevant Y values, filter them if needed and rebuild the object
+     *                for interpolated data. Values are boxed for it; see {@link PrimitiveAdapter#of(Adapter)}.
+     */
+    public PointDataInterpolator(Adapter<TPointData> adapter) {
+        this(PrimitiveAdapter.of(adapter));
+    }
+
     /**
      * Interpolates point data in the given time steps.
+     * <p>
+     * Data is sorted and deduplicated by instant (in seconds) once, and the valid values of each Y function are kept
+     * as primitive columns. Interpolated values are linear between consecutive valid values (constant before the
+     * first and after the last one), and all columns are evaluated at each step moving forward, without searching.
      *
-     * @param data              The list with the elements to interpolate.
+     * @param data              The list with the elements to interpolate. It is sorted by instant.
      * @param timeStepInSeconds The increment of X for each interpolated value (time in seconds).
      * @return The interpolated data from the first to the last instant in the given data, at the specified time steps.
      */
     public List<TPointData> interpolate(List<TPointData> data, double timeStepInSeconds) {
-        // one spline for each Y function
-        List<PolynomialSplineFunction> splines = adapter.getYFunctions().stream()
-                .map(yFunction -> interpolate(data, yFunction))
-                .toList();
+        // if there are multiple elements with same X, we just pick the first one and discard the others
+        List<TPointData> uniqueValuesByX = getUniqueValuesByX(data);
+        int channels = adapter.channels();
+        List<Column> columns = new ArrayList<>(channels);
+        for (int channel = 0; channel < channels; channel++) {
+            columns.add(new Column(uniqueValuesByX, channel));
+        }
 
         Collections.sort(data);
-        List<TPointData> ret = new ArrayList<>();
         double firstInstant = data.get(0).getEpochSecond();
         double lastInstant = data.get(data.size() - 1).getEpochSecond();
+        int steps = 0;
         for (double time = firstInstant; time < lastInstant; time += timeStepInSeconds) {
-            ret.add(adapter.build(getValuesForInstant(time, splines)));
+            steps++;
         }
 
+        // evaluate column by column into the output columns
+        double[] times = new double[steps];
+        int step = 0;
+        for (double time = firstInstant; time < lastInstant; time += timeStepInSeconds) {
+            times[step++] = time;
+        }
+        double[][] values = new double[channels][];
+        for (int i = 0; i < channels; i++) {
+            values[i] = columns.get(i).evaluate(times);
+        }
+
+        List<TPointData> ret = new ArrayList<>(steps);
+        double[] stepValues = new double[channels];
+        for (step = 0; step < steps; step++) {
+            for (int i = 0; i < channels; i++) {
+                stepValues[i] = values[i][step];
+            }
+            ret.add(adapter.build((long) times[step], stepValues));
+        }
         return ret;
     }
 
-    private List<Double> getValuesForInstant(double time, List<PolynomialSplineFunction> splines) {
-        List<Double> values = new ArrayList<>();
-        values.add(time);
-        values.addAll(splines.stream().map(spline -> spline.value(time)).toList());
-        return values;
+    /**
+     * Interpolates point data in the given time steps as it is consumed, with the same results as
+     * {@link #interpolate(List, double)} for the same (sorted) data.
+     * <p>
+     * Only the last valid value of each Y function and the steps waiting for a later valid value of some Y function
+     * (i.e. within a gap of filtered values) are kept in memory, so unbounded sources can be interpolated with
+     * constant memory as long as the gaps are bounded.
+     *
+     * @param data              The elements to interpolate, sorted by instant. If multiple elements have the same
+     *                          instant (in seconds), the first one is picked.
+     * @param timeStepInSeconds The increment of X for each interpolated value (time in seconds).
+     * @return The interpolated data from the first to the last instant in the given data, at the specified time steps.
+     * @throws IllegalArgumentException while iterating, if the data is not sorted or has no valid values for some Y
+     *                                  function.
+     */
+    public Iterator<TPointData> interpolate(Iterator<? extends TPointData> data, double timeStepInSeconds) {
+        return new StreamingIterator(data, timeStepInSeconds);
     }
 
     /**
-     * Interpolate the values of the elements in the list.
+     * Lazy version of {@link #interpolate(Iterator, double)} for streams.
      *
-     * @param list      The elements with XY values to interpolate.
-     * @param yFunction The function to obtain Y from an element in the list.
-     * @return The interpolated spline function
+     * @param data              The elements to interpolate, sorted by instant.
+     * @param timeStepInSeconds The increment of X for each interpolated value (time in seconds).
+     * @return The interpolated data from the first to the last instant in the given data, at the specified time steps.
+     */
+    public Stream<TPointData> interpolate(Stream<? extends TPointData> data, double timeStepInSeconds) {
+        Iterator<TPointData> iterator = interpolate(data.iterator(), timeStepInSeconds);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(data::close);
+    }
+
+    private static <TPointData extends PointData> List<TPointData> getUniqueValuesByX(List<TPointData> data) {
+        // stable sort (and linear for sorted data), so the first element for each second is kept
+        List<TPointData> sorted = new ArrayList<>(data);
+        sorted.sort(Comparator.comparingLong(PointData::getEpochSecond));
+
+        List<TPointData> unique = new ArrayList<>(sorted.size());
+        for (TPointData pointData : sorted) {
+            if (unique.isEmpty() || unique.get(unique.size() - 1).getEpochSecond() != pointData.getEpochSecond()) {
+                unique.add(pointData);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * The valid values of a Y function, linearly interpolated. Equivalent to a {@link LinearInterpolator} spline on
+     * them, extended with constant values to the first and last instant of the data.
+     */
+    private class Column {
+        private final double[] x;
+        private final double[] y;
+        private final double[] slopes;
+
+        private Column(List<TPointData> uniqueValuesByX, int channel) {
+            long firstX = uniqueValuesByX.get(0).getEpochSecond();
+            long lastX = uniqueValuesByX.get(uniqueValuesByX.size() - 1).getEpochSecond();
+
+            // room for the extension to the first and last instant
+            double[] x = new double[uniqueValuesByX.size() + 2];
+            double[] y = new double[uniqueValuesByX.size() + 2];
+            int n = 1;
+            for (TPointData pointData : uniqueValuesByX) {
+                double value = adapter.extract(pointData, channel);
+                if (adapter.accept(channel, value)) {
+                    x[n] = pointData.getEpochSecond();
+                    y[n] = value;
+                    n++;
+                }
+            }
+            if (n == 1) {
+                throw new IllegalArgumentException("No valid values to interpolate");
+            }
+
+            int first = 1;
+            if (x[1] != firstX) {
+                first = 0;
+                x[0] = firstX;
+                y[0] = y[1];
+            }
+            if (x[n - 1] != lastX) {
+                x[n] = lastX;
+                y[n] = y[n - 1];
+                n++;
+            }
+            if (n - first < 2) {
+                throw new IllegalArgumentException("At least two different instants are needed to interpolate");
+            }
+
+            this.x = Arrays.copyOfRange(x, first, n);
+            this.y = Arrays.copyOfRange(y, first, n);
+            this.slopes = new double[this.x.length - 1];
+            for (int i = 0; i < slopes.length; i++) {
+                slopes[i] = (this.y[i + 1] - this.y[i]) / (this.x[i + 1] - this.x[i]);
+            }
+        }
+
+        /**
+         * @param times Increasing instants (in seconds) within the first and last instant of the data.
+         * @return the interpolated values at the given instants.
+         */
+        private double[] evaluate(double[] times) {
+            double[] values = new double[times.length];
+            int segment = 0;
+            for (int i = 0; i < times.length; i++) {
+                double time = times[i];
+                while (segment < slopes.length - 1 && x[segment + 1] <= time) {
+                    segment++;
+                }
+                // same arithmetic as the polynomial of the spline (zero slopes are dropped from it)
+                values[i] = slopes[segment] == 0 ? y[segment] : (time - x[segment]) * slopes[segment] + y[segment];
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Interpolates the data as it is consumed. Steps are created as soon as a later instant is read (so they are
+     * before the last instant) and emitted once all Y functions have a valid value at or after them; each Y function
+     * resolves the pending steps up to each new valid value with the same arithmetic as {@link Column}.
      */
-    private PolynomialSplineFunction interpolate(
-            List<TPointData> list, Function<TPointData, ? extends Number> yFunction
-    ) {
-        LinearInterpolator interpolator = new LinearInterpolator();
-
-        List<TPointData> uniqueValuesByX = list.stream()
-                // if there are multiple elements with same X, we just pick any and discard the others
-                .collect(toMap(PointData::getEpochSecond, Function.identity(), (value1, value2) -> value1))
-                .values().stream().sorted().toList();
-        List<Long> x = uniqueValuesByX.stream()
-                .filter(data -> adapter.filter(yFunction.apply(data)))
-                .map(PointData::getEpochSecond).collect(toList());
-        List<Number> y = uniqueValuesByX.stream()
-                .filter(data -> adapter.filter(yFunction.apply(data)))
-                .map(yFunction).collect(toList());
-
-        long firstX = uniqueValuesByX.get(0).getEpochSecond();
-        long lastX = uniqueValuesByX.get(uniqueValuesByX.size() - 1).getEpochSecond();
-        if (x.get(0) != firstX) {
-            x.add(0, firstX);
-            y.add(0, y.get(0));
-        }
-        if (x.get(x.size() - 1) != lastX) {
-            x.add(lastX);
-            y.add(y.get(y.size() - 1));
-        }
-        return interpolator.interpolate(
-                x.stream().mapToDouble(Long::doubleValue).toArray(),
-                y.stream().mapToDouble(Number::doubleValue).toArray());
+    private class StreamingIterator implements Iterator<TPointData> {
+        private final Iterator<? extends TPointData> data;
+        private final double timeStepInSeconds;
+        private final List<StreamingColumn> columns;
+        private final PendingSteps pending;
+        private final double[] stepValues;
+
+        private boolean started;
+        private boolean finished;
+        private long firstSecond;
+        private long lastSecond;
+        private double nextTime;
+
+        private StreamingIterator(Iterator<? extends TPointData> data, double timeStepInSeconds) {
+            this.data = data;
+            this.timeStepInSeconds = timeStepInSeconds;
+            int channels = adapter.channels();
+            this.columns = new ArrayList<>(channels);
+            for (int i = 0; i < channels; i++) {
+                columns.add(new StreamingColumn(i));
+            }
+            this.pending = new PendingSteps(channels);
+            this.stepValues = new double[channels];
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!pending.isFirstResolved() && !finished) {
+                if (data.hasNext()) {
+                    consume(data.next());
+                } else {
+                    finish();
+                }
+            }
+            return pending.isFirstResolved();
+        }
+
+        @Override
+        public TPointData next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            double time = pending.removeFirst(stepValues);
+            return adapter.build((long) time, stepValues);
+        }
+
+        private void consume(TPointData pointData) {
+            long second = pointData.getEpochSecond();
+            if (started && second < lastSecond) {
+                throw new IllegalArgumentException("Point data must be sorted by instant");
+            }
+            // if there are multiple elements with same X, we just pick the first one and discard the others
+            if (started && second == lastSecond) return;
+
+            if (!started) {
+                started = true;
+                firstSecond = second;
+                nextTime = second;
+            }
+            lastSecond = second;
+
+            // all the steps before this instant are before the last one
+            for (; nextTime < second; nextTime += timeStepInSeconds) {
+                pending.add(nextTime);
+            }
+            for (int channel = 0; channel < columns.size(); channel++) {
+                double value = adapter.extract(pointData, channel);
+                if (adapter.accept(channel, value)) {
+                    columns.get(channel).add(second, value);
+                }
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            if (!started) return;
+            for (StreamingColumn column : columns) {
+                if (!column.hasValue) {
+                    pending.clear();
+                    throw new IllegalArgumentException("No valid values to interpolate");
+                }
+                // constant after the last valid value
+                if (column.x != lastSecond) {
+                    column.add(lastSecond, column.y);
+                }
+            }
+        }
+
+        /**
+         * The last valid value of a Y function and the index of the first step it has not resolved yet.
+         */
+        private class StreamingColumn {
+            private final int channel;
+            private boolean hasValue;
+            private double x;
+            private double y;
+            private long nextStep;
+
+            private StreamingColumn(int channel) {
+                this.channel = channel;
+            }
+
+            private void add(double x, double y) {
+                // constant before the first valid value
+                double previousX = hasValue ? this.x : firstSecond;
+                double previousY = hasValue ? this.y : y;
+                if (x != previousX) {
+                    double slope = (y - previousY) / (x - previousX);
+                    for (; nextStep < pending.end(); nextStep++) {
+                        double time = pending.getTime(nextStep);
+                        if (time >= x) break;
+                        // same arithmetic as the polynomial of the spline (zero slopes are dropped from it)
+                        pending.resolve(nextStep, channel,
+                                slope == 0 ? previousY : (time - previousX) * slope + previousY);
+                    }
+                }
+                this.hasValue = true;
+                this.x = x;
+                this.y = y;
+            }
+        }
+    }
+
+    /**
+     * The steps waiting for some Y function, in a ring of primitive arrays that only grows with the longest gap.
+     * Steps are addressed by their index since the beginning of the interpolation.
+     */
+    private static class PendingSteps {
+        private final int channels;
+        private double[] times = new double[64];
+        private double[] values;
+        private int[] resolved = new int[64];
+        private int head;
+        private int size;
+        private long first;
+
+        private PendingSteps(int channels) {
+            this.channels = channels;
+            this.values = new double[times.length * channels];
+        }
+
+        private long end() {
+            return first + size;
+        }
+
+        private boolean isFirstResolved() {
+            return size > 0 && resolved[head] == channels;
+        }
+
+        private void add(double time) {
+            if (size == times.length) grow();
+            int slot = (head + size) % times.length;
+            times[slot] = time;
+            resolved[slot] = 0;
+            size++;
+        }
+
+        private double getTime(long step) {
+            return times[slot(step)];
+        }
+
+        private void resolve(long step, int channel, double value) {
+            int slot = slot(step);
+            values[slot * channels + channel] = value;
+            resolved[slot]++;
+        }
+
+        /**
+         * @param stepValues Where to copy the values of the first step.
+         * @return the time of the first step.
+         */
+        private double removeFirst(double[] stepValues) {
+            double time = times[head];
+            System.arraycopy(values, head * channels, stepValues, 0, channels);
+            head = (head + 1) % times.length;
+            size--;
+            first++;
+            return time;
+        }
+
+        private void clear() {
+            first += size;
+            size = 0;
+        }
+
+        private int slot(long step) {
+            return (int) ((head + (step - first)) % times.length);
+        }
+
+        private void grow() {
+            int capacity = times.length * 2;
+            double[] newTimes = new double[capacity];
+            double[] newValues = new double[capacity * channels];
+            int[] newResolved = new int[capacity];
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % times.length;
+                newTimes[i] = times[slot];
+                newResolved[i] = resolved[slot];
+                System.arraycopy(values, slot * channels, newValues, i * channels, channels);
+            }
+            times = newTimes;
+            values = newValues;
+            resolved = newResolved;
+            head = 0;
+        }
+    }
+
+    /**
+     * Primitive version of {@link Adapter}, so interpolating allocates nothing but the interpolated point data.
+     */
+    public interface PrimitiveAdapter<TPointData extends PointData> {
+        /**
+         * @return the number of Y values relevant for the interpolation (channels).
+         */
+        int channels();
+
+        /**
+         * @param pointData The point data.
+         * @param channel   The channel, from 0 to {@link #channels()} (exclusive).
+         * @return the Y value of the channel for the given point data; {@link Double#NaN} if it is missing.
+         */
+        double extract(TPointData pointData, int channel);
+
+        /**
+         * Determines whether a given value must be taken into consideration for interpolation or not
+         * (such as discarding negative values, etc.)
+         *
+         * @param channel The channel of the value.
+         * @param value   The value to filter, as returned by {@link #extract(PointData, int)}.
+         * @return <code>true</code> if the value is valid, <code>false</code> otherwise.
+         */
+        boolean accept(int channel, double value);
+
+        /**
+         * Builds a point data object from the given interpolated values.
+         *
+         * @param epochSecond The instant of the interpolated values (in seconds).
+         * @param values      The interpolated values, by channel. The array is reused for the next point data, so it
+         *                    must not be kept.
+         * @return The interpolated point data.
+         */
+        TPointData build(long epochSecond, double[] values);
+
+        /**
+         * Bridges an {@link Adapter}: Y values are boxed again to filter them and interpolated values are boxed in a
+         * list to build the point data.
+         *
+         * @param adapter The adapter.
+         * @return the primitive adapter.
+         */
+        static <TPointData extends PointData> PrimitiveAdapter<TPointData> of(Adapter<TPointData> adapter) {
+            return new AdapterBridge<>(adapter);
+        }
+    }
+
+    private static class AdapterBridge<TPointData extends PointData> implements PrimitiveAdapter<TPointData> {
+        private final Adapter<TPointData> adapter;
+        private final List<Function<TPointData, ? extends Number>> yFunctions;
+
+        private AdapterBridge(Adapter<TPointData> adapter) {
+            this.adapter = adapter;
+            this.yFunctions = adapter.getYFunctions();
+        }
+
+        @Override
+        public int channels() {
+            return yFunctions.size();
+        }
+
+        @Override
+        public double extract(TPointData pointData, int channel) {
+            Number value = yFunctions.get(channel).apply(pointData);
+            return value != null ? value.doubleValue() : Double.NaN;
+        }
+
+        @Override
+        public boolean accept(int channel, double value) {
+            return adapter.filter(value);
+        }
+
+        @Override
+        public TPointData build(long epochSecond, double[] values) {
+            List<Double> interpolatedData = new ArrayList<>(values.length + 1);
+            interpolatedData.add((double) epochSecond);
+            for (double value : values) {
+                interpolatedData.add(value);
+            }
+            return adapter.build(interpolatedData);
+        }
     }
 
     public interface Adapter<TPointData extends PointData> {
@@ -0,0 +1,189 @@
+package victorzinho.music.pointdata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Simplifies tracks before interpolating them, dropping the points that the {@link PointDataInterpolator} would
+ * reconstruct (almost) anyway, such as long runs of fixes of a vessel at anchor.
+ * <p>
+ * Uses Douglas-Peucker with the synchronized euclidean distance (SED): the error of a dropped point is the distance
+ * from its position to the position interpolated linearly in time (as the interpolator does) between the kept points
+ * around it. Distances are computed with a local equirectangular approximation, accurate for the short distances of
+ * the tolerance. Besides, kept points are never further apart in time than a maximum gap, so long gaps are not
+ * bridged by a single segment.
+ * <p>
+ * Other values (speed, course, ...) are interpolated from the kept points too. To bound them, give the channels of
+ * the interpolation adapter and a tolerance for each (see {@link #simplify(List, PointDataInterpolator.PrimitiveAdapter,
+ * double[])}): a point is not dropped either if any of its values differs from the one interpolated linearly in time
+ * between the kept points around it by more than the tolerance of the channel.
+ */
+public class PointDataSimplifier {
+    // meters in a degree of latitude
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private final double toleranceInMeters;
+    private final long maxGapInSeconds;
+
+    /**
+     * @param toleranceInMeters The maximum distance from a dropped point to the simplified track at its instant.
+     * @param maxGapInSeconds   The maximum time between consecutive kept points.
+     */
+    public PointDataSimplifier(double toleranceInMeters, long maxGapInSeconds) {
+        this.toleranceInMeters = toleranceInMeters;
+        this.maxGapInSeconds = maxGapInSeconds;
+    }
+
+    /**
+     * Simplifies the track bounding only the positions.
+     *
+     * @param track The points of the track, sorted by instant.
+     * @return the kept points, in the same order.
+     */
+    public <TPointData extends PointData> Simplification<TPointData> simplify(List<TPointData> track) {
+        return simplify(track, null, null);
+    }
+
+    /**
+     * Simplifies the track bounding the positions and the values of the given channels. Values not accepted by the
+     * adapter are not bounded; points with an accepted value are kept if the value of a point around them is not.
+     *
+     * @param track             The points of the track, sorted by instant.
+     * @param adapter           The adapter extracting the values of the channels, as for the interpolation.
+     * @param channelTolerances The maximum difference between the value of each channel of a dropped point and the
+     *                          one interpolated at its instant; {@link Double#POSITIVE_INFINITY} not to bound a
+     *                          channel (such as the positions, already bounded by the distance).
+     * @return the kept points, in the same order.
+     */
+    public <TPointData extends PointData> Simplification<TPointData> simplify(
+            List<TPointData> track, PointDataInterpolator.PrimitiveAdapter<TPointData> adapter,
+            double[] channelTolerances
+    ) {
+        int n = track.size();
+        if (n < 3) return new Simplification<>(new ArrayList<>(track), n);
+
+        long[] seconds = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            TPointData pointData = track.get(i);
+            seconds[i] = pointData.getEpochSecond();
+            lons[i] = pointData.getPosition().x;
+            lats[i] = pointData.getPosition().y;
+        }
+
+        // values of the bounded channels (NaN if not accepted), and their tolerances
+        List<double[]> channelValues = new ArrayList<>();
+        List<Double> tolerances = new ArrayList<>();
+        for (int channel = 0; adapter != null && channel < adapter.channels(); channel++) {
+            if (channelTolerances[channel] == Double.POSITIVE_INFINITY) continue;
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                double value = adapter.extract(track.get(i), channel);
+                values[i] = adapter.accept(channel, value) ? value : Double.NaN;
+            }
+            channelValues.add(values);
+            tolerances.add(channelTolerances[channel]);
+        }
+
+        BitSet kept = new BitSet(n);
+        kept.set(0);
+        kept.set(n - 1);
+        // segments to check, as pairs of indices of kept points; iterative to support long tracks
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = n - 1;
+        while (stackSize > 0) {
+            int last = stack[--stackSize];
+            int first = stack[--stackSize];
+            if (last - first < 2) continue;
+
+            int split = getFarthest(first, last, seconds, lons, lats, channelValues, tolerances);
+            if (split < 0 && seconds[last] - seconds[first] > maxGapInSeconds) {
+                split = getMiddle(first, last, seconds);
+            }
+            if (split < 0) continue;
+
+            kept.set(split);
+            if (stackSize + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[stackSize++] = first;
+            stack[stackSize++] = split;
+            stack[stackSize++] = split;
+            stack[stackSize++] = last;
+        }
+
+        List<TPointData> simplified = new ArrayList<>(kept.cardinality());
+        for (int i = kept.nextSetBit(0); i >= 0; i = kept.nextSetBit(i + 1)) {
+            simplified.add(track.get(i));
+        }
+        return new Simplification<>(simplified, n);
+    }
+
+    /**
+     * @return the index of the point between first and last (exclusive) with the largest error (SED or difference of
+     * the values of a channel, relative to their tolerance), or -1 if all of them are within the tolerances.
+     */
+    private int getFarthest(
+            int first, int last, long[] seconds, double[] lons, double[] lats,
+            List<double[]> channelValues, List<Double> tolerances
+    ) {
+        double duration = seconds[last] - seconds[first];
+        double metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians((lats[first] + lats[last]) / 2));
+        double maxError = 1;
+        int farthest = -1;
+        for (int i = first + 1; i < last; i++) {
+            double fraction = duration > 0 ? (seconds[i] - seconds[first]) / duration : 0;
+            double dx = (lons[i] - (lons[first] + fraction * (lons[last] - lons[first]))) * metersPerDegreeLon;
+            double dy = (lats[i] - (lats[first] + fraction * (lats[last] - lats[first]))) * METERS_PER_DEGREE;
+            double error = getRelativeError(Math.sqrt(dx * dx + dy * dy), toleranceInMeters);
+            for (int channel = 0; channel < channelValues.size(); channel++) {
+                double[] values = channelValues.get(channel);
+                if (Double.isNaN(values[i])) continue;
+                // without values around it, the interpolation would need the one of the point
+                double channelError = Double.isNaN(values[first]) || Double.isNaN(values[last])
+                        ? Double.POSITIVE_INFINITY
+                        : getRelativeError(Math.abs(values[i]
+                        - (values[first] + fraction * (values[last] - values[first]))), tolerances.get(channel));
+                error = Math.max(error, channelError);
+            }
+            if (error > maxError) {
+                maxError = error;
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    // relative to the tolerance, 0 if there is no difference (even with no tolerance)
+    private static double getRelativeError(double difference, double tolerance) {
+        return difference == 0 ? 0 : difference / tolerance;
+    }
+
+    /**
+     * @return the index of the point between first and last (exclusive) closest in time to the middle of them.
+     */
+    private static int getMiddle(int first, int last, long[] seconds) {
+        long middle = seconds[first] + (seconds[last] - seconds[first]) / 2;
+        int index = Arrays.binarySearch(seconds, first + 1, last, middle);
+        if (index < 0) index = -index - 1;
+        return Math.max(first + 1, Math.min(index, last - 1));
+    }
+
+    /**
+     * @param pointData    The kept points.
+     * @param originalSize The number of points before simplifying.
+     */
+    public record Simplification<TPointData extends PointData>(List<TPointData> pointData, int originalSize) {
+        /**
+         * @return the number of original points per kept point (1 if nothing was dropped).
+         */
+        public double getCompressionRatio() {
+            return pointData.isEmpty() ? 1 : (double) originalSize / pointData.size();
+        }
+    }
+}
@@ -0,0 +1,567 @@
+package victorzinho.music.pointdata;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Point data stored by columns (struct of arrays) instead of one object per point: instants as seconds and nanos,
+ * WGS84 positions as <code>double</code>s and speed, course and any extension columns as primitives with a bitmap
+ * of non-null values. A row takes around 40 bytes plus its extension columns, instead of the objects of a
+ * {@link PointData} (a coordinate, an instant and boxed values).
+ * <p>
+ * Rows are materialized as point data only when read through {@link #get(int, RowMapper)} or the iterators, so they
+ * can be streamed to {@link PointDataInterpolator#interpolate(Iterator, double)} and
+ * {@link PointDataFeatureCollection} without keeping them all as objects.
+ */
+public class PointDataTable {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final FloatColumn speed = new FloatColumn();
+    private final FloatColumn course = new FloatColumn();
+    private final Map<String, Column> extensionColumns = new LinkedHashMap<>();
+
+    private long[] epochSeconds;
+    private int[] nanos;
+    private double[] lons;
+    private double[] lats;
+    private int size;
+
+    public PointDataTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The initial number of rows to allocate.
+     */
+    public PointDataTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.epochSeconds = new long[capacity];
+        this.nanos = new int[capacity];
+        this.lons = new double[capacity];
+        this.lats = new double[capacity];
+        speed.resize(capacity);
+        course.resize(capacity);
+    }
+
+    /**
+     * @param pointData The point data to copy (position, instant, speed and course).
+     * @return a new table with a row for each point data, in the same order.
+     */
+    public static PointDataTable of(Collection<? extends PointData> pointData) {
+        PointDataTable table = new PointDataTable(pointData.size());
+        pointData.forEach(table::add);
+        return table;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a row with the values of the given point data. Extension columns are <code>null</code> for the row.
+     *
+     * @param pointData The point data.
+     * @return the index of the new row.
+     */
+    public int add(PointData pointData) {
+        int row = add(pointData.getInstant(), pointData.getPosition().x, pointData.getPosition().y);
+        speed.set(row, pointData.getSpeed());
+        course.set(row, pointData.getCourse());
+        return row;
+    }
+
+    /**
+     * Appends a row. Speed, course and extension columns are <code>null</code> for the row.
+     *
+     * @param instant The instant.
+     * @param lon     The longitude (WGS84).
+     * @param lat     The latitude (WGS84).
+     * @return the index of the new row.
+     */
+    public int add(Instant instant, double lon, double lat) {
+        if (size == epochSeconds.length) {
+            resize(size * 2);
+        }
+        epochSeconds[size] = instant.getEpochSecond();
+        nanos[size] = instant.getNano();
+        lons[size] = lon;
+        lats[size] = lat;
+        return size++;
+    }
+
+    public long getEpochSecond(int row) {
+        return epochSeconds[Objects.checkIndex(row, size)];
+    }
+
+    public Instant getInstant(int row) {
+        Objects.checkIndex(row, size);
+        return Instant.ofEpochSecond(epochSeconds[row], nanos[row]);
+    }
+
+    public double getLon(int row) {
+        return lons[Objects.checkIndex(row, size)];
+    }
+
+    public double getLat(int row) {
+        return lats[Objects.checkIndex(row, size)];
+    }
+
+    /**
+     * @return the speed column (m/s).
+     */
+    public FloatColumn getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return the course column (radians).
+     */
+    public FloatColumn getCourse() {
+        return course;
+    }
+
+    /**
+     * Adds an extension column, <code>null</code> for all existing rows.
+     *
+     * @param name The name of the column.
+     * @return the new column.
+     * @throws IllegalArgumentException if there is already a column with the same name.
+     */
+    public FloatColumn addFloatColumn(String name) {
+        return addColumn(name, new FloatColumn());
+    }
+
+    /**
+     * @see #addFloatColumn(String)
+     */
+    public IntColumn addIntColumn(String name) {
+        return addColumn(name, new IntColumn());
+    }
+
+    /**
+     * @see #addFloatColumn(String)
+     */
+    public <E extends Enum<E>> EnumColumn<E> addEnumColumn(String name, Class<E> enumClass) {
+        return addColumn(name, new EnumColumn<>(enumClass));
+    }
+
+    private <T extends Column> T addColumn(String name, T column) {
+        if (extensionColumns.containsKey(name)) {
+            throw new IllegalArgumentException("Column already exists: " + name);
+        }
+        column.resize(epochSeconds.length);
+        extensionColumns.put(name, column);
+        return column;
+    }
+
+    /**
+     * @param name The name of the extension column.
+     * @return the column or <code>null</code> if there is no such column.
+     */
+    public Column getColumn(String name) {
+        return extensionColumns.get(name);
+    }
+
+    /**
+     * @return the names of the extension columns, in the order they were added.
+     */
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(extensionColumns.keySet());
+    }
+
+    /**
+     * Appends all the rows of another table, such as one with the rows of a chunk of the same input.
+     *
+     * @param other A table with the same extension columns (names and types).
+     * @throws IllegalArgumentException if the tables have different extension columns.
+     */
+    public void addAll(PointDataTable other) {
+        addAll(other, 0, other.size);
+    }
+
+    /**
+     * Appends a range of rows of another table.
+     *
+     * @param other A table with the same extension columns (names and types).
+     * @param from  The first row to append (inclusive).
+     * @param to    The last row to append (exclusive).
+     * @throws IllegalArgumentException if the tables have different extension columns.
+     */
+    public void addAll(PointDataTable other, int from, int to) {
+        Objects.checkFromToIndex(from, to, other.size);
+        if (!List.copyOf(extensionColumns.keySet()).equals(List.copyOf(other.extensionColumns.keySet()))) {
+            throw new IllegalArgumentException("Tables with different extension columns: "
+                    + extensionColumns.keySet() + ", " + other.extensionColumns.keySet());
+        }
+
+        int at = size;
+        int count = to - from;
+        if (size + count > epochSeconds.length) {
+            resize(Math.max(size + count, epochSeconds.length * 2));
+        }
+        System.arraycopy(other.epochSeconds, from, epochSeconds, at, count);
+        System.arraycopy(other.nanos, from, nanos, at, count);
+        System.arraycopy(other.lons, from, lons, at, count);
+        System.arraycopy(other.lats, from, lats, at, count);
+        size += count;
+        speed.copy(other.speed, from, at, count);
+        course.copy(other.course, from, at, count);
+        for (Map.Entry<String, Column> entry : extensionColumns.entrySet()) {
+            entry.getValue().copy(other.extensionColumns.get(entry.getKey()), from, at, count);
+        }
+    }
+
+    /**
+     * Sorts the rows by instant. The sort is stable, so rows with the same instant keep their order (and the first
+     * one is picked when interpolating).
+     */
+    public void sortByInstant() {
+        boolean sorted = true;
+        for (int row = 1; row < size && sorted; row++) {
+            sorted = compareInstants(row - 1, row) <= 0;
+        }
+        if (sorted) return;
+
+        int[] order = new int[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = row;
+        }
+        mergeSort(order, new int[size], 0, size);
+
+        int capacity = epochSeconds.length;
+        long[] epochSeconds = new long[capacity];
+        int[] nanos = new int[capacity];
+        double[] lons = new double[capacity];
+        double[] lats = new double[capacity];
+        for (int row = 0; row < size; row++) {
+            epochSeconds[row] = this.epochSeconds[order[row]];
+            nanos[row] = this.nanos[order[row]];
+            lons[row] = this.lons[order[row]];
+            lats[row] = this.lats[order[row]];
+        }
+        this.epochSeconds = epochSeconds;
+        this.nanos = nanos;
+        this.lons = lons;
+        this.lats = lats;
+        speed.reorder(order);
+        course.reorder(order);
+        extensionColumns.values().forEach(column -> column.reorder(order));
+    }
+
+    private int compareInstants(int row1, int row2) {
+        int comparison = Long.compare(epochSeconds[row1], epochSeconds[row2]);
+        return comparison != 0 ? comparison : Integer.compare(nanos[row1], nanos[row2]);
+    }
+
+    // stable sort of row indices by instant, without boxing them
+    private void mergeSort(int[] rows, int[] buffer, int from, int to) {
+        if (to - from < 2) return;
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle);
+        mergeSort(rows, buffer, middle, to);
+        if (compareInstants(rows[middle - 1], rows[middle]) <= 0) return;
+
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && compareInstants(buffer[left], buffer[right]) <= 0) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+        nanos = Arrays.copyOf(nanos, capacity);
+        lons = Arrays.copyOf(lons, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        speed.resize(capacity);
+        course.resize(capacity);
+        extensionColumns.values().forEach(column -> column.resize(capacity));
+    }
+
+    /**
+     * @param row The row.
+     * @return a new point data with the position, instant, speed and course of the row.
+     */
+    public PointData get(int row) {
+        PointData pointData = new PointData(new Coordinate(getLon(row), getLat(row)), getInstant(row));
+        if (!speed.isNull(row)) pointData.setSpeed(speed.get(row));
+        if (!course.isNull(row)) pointData.setCourse(course.get(row));
+        return pointData;
+    }
+
+    /**
+     * @param row    The row.
+     * @param mapper The mapper to build the point data from the row.
+     * @return a new point data for the row.
+     */
+    public <TPointData extends PointData> TPointData get(int row, RowMapper<TPointData> mapper) {
+        return mapper.map(this, Objects.checkIndex(row, size));
+    }
+
+    /**
+     * @return an iterator materializing each row as a new point data when reached.
+     */
+    public Iterator<PointData> iterator() {
+        return iterator((table, row) -> table.get(row));
+    }
+
+    /**
+     * @param mapper The mapper to build the point data from each row.
+     * @return an iterator materializing each row with the mapper when reached.
+     */
+    public <TPointData extends PointData> Iterator<TPointData> iterator(RowMapper<TPointData> mapper) {
+        return new Iterator<>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public TPointData next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return mapper.map(PointDataTable.this, row++);
+            }
+        };
+    }
+
+    /**
+     * @param mapper The mapper to build the point data from each row.
+     * @return a sequential stream materializing each row with the mapper when reached.
+     */
+    public <TPointData extends PointData> Stream<TPointData> stream(RowMapper<TPointData> mapper) {
+        return StreamSupport.stream(Spliterators.spliterator(iterator(mapper), size, Spliterator.ORDERED), false);
+    }
+
+    /**
+     * Builds point data (or a subclass) from a row of a table.
+     */
+    @FunctionalInterface
+    public interface RowMapper<TPointData extends PointData> {
+        TPointData map(PointDataTable table, int row);
+    }
+
+    /**
+     * A column of optional values, with a bitmap of the rows with a value.
+     */
+    public abstract class Column {
+        private long[] nonNull = new long[0];
+
+        public boolean isNull(int row) {
+            Objects.checkIndex(row, size);
+            return (nonNull[row >>> 6] & (1L << row)) == 0;
+        }
+
+        public void setNull(int row) {
+            Objects.checkIndex(row, size);
+            nonNull[row >>> 6] &= ~(1L << row);
+        }
+
+        void setNonNull(int row) {
+            nonNull[row >>> 6] |= 1L << row;
+        }
+
+        void resize(int capacity) {
+            nonNull = Arrays.copyOf(nonNull, (capacity + 63) >>> 6);
+            resizeValues(capacity);
+        }
+
+        // copies rows of another column of the same type, from the given row there to the given row here
+        void copy(Column other, int from, int at, int count) {
+            if (getClass() != other.getClass()) {
+                throw new IllegalArgumentException("Columns of different types: " + getClass() + ", " + other.getClass());
+            }
+            for (int i = 0; i < count; i++) {
+                int row = from + i;
+                if ((other.nonNull[row >>> 6] & (1L << row)) != 0) setNonNull(at + i);
+                else nonNull[(at + i) >>> 6] &= ~(1L << (at + i));
+            }
+            copyValues(other, from, at, count);
+        }
+
+        void reorder(int[] order) {
+            long[] nonNull = new long[this.nonNull.length];
+            for (int row = 0; row < order.length; row++) {
+                if ((this.nonNull[order[row] >>> 6] & (1L << order[row])) != 0) {
+                    nonNull[row >>> 6] |= 1L << row;
+                }
+            }
+            this.nonNull = nonNull;
+            reorderValues(order);
+        }
+
+        abstract void resizeValues(int capacity);
+
+        abstract void reorderValues(int[] order);
+
+        abstract void copyValues(Column other, int from, int at, int count);
+    }
+
+    public class FloatColumn extends Column {
+        private float[] values = new float[0];
+
+        /**
+         * @return the value of the row; undefined if it is null.
+         */
+        public float get(int row) {
+            return values[Objects.checkIndex(row, size)];
+        }
+
+        /**
+         * @return the value of the row or <code>null</code>.
+         */
+        public Float getOrNull(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        public void set(int row, float value) {
+            values[Objects.checkIndex(row, size)] = value;
+            setNonNull(row);
+        }
+
+        /**
+         * @param value The value; <code>null</code> to clear it.
+         */
+        public void set(int row, Float value) {
+            if (value != null) set(row, value.floatValue());
+            else setNull(row);
+        }
+
+        @Override
+        void resizeValues(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void reorderValues(int[] order) {
+            float[] values = new float[this.values.length];
+            for (int row = 0; row < order.length; row++) {
+                values[row] = this.values[order[row]];
+            }
+            this.values = values;
+        }
+
+        @Override
+        void copyValues(Column other, int from, int at, int count) {
+            System.arraycopy(((FloatColumn) other).values, from, values, at, count);
+        }
+    }
+
+    public class IntColumn extends Column {
+        private int[] values = new int[0];
+
+        /**
+         * @return the value of the row; undefined if it is null.
+         */
+        public int get(int row) {
+            return values[Objects.checkIndex(row, size)];
+        }
+
+        /**
+         * @return the value of the row or <code>null</code>.
+         */
+        public Integer getOrNull(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        public void set(int row, int value) {
+            values[Objects.checkIndex(row, size)] = value;
+            setNonNull(row);
+        }
+
+        /**
+         * @param value The value; <code>null</code> to clear it.
+         */
+        public void set(int row, Integer value) {
+            if (value != null) set(row, value.intValue());
+            else setNull(row);
+        }
+
+        @Override
+        void resizeValues(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void reorderValues(int[] order) {
+            int[] values = new int[this.values.length];
+            for (int row = 0; row < order.length; row++) {
+                values[row] = this.values[order[row]];
+            }
+            this.values = values;
+        }
+
+        @Override
+        void copyValues(Column other, int from, int at, int count) {
+            System.arraycopy(((IntColumn) other).values, from, values, at, count);
+        }
+    }
+
+    /**
+     * A column of enum constants, stored as their ordinals (up to 256 constants).
+     */
+    public class EnumColumn<E extends Enum<E>> extends Column {
+        private final E[] constants;
+        private byte[] ordinals = new byte[0];
+
+        private EnumColumn(Class<E> enumClass) {
+            this.constants = enumClass.getEnumConstants();
+            if (constants.length > 256) {
+                throw new IllegalArgumentException("Too many constants for an enum column: " + enumClass);
+            }
+        }
+
+        /**
+         * @return the value of the row or <code>null</code>.
+         */
+        public E get(int row) {
+            return isNull(row) ? null : constants[ordinals[row] & 0xFF];
+        }
+
+        /**
+         * @param value The value; <code>null</code> to clear it.
+         */
+        public void set(int row, E value) {
+            Objects.checkIndex(row, size);
+            if (value == null) {
+                setNull(row);
+                return;
+            }
+            ordinals[row] = (byte) value.ordinal();
+            setNonNull(row);
+        }
+
+        @Override
+        void resizeValues(int capacity) {
+            ordinals = Arrays.copyOf(ordinals, capacity);
+        }
+
+        @Override
+        void reorderValues(int[] order) {
+            byte[] ordinals = new byte[this.ordinals.length];
+            for (int row = 0; row < order.length; row++) {
+                ordinals[row] = this.ordinals[order[row]];
+            }
+            this.ordinals = ordinals;
+        }
+
+        @Override
+        void copyValues(Column other, int from, int at, int count) {
+            EnumColumn<?> otherColumn = (EnumColumn<?>) other;
+            if (!Arrays.equals(constants, otherColumn.constants)) {
+                throw new IllegalArgumentException("Columns of different enums");
+            }
+            System.arraycopy(otherColumn.ordinals, from, ordinals, at, count);
+        }
+    }
+}
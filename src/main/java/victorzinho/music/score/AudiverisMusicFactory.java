@@ -2,13 +2,16 @@ package victorzinho.music.score;
 
 import java.math.BigDecimal;
 
+import org.audiveris.proxymusic.GroupName;
 import org.audiveris.proxymusic.Note;
 import org.audiveris.proxymusic.NoteType;
+import org.audiveris.proxymusic.PartGroup;
 import org.audiveris.proxymusic.PartName;
 import org.audiveris.proxymusic.Pitch;
 import org.audiveris.proxymusic.Rest;
 import org.audiveris.proxymusic.ScorePart;
 import org.audiveris.proxymusic.ScorePartwise.Part;
+import org.audiveris.proxymusic.StartStop;
 import org.audiveris.proxymusic.Step;
 
 public class AudiverisMusicFactory {
@@ -28,6 +31,22 @@ public class AudiverisMusicFactory {
         return scorePart;
     }
 
+    /**
+     * @param type The type of the element: the start or the end of the group.
+     * @param name The name of the group, only for the start.
+     */
+    public static PartGroup createPartGroup(StartStop type, String name) {
+        PartGroup partGroup = new PartGroup();
+        partGroup.setType(type);
+        partGroup.setNumber("1");
+        if (name != null) {
+            GroupName groupName = new GroupName();
+            groupName.setValue(name);
+            partGroup.setGroupName(groupName);
+        }
+        return partGroup;
+    }
+
     public static Note createNote(victorzinho.music.pitch.Pitch pitch, NoteValue value) {
         NoteType type = new NoteType();
         type.setValue(getValue(value));
@@ -6,69 +6,353 @@ import org.audiveris.proxymusic.ScorePartwise.Part.Measure;
 import org.audiveris.proxymusic.util.Marshalling.MarshallingException;
 import victorzinho.music.pitch.Pitch;
 
-import java.io.OutputStream;
+import java.io.*;
 import java.lang.String;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.diffplug.common.base.Errors.rethrow;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.audiveris.proxymusic.util.Marshalling.marshal;
 import static victorzinho.music.score.AudiverisMusicFactory.*;
 
-public class MusicScore {
-    private final Map<String, Measure> partToMeasure;
-    private final Map<String, Part> nameToPart;
-    private final ScorePartwise score;
+/**
+ * A MusicXML (partwise) score written as it is built, with one measure per note or rest.
+ * <p>
+ * Each measure is complete as soon as its note is added, so it is spooled right away to a temporary file of its
+ * part, and only the part list is kept in memory; {@link #export(OutputStream)} marshals the part list and copies the
+ * measures of each part in place. The XML of each measure is marshalled once per distinct note (by the same
+ * marshaller as the rest of the score, so the output is the same as marshalling the whole score at once) and then
+ * reused.
+ * <p>
+ * The files are not kept open: measures are buffered and appended in chunks, so scores with many parts (such as one
+ * per vessel of a fleet) do not run out of file handles. Close the score to delete the temporary files; they are
+ * deleted on exit otherwise.
+ * <p>
+ * A score being built for a long time (such as a live one) can be {@link #export(File) exported to a file} over and
+ * over, only writing the measures added since the previous time.
+ */
+public class MusicScore implements Closeable {
+    // number of the placeholder measure of each part when marshalling the part list, replaced by the measures
+    private static final String MEASURES_PLACEHOLDER = "spooled-measures-";
+    // marshalled measures by note (pitch or rest and value), shared by all scores
+    private static final Map<String, byte[]> MEASURES = new ConcurrentHashMap<>();
+    private static final String EMPTY_MEASURE = "empty";
+    // room left after the measures of each part when exporting to a file, at least
+    private static final int MIN_ROOM_BYTES = 16 * 1024;
+
+    // score parts and part groups, in order
+    private final List<Object> partList;
+    private final List<SpooledPart> parts;
+    private final Map<String, SpooledPart> nameToPart;
     private int nPart = 1;
-    private final Map<String, Integer> partToNotesPerMeasure;
+    // the file last exported with room for more measures
+    private FileExport fileExport;
 
     public MusicScore() {
-        this.score = new ScorePartwise();
-        this.score.setPartList(new PartList());
-        this.partToMeasure = new HashMap<>();
+        this.partList = new ArrayList<>();
+        this.parts = new ArrayList<>();
         this.nameToPart = new HashMap<>();
-        this.partToNotesPerMeasure = new HashMap<>();
     }
 
     public void addPart(String name) {
         ScorePart scorePart = createScorePart("p" + nPart++, name);
-        score.getPartList().getPartGroupOrScorePart().add(scorePart);
+        partList.add(scorePart);
 
-        Part part = createPart(scorePart);
-        score.getPart().add(part);
+        SpooledPart part = new SpooledPart(scorePart);
+        parts.add(part);
+        nameToPart.put(name, part);
+    }
 
-        Measure measure = new Measure();
-        part.getMeasure().add(measure);
-        partToNotesPerMeasure.put(name, 0);
+    /**
+     * Moves all the parts of another score to a part group at the end of this one. Notes can be added afterwards to
+     * the moved parts with the name <code>groupName + "/" + partName</code>.
+     *
+     * @param groupName The name of the group.
+     * @param parts     The score with the parts; it must not be used afterwards (but can be closed).
+     */
+    public void addPartGroup(String groupName, MusicScore parts) {
+        partList.add(createPartGroup(StartStop.START, groupName));
+        for (Object scorePart : parts.partList) {
+            if (scorePart instanceof ScorePart) {
+                ((ScorePart) scorePart).setId("p" + nPart++);
+            }
+            partList.add(scorePart);
+        }
+        partList.add(createPartGroup(StartStop.STOP, null));
+        this.parts.addAll(parts.parts);
 
-        nameToPart.put(name, part);
-        partToMeasure.put(name, measure);
+        parts.nameToPart.forEach((name, part) -> nameToPart.put(groupName + "/" + name, part));
+        parts.partList.clear();
+        parts.parts.clear();
+        parts.nameToPart.clear();
     }
 
     public void addNote(String partName, Pitch pitch, NoteValue value) {
-        Note note = createNote(pitch, value);
-        partToMeasure.get(partName).getNoteOrBackupOrForward().add(note);
-        updateNotesPerMeasure(partName);
+        String key = pitch.getPitchClass() + "/" + pitch.getOctave() + "/" + value;
+        write(partName, MEASURES.computeIfAbsent(key, k -> marshalMeasure(createNote(pitch, value))));
     }
 
     public void addRest(String partName, NoteValue value) {
-        Note rest = createRest(value);
-        partToMeasure.get(partName).getNoteOrBackupOrForward().add(rest);
-        updateNotesPerMeasure(partName);
-    }
-
-    private void updateNotesPerMeasure(String partName) {
-        int notesPerMeasure = partToNotesPerMeasure.get(partName) + 1;
-        partToNotesPerMeasure.put(partName, notesPerMeasure);
-        if (notesPerMeasure == 1) {
-            Measure measure = new Measure();
-            nameToPart.get(partName).getMeasure().add(measure);
-            partToMeasure.put(partName, measure);
-            partToNotesPerMeasure.put(partName, 0);
+        String key = "rest/" + value;
+        write(partName, MEASURES.computeIfAbsent(key, k -> marshalMeasure(createRest(value))));
+    }
+
+    private void write(String partName, byte[] measure) {
+        SpooledPart part = nameToPart.get(partName);
+        rethrow().run(() -> part.write(measure));
+    }
+
+    /**
+     * Writes the score so far; more notes can be added (and the score exported again) afterwards.
+     *
+     * @param output The output, not closed.
+     * @throws MarshallingException if the part list cannot be marshalled.
+     * @throws IOException          if the score cannot be written.
+     */
+    public void export(OutputStream output) throws MarshallingException, IOException {
+        export(output, null);
+    }
+
+    /**
+     * Writes the score so far to a file, as {@link #export(OutputStream)} but leaving room (whitespace) after the
+     * measures of each part.
+     * <p>
+     * Exporting again to the same file only writes the measures added since, in place, with a single write per part,
+     * so the cost does not grow with the score and the file is complete between writes. When a part runs out of room
+     * (or the parts changed, or the file was modified by someone else) the whole file is written again, with room for
+     * as many measures as each part has, to a temporary file that replaces it.
+     *
+     * @param file The file.
+     * @throws MarshallingException if the part list cannot be marshalled.
+     * @throws IOException          if the score cannot be written.
+     */
+    public void export(File file) throws MarshallingException, IOException {
+        Path path = file.toPath();
+        if (fileExport != null && fileExport.file.equals(path) && fileExport.measuresEnd.length == parts.size()
+                && appendInPlace(fileExport)) {
+            return;
+        }
+
+        FileExport export = new FileExport(path, parts.size());
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            export(output, export);
+        }
+        Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        fileExport = export;
+    }
+
+    // false if some part has no room for its new measures or the file is not as exported
+    private boolean appendInPlace(FileExport export) throws IOException {
+        byte[] emptyMeasure = MEASURES.computeIfAbsent(EMPTY_MEASURE, k -> marshalMeasure(null));
+        for (int i = 0; i < parts.size(); i++) {
+            long newBytes = parts.get(i).size - export.spooledBytes[i];
+            if (export.measuresEnd[i] + newBytes + emptyMeasure.length > export.roomEnd[i]) return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(export.file, WRITE)) {
+            if (channel.size() != export.size) return false;
+            for (int i = 0; i < parts.size(); i++) {
+                SpooledPart part = parts.get(i);
+                long newBytes = part.size - export.spooledBytes[i];
+                if (newBytes == 0) continue;
+
+                // the new measures and the measure waiting for the next note, over the previous one
+                ByteArrayOutputStream measures = new ByteArrayOutputStream((int) newBytes + emptyMeasure.length);
+                part.copyTo(measures, export.spooledBytes[i]);
+                measures.write(emptyMeasure);
+                ByteBuffer buffer = ByteBuffer.wrap(measures.toByteArray());
+                for (long position = export.measuresEnd[i]; buffer.hasRemaining(); ) {
+                    position += channel.write(buffer, position);
+                }
+                export.measuresEnd[i] += newBytes;
+                export.spooledBytes[i] = part.size;
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return true;
+    }
+
+    // records the offsets of each part and leaves room after their measures if given an export to a file
+    private void export(OutputStream output, FileExport export) throws MarshallingException, IOException {
+        ScorePartwise score = new ScorePartwise();
+        score.setPartList(new PartList());
+        score.getPartList().getPartGroupOrScorePart().addAll(partList);
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = createPart(parts.get(i).scorePart);
+            Measure placeholder = new Measure();
+            placeholder.setNumber(MEASURES_PLACEHOLDER + i);
+            part.getMeasure().add(placeholder);
+            score.getPart().add(part);
+        }
+        String xml = marshalToString(score);
+
+        byte[] emptyMeasure = MEASURES.computeIfAbsent(EMPTY_MEASURE, k -> marshalMeasure(null));
+        long position = 0;
+        int from = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            // the lines of the placeholder measure
+            int placeholder = xml.indexOf('"' + MEASURES_PLACEHOLDER + i + '"', from);
+            int tagEnd = xml.indexOf('>', placeholder);
+            int measureEnd = xml.charAt(tagEnd - 1) == '/' ? tagEnd : xml.indexOf("</measure>", tagEnd);
+            int start = xml.lastIndexOf('\n', placeholder) + 1;
+            int end = getLineEnd(xml, measureEnd);
+
+            byte[] head = xml.substring(from, start).getBytes(StandardCharsets.UTF_8);
+            output.write(head);
+            SpooledPart part = parts.get(i);
+            part.copyTo(output, 0);
+            // the measure waiting for the next note
+            output.write(emptyMeasure);
+            from = end;
+
+            if (export == null) continue;
+            position += head.length + part.size;
+            export.spooledBytes[i] = part.size;
+            export.measuresEnd[i] = position;
+            // as much room as the part takes, so the file is written again less and less often
+            byte[] room = new byte[(int) Math.max(MIN_ROOM_BYTES, part.size)];
+            Arrays.fill(room, (byte) ' ');
+            output.write(room);
+            position += emptyMeasure.length + room.length;
+            export.roomEnd[i] = position;
         }
+        byte[] tail = xml.substring(from).getBytes(StandardCharsets.UTF_8);
+        output.write(tail);
+        if (export != null) export.size = position + tail.length;
+    }
 
+    /**
+     * Deletes the temporary files of the parts.
+     */
+    @Override
+    public void close() throws IOException {
+        for (SpooledPart part : parts) {
+            part.delete();
+        }
     }
 
-    public void export(OutputStream output) throws MarshallingException {
+    /**
+     * @param note The note of the measure; <code>null</code> for an empty measure.
+     * @return the lines of a measure with the note, as marshalled in a score.
+     */
+    private static byte[] marshalMeasure(Note note) {
+        ScorePartwise score = new ScorePartwise();
+        score.setPartList(new PartList());
+        ScorePart scorePart = createScorePart("p1", "measure");
+        score.getPartList().getPartGroupOrScorePart().add(scorePart);
+        Part part = createPart(scorePart);
+        Measure measure = new Measure();
+        if (note != null) measure.getNoteOrBackupOrForward().add(note);
+        part.getMeasure().add(measure);
+        score.getPart().add(part);
+
+        String xml = rethrow().get(() -> marshalToString(score));
+        int start = xml.lastIndexOf('\n', xml.indexOf("<measure")) + 1;
+        int end = getLineEnd(xml, Math.max(xml.lastIndexOf("</measure>"), xml.lastIndexOf("<measure")));
+        return xml.substring(start, end).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String marshalToString(ScorePartwise score) throws MarshallingException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
         marshal(score, output, false, 2);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    // the index after the end of the line of the given index
+    private static int getLineEnd(String xml, int index) {
+        int lineEnd = xml.indexOf('\n', index);
+        return lineEnd < 0 ? xml.length() : lineEnd + 1;
+    }
+
+    /**
+     * A score exported to a file with room for more measures: where the measures of each part end and where their
+     * room ends, and how many of the spooled bytes of each part are written.
+     */
+    private static class FileExport {
+        private final Path file;
+        private final long[] spooledBytes;
+        private final long[] measuresEnd;
+        private final long[] roomEnd;
+        private long size;
+
+        private FileExport(Path file, int parts) {
+            this.file = file;
+            this.spooledBytes = new long[parts];
+            this.measuresEnd = new long[parts];
+            this.roomEnd = new long[parts];
+        }
+    }
+
+    /**
+     * The measures of a part, buffered and appended (opening the file each time) to a temporary file created with the
+     * first chunk.
+     */
+    private static class SpooledPart {
+        private static final int BUFFER_BYTES = 16 * 1024;
+
+        private final ScorePart scorePart;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private Path file;
+        // written, both in the file and in the buffer
+        private long size;
+
+        private SpooledPart(ScorePart scorePart) {
+            this.scorePart = scorePart;
+        }
+
+        private void write(byte[] measure) throws IOException {
+            buffer.write(measure);
+            size += measure.length;
+            if (buffer.size() >= BUFFER_BYTES) flush();
+        }
+
+        private void flush() throws IOException {
+            if (file == null) {
+                file = Files.createTempFile("score_part", ".xml");
+                file.toFile().deleteOnExit();
+            }
+            try (OutputStream output = Files.newOutputStream(file, APPEND)) {
+                buffer.writeTo(output);
+            }
+            buffer.reset();
+        }
+
+        // the bytes from the given one on
+        private void copyTo(OutputStream output, long from) throws IOException {
+            long fileBytes = size - buffer.size();
+            if (from < fileBytes) {
+                try (FileChannel channel = FileChannel.open(file, READ)) {
+                    WritableByteChannel target = Channels.newChannel(output);
+                    for (long position = from; position < fileBytes; ) {
+                        position += channel.transferTo(position, fileBytes - position, target);
+                    }
+                }
+            }
+            int bufferFrom = (int) Math.max(0, from - fileBytes);
+            output.write(buffer.toByteArray(), bufferFrom, buffer.size() - bufferFrom);
+        }
+
+        private void delete() throws IOException {
+            buffer.reset();
+            size = 0;
+            if (file == null) return;
+            Files.deleteIfExists(file);
+            file = null;
+        }
     }
 }
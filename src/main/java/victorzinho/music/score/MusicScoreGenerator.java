@@ -44,23 +44,74 @@ public abstract class MusicScoreGenerator<T> {
             Collection<? extends MusicPartGenerator> partGenerators,
             Collection<? extends MusicPartGeneratorRequiringData<T>> partGeneratorsRequiringData
     ) throws IOException {
-        MusicScore score = new MusicScore();
+        try (MusicScore score = buildScore(collection, partGenerators, partGeneratorsRequiringData)) {
+            export(score, "score.xml");
+        }
+    }
 
-        // preprocess, add parts to score
-        Stream.concat(partGenerators.stream(), partGeneratorsRequiringData.stream())
-                .forEach(partGenerator -> score.addPart(partGenerator.getPartName()));
+    /**
+     * Generates a score from a {@link SimpleFeatureCollection} and some part generators, without writing it.
+     * <p>
+     * The score must be closed once written.
+     *
+     * @param collection                  The collection to generate music from. Each feature will be passed to all
+     *                                    part generators iteratively.
+     * @param partGenerators              The part generators that don't require extra data to generate music for the part.
+     * @param partGeneratorsRequiringData The part generators that require extra data to generate music for the part.
+     * @return the score.
+     */
+    protected MusicScore buildScore(
+            SimpleFeatureCollection collection,
+            Collection<? extends MusicPartGenerator> partGenerators,
+            Collection<? extends MusicPartGeneratorRequiringData<T>> partGeneratorsRequiringData
+    ) {
+        MusicScore score = newScore(partGenerators, partGeneratorsRequiringData);
 
         // process all coordinates for all part generators
         try (SimpleFeatureIterator iterator = collection.features()) {
             while (iterator.hasNext()) {
-                SimpleFeature next = iterator.next();
-                T data = getData(next);
-                partGenerators.forEach(partGenerator -> partGenerator.processNextFeature(next, score));
-                partGeneratorsRequiringData.forEach(partGenerator -> partGenerator.processNextFeature(next, data, score));
+                processFeature(iterator.next(), score, partGenerators, partGeneratorsRequiringData);
             }
         }
+        return score;
+    }
 
-        try (FileOutputStream output = new FileOutputStream(new File(this.outputDir, "score.xml"))) {
+    /**
+     * @return an empty score with a part for each part generator.
+     */
+    protected MusicScore newScore(
+            Collection<? extends MusicPartGenerator> partGenerators,
+            Collection<? extends MusicPartGeneratorRequiringData<T>> partGeneratorsRequiringData
+    ) {
+        MusicScore score = new MusicScore();
+        Stream.concat(partGenerators.stream(), partGeneratorsRequiringData.stream())
+                .forEach(partGenerator -> score.addPart(partGenerator.getPartName()));
+        return score;
+    }
+
+    /**
+     * Passes a feature to all part generators, appending their music to the score (created with
+     * {@link #newScore(Collection, Collection)} for the same part generators).
+     */
+    protected void processFeature(
+            SimpleFeature feature, MusicScore score,
+            Collection<? extends MusicPartGenerator> partGenerators,
+            Collection<? extends MusicPartGeneratorRequiringData<T>> partGeneratorsRequiringData
+    ) {
+        T data = getData(feature);
+        partGenerators.forEach(partGenerator -> partGenerator.processNextFeature(feature, score));
+        partGeneratorsRequiringData.forEach(partGenerator -> partGenerator.processNextFeature(feature, data, score));
+    }
+
+    /**
+     * Writes a score to the directory in the constructor in MusicXML format.
+     *
+     * @param score    The score.
+     * @param fileName The name of the file.
+     * @throws IOException if the score cannot be written to the output directory.
+     */
+    protected void export(MusicScore score, String fileName) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(new File(this.outputDir, fileName))) {
             score.export(output);
         } catch (Marshalling.MarshallingException e) {
             throw new IOException(e);
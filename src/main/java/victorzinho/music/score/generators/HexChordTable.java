@@ -0,0 +1,102 @@
+package victorzinho.music.score.generators;
+
+import org.opengis.feature.simple.SimpleFeature;
+import victorzinho.music.hexgrid.HexGridPitchClassProvider;
+import victorzinho.music.pitch.PitchClass;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static victorzinho.music.pointdata.PointDataFeatureCollection.ATTR_COURSE;
+import static victorzinho.music.pointdata.PointDataFeatureCollection.ATTR_SPEED;
+
+/**
+ * The chords played by the {@link HexPitchPartGenerator}s, precomputed for a provider: for each course sector (plus
+ * the stationary case) and bass note, the pitch classes of the 8 voices. Shared by all the generators of a grid so
+ * that processing a feature is a table read instead of provider calls; the chord of a feature is looked up once, by
+ * the first voice processing it, and kept for the others.
+ */
+class HexChordTable {
+    static final int VOICES = 8;
+    static final int STATIONARY = 6;
+
+    // bounds of the course sectors; a course belongs to sector i if it is in (BOUNDS[i], BOUNDS[i + 1]]
+    private static final double[] SECTOR_BOUNDS = {
+            0, Math.PI * 1 / 3, Math.PI * 2 / 3, Math.PI, Math.PI * 4 / 3, Math.PI * 5 / 3, Math.PI * 2
+    };
+
+    // indexed by [sector][bass ordinal][voice]; bass notes are indexed by ordinal to keep their spelling
+    private final PitchClass[][][] chords = new PitchClass[STATIONARY + 1][PitchClass.values().length][];
+    // by thread, since the generators are shared by tracks scored at the same time
+    private final ThreadLocal<FeatureChord> featureChords = ThreadLocal.withInitial(FeatureChord::new);
+
+    HexChordTable(HexGridPitchClassProvider provider) {
+        UnaryOperator<PitchClass> bass = UnaryOperator.identity();
+        UnaryOperator<PitchClass> west = provider::getValueFromWest;
+        UnaryOperator<PitchClass> east = provider::getValueFromEast;
+        UnaryOperator<PitchClass> southWest = provider::getValueFromSouthWest;
+        UnaryOperator<PitchClass> southEast = provider::getValueFromSouthEast;
+        UnaryOperator<PitchClass> northWest = provider::getValueFromNorthWest;
+        UnaryOperator<PitchClass> northEast = provider::getValueFromNorthEast;
+
+        // the cell in the course direction first, then the neighbours closest to it
+        List<List<UnaryOperator<PitchClass>>> voicesBySector = List.of(
+                List.of(bass, southWest, southWest, southEast, west, northWest, east, northEast),
+                List.of(bass, west, west, southWest, northWest, southEast, northEast, east),
+                List.of(bass, northWest, northWest, west, northEast, southWest, east, southEast),
+                List.of(bass, northEast, northEast, northWest, east, west, southEast, southWest),
+                List.of(bass, east, east, northEast, southEast, northWest, southWest, west),
+                List.of(bass, southEast, southEast, east, southWest, northEast, west, northWest),
+                List.of(bass, bass, east, southEast, southWest, west, northWest, northEast));
+
+        for (int sector = 0; sector <= STATIONARY; sector++) {
+            for (PitchClass bassNote : PitchClass.values()) {
+                PitchClass[] chord = new PitchClass[VOICES];
+                for (int voice = 0; voice < VOICES; voice++) {
+                    chord[voice] = voicesBySector.get(sector).get(voice).apply(bassNote);
+                }
+                chords[sector][bassNote.ordinal()] = chord;
+            }
+        }
+    }
+
+    /**
+     * @return the sector of the course (0 to 5, in sixths of a turn of the course in radians) or {@link #STATIONARY}
+     * if the speed is not positive or the speed or the course are unknown.
+     */
+    static int getSector(Double speed, Double course) {
+        if (speed == null || !(speed > 0) || course == null) return STATIONARY;
+        for (int sector = 0; sector < STATIONARY; sector++) {
+            if (course > SECTOR_BOUNDS[sector] && course <= SECTOR_BOUNDS[sector + 1]) return sector;
+        }
+        return STATIONARY;
+    }
+
+    /**
+     * @return the pitch class of the voice for the speed and course (see {@link #getSector(Double, Double)}) of the
+     * feature and the bass note.
+     */
+    PitchClass get(SimpleFeature feature, PitchClass bassNote, int voice) {
+        FeatureChord featureChord = featureChords.get();
+        // a voice processing the same feature again means it is the next one (features can be flyweight)
+        if (featureChord.feature != feature || featureChord.bassNote != bassNote
+                || (featureChord.voices & 1 << voice) != 0) {
+            Double speed = (Double) feature.getAttribute(ATTR_SPEED);
+            Double course = (Double) feature.getAttribute(ATTR_COURSE);
+            featureChord.feature = feature;
+            featureChord.bassNote = bassNote;
+            featureChord.chord = chords[getSector(speed, course)][bassNote.ordinal()];
+            featureChord.voices = 0;
+        }
+        featureChord.voices |= 1 << voice;
+        return featureChord.chord[voice];
+    }
+
+    private static class FeatureChord {
+        private SimpleFeature feature;
+        private PitchClass bassNote;
+        private PitchClass[] chord;
+        // the voices that have read the chord
+        private int voices;
+    }
+}
@@ -10,9 +10,6 @@ import victorzinho.music.score.NoteValue;
 
 import java.util.List;
 
-import static victorzinho.music.pointdata.PointDataFeatureCollection.ATTR_COURSE;
-import static victorzinho.music.pointdata.PointDataFeatureCollection.ATTR_SPEED;
-
 /**
  * Generates score parts from a hex grid. The features passed to {@link #processNextFeature(SimpleFeature, PitchClass, MusicScore)}
  * are assumed to be {@link victorzinho.music.pointdata.PointDataFeatureCollection},
@@ -44,119 +41,33 @@ public class HexPitchPartGenerator
     public static List<HexPitchPartGenerator> newPartGenerators(
             HexGridPitchClassProvider hexGridPitchClassProvider
     ) {
+        HexChordTable chordTable = new HexChordTable(hexGridPitchClassProvider);
         return List.of(
-                new HexPitchPartGenerator("bass", hexGridPitchClassProvider, 0, OCTAVE_CENTER),
-                new HexPitchPartGenerator("violin1", hexGridPitchClassProvider, 1, LOWER_OCTAVE_AROUND + 2),
-                new HexPitchPartGenerator("violin2", hexGridPitchClassProvider, 2, LOWER_OCTAVE_AROUND + 2),
-                new HexPitchPartGenerator("violin3", hexGridPitchClassProvider, 3, LOWER_OCTAVE_AROUND + 1),
-                new HexPitchPartGenerator("violin4", hexGridPitchClassProvider, 4, LOWER_OCTAVE_AROUND),
-                new HexPitchPartGenerator("violin5", hexGridPitchClassProvider, 5, LOWER_OCTAVE_AROUND + 2),
-                new HexPitchPartGenerator("violin6", hexGridPitchClassProvider, 6, LOWER_OCTAVE_AROUND + 1),
-                new HexPitchPartGenerator("violin7", hexGridPitchClassProvider, 7, LOWER_OCTAVE_AROUND)
+                new HexPitchPartGenerator("bass", chordTable, 0, OCTAVE_CENTER),
+                new HexPitchPartGenerator("violin1", chordTable, 1, LOWER_OCTAVE_AROUND + 2),
+                new HexPitchPartGenerator("violin2", chordTable, 2, LOWER_OCTAVE_AROUND + 2),
+                new HexPitchPartGenerator("violin3", chordTable, 3, LOWER_OCTAVE_AROUND + 1),
+                new HexPitchPartGenerator("violin4", chordTable, 4, LOWER_OCTAVE_AROUND),
+                new HexPitchPartGenerator("violin5", chordTable, 5, LOWER_OCTAVE_AROUND + 2),
+                new HexPitchPartGenerator("violin6", chordTable, 6, LOWER_OCTAVE_AROUND + 1),
+                new HexPitchPartGenerator("violin7", chordTable, 7, LOWER_OCTAVE_AROUND)
         );
     }
 
-    private final HexGridPitchClassProvider hexGridPitchClassProvider;
+    private final HexChordTable chordTable;
     private final int pitchIndex;
     private final int octave;
 
-    private HexPitchPartGenerator(
-            String name, HexGridPitchClassProvider hexGridPitchClassProvider, int pitchIndex, int octave
-    ) {
+    private HexPitchPartGenerator(String name, HexChordTable chordTable, int pitchIndex, int octave) {
         super(name);
-        this.hexGridPitchClassProvider = hexGridPitchClassProvider;
+        this.chordTable = chordTable;
         this.pitchIndex = pitchIndex;
         this.octave = octave;
     }
 
     @Override
     public void processNextFeature(SimpleFeature feature, PitchClass bassNote, MusicScore score) {
-        Double speed = (Double) feature.getAttribute(ATTR_SPEED);
-        Double course = (Double) feature.getAttribute(ATTR_COURSE);
-        PitchClass[] pitchClasses = null;
-        if (speed != null && speed > 0 && course != null) {
-            if (course > 0 && course <= Math.PI * 1 / 3) {
-                pitchClasses = new PitchClass[]{
-                        bassNote,
-                        hexGridPitchClassProvider.getValueFromSouthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthEast(bassNote)
-                };
-            } else if (course > Math.PI * 1 / 3 && course <= Math.PI * 2 / 3) {
-                pitchClasses = new PitchClass[]{
-                        bassNote,
-                        hexGridPitchClassProvider.getValueFromWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromEast(bassNote),
-                };
-            } else if (course > Math.PI * 2 / 3 && course <= Math.PI) {
-                pitchClasses = new PitchClass[]{
-                        bassNote,
-                        hexGridPitchClassProvider.getValueFromNorthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthEast(bassNote)
-                };
-            } else if (course > Math.PI && course <= Math.PI * 4 / 3) {
-                pitchClasses = new PitchClass[]{
-                        bassNote,
-                        hexGridPitchClassProvider.getValueFromNorthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthWest(bassNote)
-                };
-            } else if (course > Math.PI * 4 / 3 && course <= Math.PI * 5 / 3) {
-                pitchClasses = new PitchClass[]{
-                        bassNote,
-                        hexGridPitchClassProvider.getValueFromEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromWest(bassNote)
-                };
-            } else if (course > Math.PI * 5 / 3 && course <= Math.PI * 2) {
-                pitchClasses = new PitchClass[]{
-                        bassNote,
-                        hexGridPitchClassProvider.getValueFromSouthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromSouthWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthEast(bassNote),
-                        hexGridPitchClassProvider.getValueFromWest(bassNote),
-                        hexGridPitchClassProvider.getValueFromNorthWest(bassNote)
-                };
-            }
-        }
-
-        if (pitchClasses == null) {
-            pitchClasses = new PitchClass[]{
-                    bassNote,
-                    bassNote,
-                    hexGridPitchClassProvider.getValueFromEast(bassNote),
-                    hexGridPitchClassProvider.getValueFromSouthEast(bassNote),
-                    hexGridPitchClassProvider.getValueFromSouthWest(bassNote),
-                    hexGridPitchClassProvider.getValueFromWest(bassNote),
-                    hexGridPitchClassProvider.getValueFromNorthWest(bassNote),
-                    hexGridPitchClassProvider.getValueFromNorthEast(bassNote),
-            };
-        }
-
-        score.addNote(getPartName(), pitchClasses[this.pitchIndex].toPitch(this.octave), NoteValue.WHOLE);
+        PitchClass pitchClass = chordTable.get(feature, bassNote, this.pitchIndex);
+        score.addNote(getPartName(), pitchClass.toPitch(this.octave), NoteValue.WHOLE);
     }
 }
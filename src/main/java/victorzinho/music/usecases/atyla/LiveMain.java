@@ -0,0 +1,58 @@
+package victorzinho.music.usecases.atyla;
+
+import org.locationtech.jts.geom.Envelope;
+import victorzinho.music.hexgrid.HexGridPitchClassProvider;
+import victorzinho.music.usecases.atyla.input.AisLiveReader;
+import victorzinho.music.usecases.atyla.input.AtylaJsonReader;
+import victorzinho.music.usecases.atyla.input.VesselData;
+import victorzinho.music.usecases.atyla.input.VesselDataInterpolationAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+
+import static com.diffplug.common.base.Errors.rethrow;
+
+/**
+ * Same as {@link Main}, for a vessel in transit: reads AIS from a TCP feed (<code>host:port</code>, e.g. a receiver or
+ * a replay server) or a file being written, and keeps the score up to date until stopped (Ctrl+C).
+ * <p>
+ * Arguments: the feed and the MMSI of the vessel.
+ */
+public class LiveMain {
+    private static final File EXPORT_DIR = new File(System.getProperty("user.home") + "\\Desktop");
+
+    public static void main(String[] args) throws Exception {
+        // define hex grid
+        HexGridPitchClassProvider hexGridProvider = new HexGridPitchClassProvider(5, 4, 9);
+        float hexGridSize = AtylaJsonReader.NAUTIC_MILE_IN_M * 2;
+        Envelope hexGridEnvelope = new Envelope(3, 12.5, 55, 61);
+
+        // define the interpolation; AIS has no wind
+        VesselDataInterpolationAdapter adapter = new VesselDataInterpolationAdapter(false);
+        int interpolationStepInSeconds = 5 * 60; // every 5 minutes
+
+        // run until the feed ends, or until stopped (the score is written as each fix comes)
+        MusicHarmonyGenerator<VesselData> generator = new MusicHarmonyGenerator<>(hexGridProvider,
+                hexGridSize, hexGridEnvelope, EXPORT_DIR, false);
+        try (AisLiveReader reader = open(args[0], Integer.parseInt(args[1]))) {
+            Thread generating = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> rethrow().run(() -> {
+                reader.close();
+                generating.join();
+            })));
+            generator.generateLiveScore(reader, adapter, interpolationStepInSeconds);
+        }
+    }
+
+    private static AisLiveReader open(String feed, int mmsi) throws IOException {
+        int colon = feed.lastIndexOf(':');
+        if (colon > 0 && feed.substring(colon + 1).matches("\\d+")) {
+            return AisLiveReader.connect(feed.substring(0, colon), Integer.parseInt(feed.substring(colon + 1)), mmsi,
+                    Clock.systemUTC());
+        }
+        return AisLiveReader.tail(Path.of(feed), mmsi, Duration.ofSeconds(1), Clock.systemUTC());
+    }
+}
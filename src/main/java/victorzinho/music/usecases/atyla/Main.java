@@ -2,15 +2,26 @@ package victorzinho.music.usecases.atyla;
 
 import org.locationtech.jts.geom.Envelope;
 import victorzinho.music.hexgrid.HexGridPitchClassProvider;
+import victorzinho.music.pointdata.PointDataSimplifier;
+import victorzinho.music.pointdata.PointDataTable;
 import victorzinho.music.usecases.atyla.input.*;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
 public class Main {
     private static final File EXPORT_DIR = new File(System.getProperty("user.home") + "\\Desktop");
     private static final boolean writeIntermediateFiles = true;
+    // off by default: the score changes wherever dropped fixes are reconstructed (within the tolerances)
+    private static final boolean simplifyTrack = false;
+    // by channel of the adapter, in its units: x, y (bounded by distance), speed (m/s, half a knot), course (radians,
+    // 5 degrees), wind angle (degrees), wind speed (knots), wind temperature (celsius)
+    private static final double[] SIMPLIFICATION_TOLERANCES = {
+            Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, 0.5 * AtylaJsonReader.NAUTIC_MILE_IN_M / 3600,
+            Math.toRadians(5), 10, 1, 0.5};
 
     public static void main(String[] args) throws Exception {
         // define hex grid
@@ -19,7 +30,7 @@ public class Main {
         Envelope hexGridEnvelope = new Envelope(3, 12.5, 55, 61);
 
         // obtain your input data somehow
-        List<VesselData> pointData = getPointData();
+        VesselDataSnapshot snapshot = getPointData();
 
         // define the interpolation
         VesselDataInterpolationAdapter adapter = new VesselDataInterpolationAdapter();
@@ -31,29 +42,43 @@ public class Main {
         // run!
         MusicHarmonyGenerator<VesselData> generator = new MusicHarmonyGenerator<>(hexGridProvider,
                 hexGridSize, hexGridEnvelope, EXPORT_DIR, true);
-        generator.generateScore(pointData, adapter, interpolationStepInSeconds, descriptors);
+        if (simplifyTrack) {
+            // drop the fixes that interpolation would reconstruct anyway (within 50 m, at least every 6 hours, and
+            // with all the values of the adapter within their tolerances)
+            List<VesselData> vesselData = new ArrayList<>(snapshot.size());
+            snapshot.iterator().forEachRemaining(vesselData::add);
+            var simplification = new PointDataSimplifier(50, 6 * 60 * 60)
+                    .simplify(vesselData, adapter, SIMPLIFICATION_TOLERANCES);
+            System.out.printf("Simplified %d points to %d (%.1fx)%n", simplification.originalSize(),
+                    simplification.pointData().size(), simplification.getCompressionRatio());
+            // stored by columns to keep big tracks in memory
+            PointDataTable pointData = VesselDataColumns.toTable(simplification.pointData());
+            generator.generateScore(pointData, VesselDataColumns::get, adapter, interpolationStepInSeconds, descriptors);
+        } else {
+            // interpolated straight from the mapped snapshot, without copying the fixes
+            generator.generateScore(snapshot::rows, adapter, interpolationStepInSeconds, descriptors);
+        }
     }
 
 
-    private static List<VesselData> getPointData() throws IOException {
-        InputStream marineTrafficData = AtylaJsonReader.class.getResourceAsStream("/atyla_marine_traffic.json");
-        InputStream yellowBrickData = AtylaJsonReader.class.getResourceAsStream("/atyla_yellow_brick.json");
-
-        AtylaJsonReader atylaJsonReader = new AtylaJsonReader();
-        List<VesselData> allData = atylaJsonReader.readFromMarineTraffic(marineTrafficData);
-        allData.addAll(atylaJsonReader.readFromYellowBrick(yellowBrickData));
-        writeCsv(allData, new File(EXPORT_DIR, "atyla_all_points.csv"));
-        return allData;
-
+    private static VesselDataSnapshot getPointData() throws IOException {
+        // parsed once, memory-mapped from a snapshot in the export dir on later runs (written again if the feeds
+        // change, by length and modification time); already merged by instant, with one fix per second
+        VesselDataSnapshot snapshot = new AtylaJsonReader().readFromSnapshot(EXPORT_DIR,
+                AtylaJsonReader.class.getResource("/atyla_marine_traffic.json"),
+                AtylaJsonReader.class.getResource("/atyla_yellow_brick.json"));
+        writeCsv(snapshot.rows(), new File(EXPORT_DIR, "atyla_all_points.csv"));
+        return snapshot;
     }
 
-    private static void writeCsv(List<VesselData> data, File file) throws IOException {
+    private static void writeCsv(Iterator<? extends VesselData> data, File file) throws IOException {
         if (!writeIntermediateFiles) return;
 
         BufferedWriter writer = new BufferedWriter(new FileWriter(file));
         writer.write("timestamp,position,speed,course,wind_angle,wind_speed,wind_temperature,source");
         writer.newLine();
-        for (VesselData vesselData : data) {
+        while (data.hasNext()) {
+            VesselData vesselData = data.next();
             writer.write(String.join(",",
                     vesselData.getInstant().toString(),
                     vesselData.getPosition().toString(),
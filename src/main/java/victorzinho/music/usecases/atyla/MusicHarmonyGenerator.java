@@ -1,52 +1,47 @@
 package victorzinho.music.usecases.atyla;
 
-import org.geotools.data.DataUtilities;
-import org.geotools.data.collection.SpatialIndexFeatureCollection;
+import org.audiveris.proxymusic.util.Marshalling.MarshallingException;
 import org.geotools.data.shapefile.ShapefileDumper;
-import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.data.simple.SimpleFeatureSource;
-import org.geotools.factory.CommonFactoryFinder;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.filter.Filter;
-import org.opengis.filter.FilterFactory2;
-import victorzinho.music.hexgrid.HexGridFeatureCollection;
-import victorzinho.music.hexgrid.HexGridPitchClassProvider;
+import victorzinho.music.hexgrid.*;
 import victorzinho.music.pitch.PitchClass;
 import victorzinho.music.pointdata.PointData;
 import victorzinho.music.pointdata.PointDataFeatureCollection;
 import victorzinho.music.pointdata.PointDataInterpolator;
+import victorzinho.music.pointdata.PointDataTable;
+import victorzinho.music.score.MusicPartGenerator;
+import victorzinho.music.score.MusicScore;
 import victorzinho.music.score.MusicScoreGenerator;
 import victorzinho.music.score.generators.ClassifierPartGenerator;
 import victorzinho.music.score.generators.HexPitchPartGenerator;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
-import static com.diffplug.common.base.Errors.rethrow;
 import static org.geotools.process.classify.ClassificationMethod.NATURAL_BREAKS;
-import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_GEOM;
 import static victorzinho.music.score.generators.ClassifierPartGenerator.newPartGenerators;
 import static victorzinho.music.score.generators.HexPitchPartGenerator.newPartGenerators;
 
 public class MusicHarmonyGenerator<TPointData extends PointData>
         extends MusicScoreGenerator<PitchClass> {
-    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
-    private static final FilterFactory2 FILTER_FACTORY = CommonFactoryFinder.getFilterFactory2();
-
     private final HexGridPitchClassProvider hexGridPitchClassProvider;
-    private final SimpleFeatureSource hexGridSource;
+    private final HexGridLookup<PitchClass> hexGridLookup;
+    private final TrajectoryHexGrid<PitchClass> trajectoryHexGrid;
     private final boolean writeIntermediateFiles;
 
     /**
      * @param hexGridPitchClassProvider Provider for hex grid values.
      * @param hexGridSize               The size of the hex grid cells, defined as the outer circle enclosing the cell (in meters).
      * @param hexGridEnvelope           The region of interest, in WGS84.
-     * @param exportDir                 The directory to export files.
+     * @param exportDir                 The directory to export files (and to cache the hex grid, see {@link HexGridFileCache}).
      * @param writeIntermediateFiles    Flag to determine whether to export intermediate results (such as the hex grid) or not.
      */
     public MusicHarmonyGenerator(
@@ -57,16 +52,42 @@ public class MusicHarmonyGenerator<TPointData extends PointData>
         super(exportDir);
         this.hexGridPitchClassProvider = hexGridPitchClassProvider;
         this.writeIntermediateFiles = writeIntermediateFiles;
-        this.hexGridSource = getHexGridSource(hexGridPitchClassProvider, hexGridSize, hexGridEnvelope);
+        this.hexGridLookup = getHexGridLookup(hexGridPitchClassProvider, hexGridSize, hexGridEnvelope);
+        this.trajectoryHexGrid = null;
     }
 
-    private SimpleFeatureSource getHexGridSource(
+    /**
+     * Creates a generator that only materializes the cells of the hex grid visited by the interpolated trajectory
+     * (see {@link TrajectoryHexGrid}), instead of the whole grid. Intermediate files contain only those cells.
+     *
+     * @param hexGridPitchClassProvider Provider for hex grid values.
+     * @param hexGridSize               The size of the hex grid cells, defined as the outer circle enclosing the cell (in meters).
+     * @param hexGridEnvelope           The region of interest, in WGS84.
+     * @param corridorRings             The number of rings of neighbouring cells to materialize around the visited ones.
+     * @param exportDir                 The directory to export files.
+     * @param writeIntermediateFiles    Flag to determine whether to export intermediate results (such as the hex grid) or not.
+     */
+    public MusicHarmonyGenerator(
+            HexGridPitchClassProvider hexGridPitchClassProvider,
+            float hexGridSize, Envelope hexGridEnvelope, int corridorRings,
+            File exportDir, boolean writeIntermediateFiles
+    ) {
+        super(exportDir);
+        this.hexGridPitchClassProvider = hexGridPitchClassProvider;
+        this.writeIntermediateFiles = writeIntermediateFiles;
+        this.hexGridLookup = new HexGridFeatureCollection<>(hexGridSize, hexGridEnvelope, hexGridPitchClassProvider)
+                .buildLookup();
+        this.trajectoryHexGrid = new TrajectoryHexGrid<>(hexGridLookup, PitchClass.class, corridorRings);
+    }
+
+    private HexGridLookup<PitchClass> getHexGridLookup(
             HexGridPitchClassProvider hexGridProvider, float hexGridSize, Envelope envelope
     ) {
         try {
-            HexGridFeatureCollection<PitchClass> hexGrid = new HexGridFeatureCollection<>(hexGridSize, envelope, hexGridProvider);
-            if (writeIntermediateFiles) new ShapefileDumper(this.outputDir).dump(hexGrid);
-            return DataUtilities.source(new SpatialIndexFeatureCollection(hexGrid));
+            CompactHexGrid<PitchClass> hexGrid = new HexGridFileCache(this.outputDir)
+                    .getGrid(hexGridSize, envelope, hexGridProvider);
+            if (writeIntermediateFiles) new ShapefileDumper(this.outputDir).dump(hexGrid.asFeatureCollection());
+            return hexGrid.buildLookup(hexGridProvider);
         } catch (IOException e) {
             throw new RuntimeException("Cannot get hex grid", e);
         }
@@ -95,13 +116,130 @@ public class MusicHarmonyGenerator<TPointData extends PointData>
      */
     public void generateScore(
             List<TPointData> pointData,
-            PointDataInterpolator.Adapter<TPointData> interpolatorAdapter, int interpolationStepInSeconds,
+            PointDataInterpolator.PrimitiveAdapter<TPointData> interpolatorAdapter, int interpolationStepInSeconds,
             List<AttributeDescriptor<TPointData, ?>> attributeDescriptors
     ) throws Exception {
         // get interpolated data
         List<TPointData> interpolatedData = new PointDataInterpolator<>(interpolatorAdapter)
                 .interpolate(pointData, interpolationStepInSeconds);
-        PointDataFeatureCollection<TPointData> collection = new PointDataFeatureCollection<>(interpolatedData::iterator, attributeDescriptors);
+        // the collection is iterated once per extra attribute (to classify it) and once more for the score
+        generateScore(new PointDataFeatureCollection<>(interpolatedData::iterator, attributeDescriptors)
+                .setFlyweight(true).materialize(), attributeDescriptors);
+    }
+
+    /**
+     * Same as {@link #generateScore(List, PointDataInterpolator.PrimitiveAdapter, int, List)}, with an adapter of boxed
+     * values (see {@link PointDataInterpolator.PrimitiveAdapter#of(PointDataInterpolator.Adapter)}).
+     */
+    public void generateScore(
+            List<TPointData> pointData,
+            PointDataInterpolator.Adapter<TPointData> interpolatorAdapter, int interpolationStepInSeconds,
+            List<AttributeDescriptor<TPointData, ?>> attributeDescriptors
+    ) throws Exception {
+        generateScore(pointData, PointDataInterpolator.PrimitiveAdapter.of(interpolatorAdapter),
+                interpolationStepInSeconds, attributeDescriptors);
+    }
+
+    /**
+     * Same as {@link #generateScore(List, PointDataInterpolator.PrimitiveAdapter, int, List)}, for point data stored
+     * in a table. Rows are sorted by instant in place and interpolated as they are streamed (again for each pass over
+     * the features), so no point data is kept in memory.
+     *
+     * @param pointData                  The point data to be used for generating the score. WGS84 positions must be contained in the envelope.
+     * @param rowMapper                  Mapper to build the point data from the rows of the table.
+     * @param interpolatorAdapter        Adapter to select values for interpolation and rebuild point data.
+     * @param interpolationStepInSeconds Number of seconds between each step of the interpolation (each note in the score).
+     * @param attributeDescriptors       Extra attribute descriptors to be written (their classified values) as separate score parts.
+     * @throws Exception if it explodes
+     */
+    public void generateScore(
+            PointDataTable pointData, PointDataTable.RowMapper<TPointData> rowMapper,
+            PointDataInterpolator.PrimitiveAdapter<TPointData> interpolatorAdapter, int interpolationStepInSeconds,
+            List<AttributeDescriptor<TPointData, ?>> attributeDescriptors
+    ) throws Exception {
+        pointData.sortByInstant();
+        generateScore(() -> pointData.iterator(rowMapper), interpolatorAdapter, interpolationStepInSeconds,
+                attributeDescriptors);
+    }
+
+    /**
+     * Same as {@link #generateScore(List, PointDataInterpolator.PrimitiveAdapter, int, List)}, for point data read
+     * from a source that can be iterated several times, such as the rows of a
+     * {@link victorzinho.music.usecases.atyla.input.VesselDataSnapshot}. Point data is interpolated as it is iterated
+     * (again for each pass over the features), so it may be a view that changes on each step, as long as the adapter
+     * extracts its values.
+     *
+     * @param pointData                  Supplier of a new iterator over the point data, sorted by instant. WGS84 positions must be contained in the envelope.
+     * @param interpolatorAdapter        Adapter to select values for interpolation and rebuild point data.
+     * @param interpolationStepInSeconds Number of seconds between each step of the interpolation (each note in the score).
+     * @param attributeDescriptors       Extra attribute descriptors to be written (their classified values) as separate score parts.
+     * @throws Exception if it explodes
+     */
+    public void generateScore(
+            Supplier<? extends Iterator<? extends TPointData>> pointData,
+            PointDataInterpolator.PrimitiveAdapter<TPointData> interpolatorAdapter, int interpolationStepInSeconds,
+            List<AttributeDescriptor<TPointData, ?>> attributeDescriptors
+    ) throws Exception {
+        PointDataInterpolator<TPointData> interpolator = new PointDataInterpolator<>(interpolatorAdapter);
+        generateScore(new PointDataFeatureCollection<>(
+                () -> interpolator.interpolate(pointData.get(), interpolationStepInSeconds),
+                attributeDescriptors).setFlyweight(true), attributeDescriptors);
+    }
+
+    /**
+     * Generates art as the point data comes, such as the live track of a vessel in transit (see
+     * {@link victorzinho.music.usecases.atyla.input.AisLiveReader}).
+     * <p>
+     * Each point data is interpolated as soon as it arrives (see
+     * {@link PointDataInterpolator#interpolate(Iterator, double)}), and the notes of the steps before it are looked up
+     * in the hex grid and appended to an open score, so the work per point data only depends on the steps since the
+     * previous one. The new measures of each step are written right away to <code>score.xml</code>, in the directory
+     * in the constructor, in place after the previous ones (see {@link MusicScore#export(File)}), so writing them does
+     * not depend on the length of the score either.
+     * <p>
+     * Only the 8 parts of the hex grid are written: the classes of extra attributes need the whole track. No
+     * intermediate files are written either.
+     *
+     * @param pointData                  The point data, sorted by instant, blocking until the next one arrives. WGS84
+     *                                   positions must be contained in the envelope.
+     * @param interpolatorAdapter        Adapter to select values for interpolation and rebuild point data.
+     * @param interpolationStepInSeconds Number of seconds between each step of the interpolation (each note in the score).
+     * @throws IOException if the score cannot be written.
+     */
+    public void generateLiveScore(
+            Iterator<TPointData> pointData,
+            PointDataInterpolator.PrimitiveAdapter<TPointData> interpolatorAdapter, int interpolationStepInSeconds
+    ) throws IOException {
+        PointDataInterpolator<TPointData> interpolator = new PointDataInterpolator<>(interpolatorAdapter);
+        // iterated only once
+        PointDataFeatureCollection<TPointData> collection = new PointDataFeatureCollection<>(
+                () -> interpolator.interpolate(pointData, interpolationStepInSeconds), null).setFlyweight(true);
+        List<HexPitchPartGenerator> hexPitchPartGenerators = newPartGenerators(hexGridPitchClassProvider);
+        List<MusicPartGenerator> partGenerators = List.of();
+        try (MusicScore score = newScore(partGenerators, hexPitchPartGenerators)) {
+            exportLive(score);
+            try (SimpleFeatureIterator features = collection.features()) {
+                while (features.hasNext()) {
+                    processFeature(features.next(), score, partGenerators, hexPitchPartGenerators);
+                    exportLive(score);
+                }
+            }
+        }
+    }
+
+    // the score is complete between writes, for whoever is reading it
+    private void exportLive(MusicScore score) throws IOException {
+        try {
+            score.export(new File(this.outputDir, "score.xml"));
+        } catch (MarshallingException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void generateScore(
+            PointDataFeatureCollection<TPointData> collection,
+            List<AttributeDescriptor<TPointData, ?>> attributeDescriptors
+    ) throws Exception {
         if (writeIntermediateFiles) new ShapefileDumper(this.outputDir).dump(collection);
 
         // get generators
@@ -110,19 +248,105 @@ public class MusicHarmonyGenerator<TPointData extends PointData>
 
         // generate
         generateScore(collection, generators, hexPitchPartGenerators);
+        if (writeIntermediateFiles && trajectoryHexGrid != null) {
+            new ShapefileDumper(this.outputDir).dump(trajectoryHexGrid.asFeatureCollection());
+        }
+    }
+
+    /**
+     * Generates art for several tracks (such as a fleet of vessels) sharing the hex grid.
+     * <p>
+     * Point data is grouped by track and each track is interpolated and scored independently (with its own
+     * classification of the extra attributes) on a work-stealing pool. The scores are written either as a single
+     * score (<code>score.xml</code>) with a part group named after each track, or as one score per track
+     * (<code>score_&lt;track&gt;.xml</code>). Intermediate files are not written for the tracks.
+     * <p>
+     * Point data without track (such as YellowBrick fixes, which have no vessel id) is assigned to the given default
+     * track, so it is never scored under a <code>null</code> part group or file name.
+     * <p>
+     * Only available for generators with the whole hex grid, since the lookup is shared (read-only) by all tracks.
+     *
+     * @param pointData                  The point data of all the tracks. WGS84 positions must be contained in the envelope.
+     * @param trackId                    The track (such as the vessel id) of each point data.
+     * @param defaultTrackId             The track of the point data whose track is <code>null</code>. Required.
+     * @param interpolatorAdapter        Adapter to select values for interpolation and rebuild point data.
+     * @param interpolationStepInSeconds Number of seconds between each step of the interpolation (each note in the score).
+     * @param attributeDescriptors       Extra attribute descriptors to be written (their classified values) as separate score parts.
+     * @param singleScore                Whether to write a single score with a part group per track or a score per track.
+     * @param parallelism                The number of tracks to process at the same time.
+     * @throws Exception if it explodes
+     */
+    public <K> void generateScores(
+            Collection<TPointData> pointData, Function<TPointData, K> trackId, K defaultTrackId,
+            PointDataInterpolator.PrimitiveAdapter<TPointData> interpolatorAdapter, int interpolationStepInSeconds,
+            List<AttributeDescriptor<TPointData, ?>> attributeDescriptors,
+            boolean singleScore, int parallelism
+    ) throws Exception {
+        if (trajectoryHexGrid != null) {
+            throw new IllegalStateException("Multiple tracks need the whole hex grid (no corridor rings)");
+        }
+        if (defaultTrackId == null) {
+            throw new IllegalArgumentException("A default track is required for point data without track");
+        }
+
+        // group by track, keeping the order of the tracks in the data
+        Map<K, List<TPointData>> tracks = new LinkedHashMap<>();
+        for (TPointData data : pointData) {
+            K id = trackId.apply(data);
+            tracks.computeIfAbsent(id != null ? id : defaultTrackId, key -> new ArrayList<>()).add(data);
+        }
+
+        // part generators for the hex grid only keep state by thread, so they are shared by all tracks
+        List<HexPitchPartGenerator> hexPitchPartGenerators = newPartGenerators(hexGridPitchClassProvider);
+        PointDataInterpolator<TPointData> interpolator = new PointDataInterpolator<>(interpolatorAdapter);
+        List<Map.Entry<K, List<TPointData>>> entries = new ArrayList<>(tracks.entrySet());
+        MusicScore[] scores = new MusicScore[entries.size()];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, scores.length).parallel().forEach(i -> {
+                List<TPointData> interpolatedData = interpolator
+                        .interpolate(entries.get(i).getValue(), interpolationStepInSeconds);
+                PointDataFeatureCollection<TPointData> collection =
+                        new PointDataFeatureCollection<>(interpolatedData::iterator, attributeDescriptors)
+                                .setFlyweight(true).materialize();
+                List<ClassifierPartGenerator> generators =
+                        newPartGenerators(collection, attributeDescriptors, NATURAL_BREAKS);
+                scores[i] = buildScore(collection, generators, hexPitchPartGenerators);
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        try {
+            if (singleScore) {
+                try (MusicScore score = new MusicScore()) {
+                    for (int i = 0; i < scores.length; i++) {
+                        score.addPartGroup(entries.get(i).getKey().toString(), scores[i]);
+                    }
+                    export(score, "score.xml");
+                }
+            } else {
+                for (int i = 0; i < scores.length; i++) {
+                    export(scores[i], "score_" + entries.get(i).getKey() + ".xml");
+                }
+            }
+        } finally {
+            for (MusicScore score : scores) {
+                if (score != null) score.close();
+            }
+        }
     }
 
     @Override
     protected PitchClass getData(SimpleFeature feature) {
         Coordinate coordinate = getCoordinate(feature);
-        Filter intersects = FILTER_FACTORY.intersects(
-                FILTER_FACTORY.property(ATTR_GEOM),
-                FILTER_FACTORY.literal(GEOMETRY_FACTORY.createPoint(coordinate)));
-        SimpleFeatureCollection intersection = rethrow().get(() -> hexGridSource.getFeatures(intersects));
-        try (SimpleFeatureIterator iterator = intersection.features()) {
-            SimpleFeature hex = iterator.next();
-            return (PitchClass) hex.getAttribute(HexGridFeatureCollection.ATTR_VALUE);
+        PitchClass value = trajectoryHexGrid != null
+                ? trajectoryHexGrid.visit(coordinate)
+                : hexGridLookup.getValue(coordinate);
+        if (value == null) {
+            throw new IllegalArgumentException("Coordinate not contained in the hex grid: " + coordinate);
         }
+        return value;
     }
 
     public static class AttributeDescriptor<TPointData, TBinding> extends PointDataFeatureCollection.AttributeDescriptor<TPointData, TBinding> {
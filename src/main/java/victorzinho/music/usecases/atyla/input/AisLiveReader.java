@@ -0,0 +1,242 @@
+package victorzinho.music.usecases.atyla.input;
+
+import victorzinho.music.pointdata.GeodesicKernel;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.diffplug.common.base.Errors.rethrow;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * The live track of a vessel, decoded from the AIS NMEA sentences (see {@link AisNmeaDecoder}) of a TCP feed (such as
+ * an AIS receiver or a replay server) or of a file being written (such as the log of a receiver), as they come.
+ * <p>
+ * {@link #hasNext()} blocks until the next position report of the vessel arrives, and returns <code>false</code> once
+ * the feed ends or the reader is closed (from any thread). Reports not later (in seconds) than the previous one are
+ * dropped, so the track is always sorted (as the {@link victorzinho.music.pointdata.PointDataInterpolator} needs), and
+ * missing speed and course are computed from the previous report, so they never leave the interpolation waiting.
+ */
+public class AisLiveReader implements Iterator<VesselData>, Closeable {
+    private static final GeodesicKernel GEODESIC_KERNEL = GeodesicKernel.ELLIPSOIDAL;
+
+    private final LineSource lines;
+    private final AisNmeaDecoder decoder;
+    private final int mmsi;
+    private final double[] inverse = new double[2];
+    private VesselData next;
+    private VesselData previous;
+    private boolean finished;
+    private volatile boolean closed;
+
+    private AisLiveReader(LineSource lines, int mmsi, Clock clock) {
+        this.lines = lines;
+        this.decoder = new AisNmeaDecoder(clock);
+        this.mmsi = mmsi;
+    }
+
+    /**
+     * @param host  The host of the feed.
+     * @param port  The port of the feed.
+     * @param mmsi  The MMSI of the vessel to track.
+     * @param clock The clock for the sentences without a timestamp (see {@link AisNmeaDecoder}).
+     * @return a reader of the feed, until the connection is closed by the server or the reader is closed.
+     * @throws IOException if the connection cannot be established.
+     */
+    public static AisLiveReader connect(String host, int port, int mmsi, Clock clock) throws IOException {
+        Socket socket = new Socket(host, port);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        return new AisLiveReader(new LineSource() {
+            @Override
+            public String readLine() throws IOException {
+                return reader.readLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        }, mmsi, clock);
+    }
+
+    /**
+     * @param file         The file, read from the beginning and then followed as it grows (starting over if it is
+     *                     truncated, or with the new file if it is replaced, as when a log is rotated).
+     * @param mmsi         The MMSI of the vessel to track.
+     * @param pollInterval The time to wait for new lines at the end of the file.
+     * @param clock        The clock for the sentences without a timestamp (see {@link AisNmeaDecoder}).
+     * @return a reader of the file, until it is closed.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static AisLiveReader tail(Path file, int mmsi, Duration pollInterval, Clock clock) throws IOException {
+        return new AisLiveReader(new TailLineSource(file, pollInterval.toMillis()), mmsi, clock);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !finished) {
+            String line = rethrow().get(this::readLine);
+            if (line == null) {
+                finished = true;
+                break;
+            }
+            VesselData vesselData = decoder.decode(line);
+            if (vesselData == null || vesselData.getVesselId() != mmsi) continue;
+            if (previous != null && vesselData.getEpochSecond() <= previous.getEpochSecond()) continue;
+
+            fillSpeedAndCourse(vesselData);
+            previous = vesselData;
+            next = vesselData;
+        }
+        return next != null;
+    }
+
+    private String readLine() throws IOException {
+        try {
+            return closed ? null : lines.readLine();
+        } catch (IOException e) {
+            // reading from a closed socket
+            if (closed) return null;
+            throw e;
+        }
+    }
+
+    @Override
+    public VesselData next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        VesselData vesselData = next;
+        next = null;
+        return vesselData;
+    }
+
+    // same as SpeedAndCourseCalculator, with the previous report
+    private void fillSpeedAndCourse(VesselData vesselData) {
+        if (previous == null || vesselData.getSpeed() != null && vesselData.getCourse() != null) return;
+
+        double seconds = vesselData.getEpochSecond() - previous.getEpochSecond();
+        GEODESIC_KERNEL.inverse(previous.getPosition().x, previous.getPosition().y,
+                vesselData.getPosition().x, vesselData.getPosition().y, inverse);
+        float speed = (float) (inverse[0] / seconds);
+        float course = (float) Math.toRadians((inverse[1] + 360) % 360);
+        if (vesselData.getSpeed() == null) vesselData.setSpeed(speed < 0.1 ? 0f : speed);
+        if (vesselData.getCourse() == null) vesselData.setCourse(speed < 0.1 ? 0f : course);
+    }
+
+    /**
+     * Stops reading: a blocked {@link #hasNext()} returns <code>false</code> (as soon as the feed is closed or the
+     * file is polled again).
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        lines.close();
+    }
+
+    private interface LineSource extends Closeable {
+        /**
+         * @return the next line, blocking until there is one, or <code>null</code> at the end of the feed.
+         */
+        String readLine() throws IOException;
+    }
+
+    /**
+     * Lines of a file that is being written, polling it at the end. At the end, the path is also checked for another
+     * file (by its file key, or by its size dropping below the position where there are no file keys), which is then
+     * read from the beginning.
+     */
+    private static class TailLineSource implements LineSource {
+        private final Path path;
+        private final long pollIntervalMillis;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final StringBuilder line = new StringBuilder();
+        private volatile FileChannel channel;
+        private Object fileKey;
+        private long position;
+        private volatile boolean closed;
+
+        private TailLineSource(Path path, long pollIntervalMillis) throws IOException {
+            this.path = path;
+            this.pollIntervalMillis = pollIntervalMillis;
+            this.fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            this.channel = FileChannel.open(path, READ);
+            buffer.limit(0);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            while (!closed) {
+                while (buffer.hasRemaining()) {
+                    char c = (char) (buffer.get() & 0xFF);
+                    if (c == '\n') {
+                        String result = line.toString();
+                        line.setLength(0);
+                        return result;
+                    }
+                    if (c != '\r') line.append(c);
+                }
+
+                if (channel.size() < position) {
+                    // truncated, start over
+                    position = 0;
+                    line.setLength(0);
+                }
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                buffer.flip();
+                if (read > 0) {
+                    position += read;
+                    continue;
+                }
+                if (reopenIfReplaced()) continue;
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        // called once the current file is read to the end, so nothing written to it before it was replaced is lost
+        private boolean reopenIfReplaced() throws IOException {
+            Object key;
+            FileChannel replacement;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                key = attributes.fileKey();
+                if (key != null ? key.equals(fileKey) : attributes.size() >= position) return false;
+                replacement = FileChannel.open(path, READ);
+            } catch (NoSuchFileException e) {
+                // moved away and not created again yet
+                return false;
+            }
+            channel.close();
+            channel = replacement;
+            // closed while reopening
+            if (closed) channel.close();
+            fileKey = key;
+            position = 0;
+            line.setLength(0);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            channel.close();
+        }
+    }
+}
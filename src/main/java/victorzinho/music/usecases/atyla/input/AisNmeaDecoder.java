@@ -0,0 +1,243 @@
+package victorzinho.music.usecases.atyla.input;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes the position reports of AIS NMEA sentences (<code>!AIVDM</code>, or <code>!AIVDO</code> for the own vessel)
+ * into vessel data: message types 1, 2 and 3 (class A), 18 and 19 (class B) and 27 (long range).
+ * <p>
+ * Sentences split in fragments are assembled by their sequential message id; sentences with a wrong checksum, other
+ * message types and reports without a position are ignored. AIS messages only carry the second of the minute, so the
+ * instant is taken from the <code>c:</code> field of the tag block if there is one (as in most logged feeds), or else
+ * from the clock when the sentence is decoded, moved back to the second in the report.
+ * <p>
+ * Speed is in m/s and course in radians (as in {@link victorzinho.music.pointdata.PointDataFeatureCollection});
+ * either is <code>null</code> if not available. Not thread safe.
+ */
+public class AisNmeaDecoder {
+    private static final double METERS_PER_SECOND_PER_KNOT = AtylaJsonReader.NAUTIC_MILE_IN_M / 3600.0;
+    private static final int MAX_PENDING_FRAGMENTS = 64;
+
+    private final Clock clock;
+    // payloads of the fragments received so far, by channel and sequential message id
+    private final Map<String, Fragments> pendingFragments = new LinkedHashMap<>();
+
+    /**
+     * @param clock The clock for the sentences without a timestamp in their tag block.
+     */
+    public AisNmeaDecoder(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param line A line with a sentence, optionally preceded by a tag block (<code>\...\!AIVDM,...</code>).
+     * @return the position report in the sentence (with the MMSI as vessel id), or <code>null</code> if the line is
+     * not a valid AIS sentence, is a fragment of a sentence not complete yet or has no position report.
+     */
+    public VesselData decode(String line) {
+        line = line.strip();
+        Long tagTime = null;
+        if (line.startsWith("\\")) {
+            int tagEnd = line.indexOf('\\', 1);
+            if (tagEnd < 0) return null;
+            tagTime = getTagTime(line.substring(1, tagEnd));
+            line = line.substring(tagEnd + 1);
+        }
+        if (!line.startsWith("!AIVDM") && !line.startsWith("!AIVDO") || !isChecksumValid(line)) return null;
+
+        // !AIVDM,count,number,sequence id,channel,payload,fill bits*checksum
+        String[] fields = line.substring(0, line.lastIndexOf('*')).split(",", -1);
+        if (fields.length != 7) return null;
+        try {
+            int count = Integer.parseInt(fields[1]);
+            int number = Integer.parseInt(fields[2]);
+            String payload = fields[5];
+            int fillBits = Integer.parseInt(fields[6]);
+            if (count > 1) {
+                String key = fields[4] + "/" + fields[3];
+                Fragments fragments = number == 1 ? new Fragments(count, tagTime) : pendingFragments.remove(key);
+                if (fragments == null || fragments.count != count || fragments.received != number - 1) return null;
+                fragments.payload.append(payload);
+                fragments.received++;
+                if (number < count) {
+                    pendingFragments.put(key, fragments);
+                    if (pendingFragments.size() > MAX_PENDING_FRAGMENTS) {
+                        pendingFragments.remove(pendingFragments.keySet().iterator().next());
+                    }
+                    return null;
+                }
+                payload = fragments.payload.toString();
+                if (tagTime == null) tagTime = fragments.tagTime;
+            }
+            return decode(new Payload(payload, fillBits), tagTime);
+        } catch (IllegalArgumentException e) {
+            // malformed numbers or payload characters
+            return null;
+        }
+    }
+
+    private VesselData decode(Payload payload, Long tagTime) {
+        int type = payload.getUnsigned(0, 6);
+        int mmsi;
+        int lon;
+        int lat;
+        double degreesPerUnit;
+        int lonUnavailable;
+        int latUnavailable;
+        Float speed;
+        Float course;
+        int second;
+        switch (type) {
+            case 1, 2, 3 -> {
+                if (payload.bits < 143) return null;
+                mmsi = payload.getUnsigned(8, 30);
+                int sog = payload.getUnsigned(50, 10);
+                lon = payload.getSigned(61, 28);
+                lat = payload.getSigned(89, 27);
+                int cog = payload.getUnsigned(116, 12);
+                second = payload.getUnsigned(137, 6);
+                degreesPerUnit = 1 / 600_000.0;
+                lonUnavailable = 181 * 600_000;
+                latUnavailable = 91 * 600_000;
+                speed = sog != 1023 ? (float) (sog / 10.0 * METERS_PER_SECOND_PER_KNOT) : null;
+                course = cog < 3600 ? (float) Math.toRadians(cog / 10.0) : null;
+            }
+            case 18, 19 -> {
+                if (payload.bits < 139) return null;
+                mmsi = payload.getUnsigned(8, 30);
+                int sog = payload.getUnsigned(46, 10);
+                lon = payload.getSigned(57, 28);
+                lat = payload.getSigned(85, 27);
+                int cog = payload.getUnsigned(112, 12);
+                second = payload.getUnsigned(133, 6);
+                degreesPerUnit = 1 / 600_000.0;
+                lonUnavailable = 181 * 600_000;
+                latUnavailable = 91 * 600_000;
+                speed = sog != 1023 ? (float) (sog / 10.0 * METERS_PER_SECOND_PER_KNOT) : null;
+                course = cog < 3600 ? (float) Math.toRadians(cog / 10.0) : null;
+            }
+            case 27 -> {
+                if (payload.bits < 94) return null;
+                mmsi = payload.getUnsigned(8, 30);
+                lon = payload.getSigned(44, 18);
+                lat = payload.getSigned(62, 17);
+                int sog = payload.getUnsigned(79, 6);
+                int cog = payload.getUnsigned(85, 9);
+                second = 60;
+                degreesPerUnit = 1 / 600.0;
+                lonUnavailable = 181 * 600;
+                latUnavailable = 91 * 600;
+                speed = sog != 63 ? (float) (sog * METERS_PER_SECOND_PER_KNOT) : null;
+                course = cog < 360 ? (float) Math.toRadians(cog) : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+        if (lon == lonUnavailable || lat == latUnavailable) return null;
+        double lonDegrees = lon * degreesPerUnit;
+        double latDegrees = lat * degreesPerUnit;
+        if (Math.abs(lonDegrees) > 180 || Math.abs(latDegrees) > 90) return null;
+
+        VesselData vesselData = new VesselData(new Coordinate(lonDegrees, latDegrees), getInstant(tagTime, second));
+        vesselData
+                .setSource(VesselDataSource.AIS)
+                .setVesselId(mmsi);
+        if (speed != null) vesselData.setSpeed(speed);
+        if (course != null) vesselData.setCourse(course);
+        return vesselData;
+    }
+
+    private Instant getInstant(Long tagTime, int second) {
+        if (tagTime != null) return Instant.ofEpochSecond(tagTime);
+
+        long now = clock.instant().getEpochSecond();
+        // 60 and above: not available, in manual mode, dead reckoning...
+        if (second >= 60) return Instant.ofEpochSecond(now);
+        long reported = now - Math.floorMod(now, 60) + second;
+        return Instant.ofEpochSecond(reported > now ? reported - 60 : reported);
+    }
+
+    /**
+     * @return the unix time (in seconds) in the <code>c:</code> field of the tag block, or <code>null</code> if none.
+     */
+    private static Long getTagTime(String tagBlock) {
+        int checksum = tagBlock.lastIndexOf('*');
+        for (String field : (checksum >= 0 ? tagBlock.substring(0, checksum) : tagBlock).split(",")) {
+            if (!field.startsWith("c:")) continue;
+            try {
+                long time = Long.parseLong(field.substring(2));
+                // some receivers log milliseconds
+                return time > 100_000_000_000L ? time / 1000 : time;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isChecksumValid(String sentence) {
+        int star = sentence.lastIndexOf('*');
+        if (star < 0 || star + 3 > sentence.length()) return false;
+        int checksum = 0;
+        for (int i = 1; i < star; i++) {
+            checksum ^= sentence.charAt(i);
+        }
+        try {
+            return checksum == Integer.parseInt(sentence.substring(star + 1, star + 3), 16);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static class Fragments {
+        private final int count;
+        private final Long tagTime;
+        private final StringBuilder payload = new StringBuilder();
+        private int received;
+
+        private Fragments(int count, Long tagTime) {
+            this.count = count;
+            this.tagTime = tagTime;
+        }
+    }
+
+    /**
+     * The bits of an armored payload (6 bits per character).
+     */
+    private static class Payload {
+        private final byte[] sixBits;
+        private final int bits;
+
+        private Payload(String payload, int fillBits) {
+            sixBits = new byte[payload.length()];
+            for (int i = 0; i < sixBits.length; i++) {
+                int value = payload.charAt(i) - 48;
+                if (value > 40) value -= 8;
+                if (value < 0 || value > 63) throw new IllegalArgumentException("Invalid payload character");
+                sixBits[i] = (byte) value;
+            }
+            bits = sixBits.length * 6 - fillBits;
+        }
+
+        private int getUnsigned(int start, int length) {
+            long value = 0;
+            for (int bit = start; bit < start + length; bit++) {
+                int sixBit = bit / 6 < sixBits.length ? sixBits[bit / 6] : 0;
+                value = (value << 1) | ((sixBit >> (5 - bit % 6)) & 1);
+            }
+            return (int) value;
+        }
+
+        private int getSigned(int start, int length) {
+            int value = getUnsigned(start, length);
+            // sign extension
+            return (value << (32 - length)) >> (32 - length);
+        }
+    }
+}
@@ -1,22 +1,32 @@
 package victorzinho.music.usecases.atyla.input;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.geotools.referencing.GeodeticCalculator;
 import org.locationtech.jts.geom.Coordinate;
+import victorzinho.music.pointdata.GeodesicKernel;
+import victorzinho.music.pointdata.PointDataTable;
 import victorzinho.music.usecases.atyla.input.dto.MarineTrafficRecord;
 import victorzinho.music.usecases.atyla.input.dto.YellowBrickRecord;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
 
+import static com.diffplug.common.base.Errors.rethrow;
 import static java.util.stream.Collectors.toList;
 
 public class AtylaJsonReader {
     public static final int NAUTIC_MILE_IN_M = 1852;
-    private static final GeodeticCalculator GEODETIC_CALCULATOR = new GeodeticCalculator();
+    private static final GeodesicKernel GEODESIC_KERNEL = GeodesicKernel.ELLIPSOIDAL;
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
     public List<VesselData> readFromMarineTraffic(InputStream inputStream) throws IOException {
@@ -33,15 +43,180 @@ public class AtylaJsonReader {
                 .setWindSpeed(marineTrafficRecord.getWindSpeed())
                 .setWindTemperature(marineTrafficRecord.getWindTemperature())
                 .setSource(VesselDataSource.MARINE_TRAFFIC)
+                .setVesselId(marineTrafficRecord.getMmsi() != 0 ? marineTrafficRecord.getMmsi() : marineTrafficRecord.getShipId())
                 .setSpeed(marineTrafficRecord.getSpeed() / 10f)
                 .setCourse((float) Math.toRadians(marineTrafficRecord.getCourse()));
         return vesselData;
     }
 
+    /**
+     * Reads both feeds normalized (merged by instant with {@link VesselDataMerger}, with speed and course) from a
+     * snapshot, ingesting the feeds and writing the snapshot first if there is no valid one for them. Later runs
+     * memory-map the snapshot and skip parsing JSON; the feeds are only checked by length and modification time (see
+     * {@link #fingerprint(URL...)}), without reading them.
+     *
+     * @param directory     The directory to keep the snapshot file in (see {@link VesselDataSnapshot#FILE_NAME}).
+     * @param marineTraffic The MarineTraffic feed (e.g. a resource), opened if the snapshot is written.
+     * @param yellowBrick   The YellowBrick feed (e.g. a resource), opened if the snapshot is written.
+     * @return the snapshot.
+     * @throws IOException if the feeds cannot be read or the snapshot cannot be read or written.
+     */
+    public VesselDataSnapshot readFromSnapshot(File directory, URL marineTraffic, URL yellowBrick) throws IOException {
+        return readFromSnapshot(directory, () -> rethrow().get(marineTraffic::openStream),
+                () -> rethrow().get(yellowBrick::openStream), fingerprint(marineTraffic, yellowBrick));
+    }
+
+    /**
+     * Same as {@link #readFromSnapshot(File, URL, URL)}, for feeds that can only be opened as streams. They are read
+     * through on every call to check they have not changed (see {@link #fingerprint(Supplier[])}), so use it when a
+     * change in the contents must be caught even if the length and modification time are kept.
+     *
+     * @param marineTraffic The MarineTraffic feed, opened (and closed) to fingerprint it and again if the snapshot is
+     *                      written.
+     * @param yellowBrick   The YellowBrick feed, opened (and closed) to fingerprint it and again if the snapshot is
+     *                      written.
+     */
+    public VesselDataSnapshot readFromSnapshot(
+            File directory, Supplier<InputStream> marineTraffic, Supplier<InputStream> yellowBrick
+    ) throws IOException {
+        return readFromSnapshot(directory, marineTraffic, yellowBrick, fingerprint(marineTraffic, yellowBrick));
+    }
+
+    private VesselDataSnapshot readFromSnapshot(
+            File directory, Supplier<InputStream> marineTraffic, Supplier<InputStream> yellowBrick, long fingerprint
+    ) throws IOException {
+        File file = new File(directory, VesselDataSnapshot.FILE_NAME);
+        VesselDataSnapshot snapshot = VesselDataSnapshot.open(file, fingerprint);
+        if (snapshot != null) return snapshot;
+
+        AtylaJsonStreamingReader streamingReader = new AtylaJsonStreamingReader();
+        PointDataTable marineTrafficTable = VesselDataColumns.newTable(1024);
+        try (InputStream inputStream = marineTraffic.get()) {
+            streamingReader.readFromMarineTraffic(inputStream, marineTrafficTable);
+        }
+        PointDataTable yellowBrickTable = VesselDataColumns.newTable(1024);
+        try (InputStream inputStream = yellowBrick.get()) {
+            streamingReader.readFromYellowBrick(inputStream, yellowBrickTable);
+        }
+        VesselDataSnapshot.write(merge(marineTrafficTable, yellowBrickTable), file, fingerprint);
+        return VesselDataSnapshot.open(file, fingerprint);
+    }
+
+    /**
+     * Same as {@link #readFromSnapshot(File, URL, URL)}, for feeds in files, which are parsed in parallel
+     * (see {@link AtylaJsonStreamingReader#readFromMarineTraffic(Path, int)}) if the snapshot is written. The feeds
+     * are fingerprinted by size and modification time (see {@link #fingerprint(Path...)}), without reading them.
+     *
+     * @param parallelism The number of chunks of the feeds to parse at the same time.
+     */
+    public VesselDataSnapshot readFromSnapshot(
+            File directory, Path marineTraffic, Path yellowBrick, int parallelism
+    ) throws IOException {
+        File file = new File(directory, VesselDataSnapshot.FILE_NAME);
+        long fingerprint = fingerprint(marineTraffic, yellowBrick);
+        VesselDataSnapshot snapshot = VesselDataSnapshot.open(file, fingerprint);
+        if (snapshot != null) return snapshot;
+
+        AtylaJsonStreamingReader streamingReader = new AtylaJsonStreamingReader();
+        PointDataTable marineTrafficTable = streamingReader.readFromMarineTraffic(marineTraffic, parallelism);
+        PointDataTable yellowBrickTable = streamingReader.readFromYellowBrick(yellowBrick, parallelism);
+        VesselDataSnapshot.write(merge(marineTrafficTable, yellowBrickTable), file, fingerprint);
+        return VesselDataSnapshot.open(file, fingerprint);
+    }
+
+    /**
+     * @param feeds The feeds, in order.
+     * @return a checksum of the contents of the feeds, which are read through (and closed) without parsing them.
+     * @throws IOException if a feed cannot be read.
+     */
+    @SafeVarargs
+    public static long fingerprint(Supplier<InputStream>... feeds) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        for (Supplier<InputStream> feed : feeds) {
+            try (InputStream inputStream = feed.get()) {
+                for (int n; (n = inputStream.read(buffer)) != -1; ) {
+                    crc.update(buffer, 0, n);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param feeds The feeds, in order.
+     * @return a checksum of the length and modification time of the feeds (of the jar for resources in one), which
+     * are opened (and closed) without reading them.
+     * @throws IOException if a feed cannot be opened.
+     */
+    public static long fingerprint(URL... feeds) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer attributes = ByteBuffer.allocate(2 * Long.BYTES);
+        for (URL feed : feeds) {
+            URLConnection connection = feed.openConnection();
+            try (InputStream ignored = connection.getInputStream()) {
+                attributes.clear().putLong(connection.getContentLengthLong()).putLong(connection.getLastModified());
+            }
+            crc.update(attributes.flip());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param feeds The feed files, in order.
+     * @return a checksum of the size and modification time of the files, which changes when any of them is replaced
+     * or modified.
+     * @throws IOException if the attributes of a file cannot be read.
+     */
+    public static long fingerprint(Path... feeds) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer attributes = ByteBuffer.allocate(2 * Long.BYTES);
+        for (Path feed : feeds) {
+            attributes.clear().putLong(Files.size(feed)).putLong(Files.getLastModifiedTime(feed).toMillis());
+            crc.update(attributes.flip());
+        }
+        return crc.getValue();
+    }
+
+    // MarineTraffic fixes come with wind data, so they win over YellowBrick ones of the same vessel in the same second.
+    // YellowBrick fixes have no vessel id: they are taken as the MarineTraffic vessel if there is a single one, and as a
+    // vessel of their own with a fleet (whose vessels are all kept)
+    private static PointDataTable merge(PointDataTable marineTraffic, PointDataTable yellowBrick) {
+        // the YellowBrick track is sorted when read; MarineTraffic records are usually sorted already
+        marineTraffic.sortByInstant();
+        return new VesselDataMerger(VesselDataSource.MARINE_TRAFFIC, VesselDataSource.YELLOW_BRICK)
+                .setDefaultVesselId(getSingleVesselId(marineTraffic))
+                .merge(marineTraffic, yellowBrick);
+    }
+
+    // null if the table has no vessel ids or several of them
+    private static Integer getSingleVesselId(PointDataTable table) {
+        PointDataTable.IntColumn vesselIds = VesselDataColumns.vesselId(table);
+        Integer vesselId = null;
+        for (int row = 0; row < table.size(); row++) {
+            Integer rowVesselId = vesselIds.getOrNull(row);
+            if (rowVesselId == null || rowVesselId.equals(vesselId)) continue;
+            if (vesselId != null) return null;
+            vesselId = rowVesselId;
+        }
+        return vesselId;
+    }
+
     public List<VesselData> readFromYellowBrick(InputStream inputStream) throws IOException {
         YellowBrickRecord[] yellowBrickRecordArray = MAPPER.readValue(inputStream, YellowBrickRecord[].class);
         Arrays.sort(yellowBrickRecordArray, Comparator.comparingLong(YellowBrickRecord::getAt));
 
+        int n = yellowBrickRecordArray.length;
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = yellowBrickRecordArray[i].getLon();
+            lats[i] = yellowBrickRecordArray[i].getLat();
+        }
+        double[] distances = new double[Math.max(n - 1, 0)];
+        double[] azimuths = new double[distances.length];
+        GEODESIC_KERNEL.inverse(lons, lats, n, distances, azimuths);
+
         List<VesselData> vesselData = new ArrayList<>();
         for (int i = 1; i < yellowBrickRecordArray.length; i++) {
             YellowBrickRecord previous = yellowBrickRecordArray[i - 1];
@@ -51,11 +226,9 @@ public class AtylaJsonReader {
                 continue;
             }
 
-            GEODETIC_CALCULATOR.setStartingGeographicPoint(previous.getLon(), previous.getLat());
-            GEODETIC_CALCULATOR.setDestinationGeographicPoint(current.getLon(), current.getLat());
-            float course = (float) Math.toRadians((GEODETIC_CALCULATOR.getAzimuth() + 360) % 360);
+            float course = (float) Math.toRadians((azimuths[i - 1] + 360) % 360);
 
-            double meters = GEODETIC_CALCULATOR.getOrthodromicDistance();
+            double meters = distances[i - 1];
             double seconds = Duration.between(new Date(previous.getAt() * 1000).toInstant(),
                     new Date(current.getAt() * 1000).toInstant()).getSeconds();
             float speed = (float) (meters / seconds);
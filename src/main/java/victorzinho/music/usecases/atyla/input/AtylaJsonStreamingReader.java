@@ -0,0 +1,563 @@
+package victorzinho.music.usecases.atyla.input;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.locationtech.jts.geom.Coordinate;
+import victorzinho.music.pointdata.GeodesicKernel;
+import victorzinho.music.pointdata.PointDataTable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import static com.diffplug.common.base.Errors.rethrow;
+
+/**
+ * Same as {@link AtylaJsonReader}, with the same resulting values, but reading the JSON tokens straight into
+ * primitive fields instead of binding an array of records (full of strings to be parsed again) first. Meant for big
+ * dumps.
+ * <p>
+ * MarineTraffic records are read lazily, as the returned iterators are consumed. YellowBrick records are read into
+ * primitive columns first, since they are sorted and speed and course are computed from the previous record; only
+ * the vessel data is built lazily.
+ */
+public class AtylaJsonStreamingReader {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final GeodesicKernel GEODESIC_KERNEL = GeodesicKernel.ELLIPSOIDAL;
+    // largest integer such that all integers up to it are exact floats
+    private static final int MAX_EXACT_FLOAT_INT = 1 << 24;
+    // powers of ten exact as floats
+    private static final float[] EXACT_FLOAT_POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f,
+            1e9f, 1e10f};
+
+    /**
+     * @return the vessel data of the records, read as the iterator is consumed. The input stream is closed when
+     * the iterator is exhausted.
+     * @throws IOException if the start of the JSON array cannot be read.
+     */
+    public Iterator<VesselData> readFromMarineTraffic(InputStream inputStream) throws IOException {
+        MarineTrafficParser parser = new MarineTrafficParser(startArray(inputStream));
+        return new Iterator<>() {
+            private boolean hasPendingRecord;
+            private boolean finished;
+
+            @Override
+            public boolean hasNext() {
+                if (!hasPendingRecord && !finished) {
+                    hasPendingRecord = rethrow().get(parser::next);
+                    finished = !hasPendingRecord;
+                    if (finished) rethrow().run(parser.parser::close);
+                }
+                return hasPendingRecord;
+            }
+
+            @Override
+            public VesselData next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                hasPendingRecord = false;
+                return parser.toVesselData();
+            }
+        };
+    }
+
+    /**
+     * Appends the records to a table, without building any vessel data.
+     *
+     * @param table A table created with {@link VesselDataColumns#newTable(int)}.
+     */
+    public void readFromMarineTraffic(InputStream inputStream, PointDataTable table) throws IOException {
+        try (JsonParser parser = startArray(inputStream)) {
+            readMarineTrafficRecords(parser, table);
+        }
+    }
+
+    /**
+     * Same as {@link #readFromMarineTraffic(InputStream, PointDataTable)}, parsing chunks of the file on several
+     * threads (see {@link JsonArrayChunks}). Rows are in the same order as when reading the file sequentially.
+     *
+     * @param file        The MarineTraffic file.
+     * @param parallelism The number of chunks to parse at the same time.
+     * @return a new table (see {@link VesselDataColumns}) with the records.
+     * @throws IOException if the file cannot be read.
+     */
+    public PointDataTable readFromMarineTraffic(Path file, int parallelism) throws IOException {
+        PointDataTable table = VesselDataColumns.newTable(1024);
+        List<PointDataTable> chunks = JsonArrayChunks.parse(file, parallelism, parser -> {
+            PointDataTable chunk = VesselDataColumns.newTable(1024);
+            readMarineTrafficRecords(parser, chunk);
+            return chunk;
+        });
+        if (chunks == null) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                readFromMarineTraffic(inputStream, table);
+            }
+        } else {
+            chunks.forEach(table::addAll);
+        }
+        return table;
+    }
+
+    private static void readMarineTrafficRecords(JsonParser jsonParser, PointDataTable table) throws IOException {
+        MarineTrafficParser parser = new MarineTrafficParser(jsonParser);
+        PointDataTable.IntColumn windAngle = VesselDataColumns.windAngle(table);
+        PointDataTable.FloatColumn windSpeed = VesselDataColumns.windSpeed(table);
+        PointDataTable.FloatColumn windTemperature = VesselDataColumns.windTemperature(table);
+        PointDataTable.EnumColumn<VesselDataSource> source = VesselDataColumns.source(table);
+        PointDataTable.IntColumn vesselId = VesselDataColumns.vesselId(table);
+        while (parser.next()) {
+            int row = table.add(parser.instant, parser.lon, parser.lat);
+            table.getSpeed().set(row, parser.getSpeed());
+            table.getCourse().set(row, parser.getCourse());
+            windAngle.set(row, parser.windAngle);
+            windSpeed.set(row, parser.windSpeed);
+            windTemperature.set(row, parser.windTemperature);
+            source.set(row, VesselDataSource.MARINE_TRAFFIC);
+            vesselId.set(row, parser.getVesselId());
+        }
+    }
+
+    /**
+     * @return the vessel data of the records, sorted by instant, built as the iterator is consumed.
+     * @throws IOException if the records cannot be read.
+     */
+    public Iterator<VesselData> readFromYellowBrick(InputStream inputStream) throws IOException {
+        YellowBrickTrack track = readYellowBrickTrack(inputStream);
+        return new Iterator<>() {
+            private int next = track.nextIndex(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < track.size;
+            }
+
+            @Override
+            public VesselData next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                VesselData vesselData = track.toVesselData(next);
+                next = track.nextIndex(next);
+                return vesselData;
+            }
+        };
+    }
+
+    /**
+     * Appends the records to a table, sorted by instant, without building any vessel data.
+     *
+     * @param table A table created with {@link VesselDataColumns#newTable(int)}.
+     */
+    public void readFromYellowBrick(InputStream inputStream, PointDataTable table) throws IOException {
+        addYellowBrickTrack(readYellowBrickTrack(inputStream), table);
+    }
+
+    /**
+     * Same as {@link #readFromYellowBrick(InputStream, PointDataTable)}, parsing chunks of the file on several
+     * threads (see {@link JsonArrayChunks}). Each chunk is sorted on its own and the chunks are merged by instant,
+     * with the same result as sorting all the records at once.
+     *
+     * @param file        The YellowBrick file.
+     * @param parallelism The number of chunks to parse at the same time.
+     * @return a new table (see {@link VesselDataColumns}) with the records, sorted by instant.
+     * @throws IOException if the file cannot be read.
+     */
+    public PointDataTable readFromYellowBrick(Path file, int parallelism) throws IOException {
+        List<YellowBrickTrack> chunks = JsonArrayChunks.parse(file, parallelism, parser -> {
+            YellowBrickTrack chunk = readYellowBrickRecords(parser);
+            chunk.sort();
+            return chunk;
+        });
+        YellowBrickTrack track;
+        if (chunks == null) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                track = readYellowBrickTrack(inputStream);
+            }
+        } else {
+            track = YellowBrickTrack.merge(chunks);
+        }
+        PointDataTable table = VesselDataColumns.newTable(track.size);
+        addYellowBrickTrack(track, table);
+        return table;
+    }
+
+    private static void addYellowBrickTrack(YellowBrickTrack track, PointDataTable table) {
+        PointDataTable.IntColumn windAngle = VesselDataColumns.windAngle(table);
+        PointDataTable.FloatColumn windSpeed = VesselDataColumns.windSpeed(table);
+        PointDataTable.FloatColumn windTemperature = VesselDataColumns.windTemperature(table);
+        PointDataTable.EnumColumn<VesselDataSource> source = VesselDataColumns.source(table);
+        for (int i = track.nextIndex(0); i < track.size; i = track.nextIndex(i)) {
+            track.computeSpeedAndCourse(i);
+            int row = table.add(Instant.ofEpochSecond(track.at[i]), track.lons[i], track.lats[i]);
+            table.getSpeed().set(row, track.speed);
+            table.getCourse().set(row, track.course);
+            windAngle.set(row, -1);
+            windSpeed.set(row, -1);
+            windTemperature.set(row, -1);
+            source.set(row, VesselDataSource.YELLOW_BRICK);
+        }
+    }
+
+    private static YellowBrickTrack readYellowBrickTrack(InputStream inputStream) throws IOException {
+        YellowBrickTrack track;
+        try (JsonParser parser = startArray(inputStream)) {
+            track = readYellowBrickRecords(parser);
+        }
+        track.sort();
+        return track;
+    }
+
+    private static YellowBrickTrack readYellowBrickRecords(JsonParser parser) throws IOException {
+        YellowBrickTrack track = new YellowBrickTrack(1024);
+        while (nextRecord(parser)) {
+            long at = 0;
+            float lon = 0;
+            float lat = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "at" -> at = readLong(parser);
+                    case "lon" -> lon = readFloat(parser);
+                    case "lat" -> lat = readFloat(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+            track.add(at, lon, lat);
+        }
+        return track;
+    }
+
+    private static JsonParser startArray(InputStream inputStream) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(inputStream);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.close();
+            throw new JsonParseException(parser, "Expected an array of records");
+        }
+        return parser;
+    }
+
+    /**
+     * @return true if the parser is at the start of the next record, false at the end of the array.
+     */
+    private static boolean nextRecord(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) return false;
+        if (token != JsonToken.START_OBJECT) throw new JsonParseException(parser, "Expected a record");
+        return true;
+    }
+
+    private static int readInt(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) return 0;
+        if (token != JsonToken.VALUE_STRING) return parser.getValueAsInt();
+
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (length == 0) return 0;
+        boolean negative = chars[offset] == '-';
+        int start = negative ? offset + 1 : offset;
+        int end = offset + length;
+        // longer values might overflow, let the JDK deal with them
+        if (start == end || end - start > 9) return Integer.parseInt(parser.getText().trim());
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) return Integer.parseInt(parser.getText().trim());
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static long readLong(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) return 0;
+        if (token != JsonToken.VALUE_STRING) return parser.getValueAsLong();
+        return parser.getTextLength() == 0 ? 0 : Long.parseLong(parser.getText().trim());
+    }
+
+    /**
+     * Reads floats written as strings without creating the string in the common case: plain decimals with up to 7
+     * significant digits and 10 decimals are parsed as an exact integer divided by an exact power of ten, which is
+     * correctly rounded, as {@link Float#parseFloat(String)}.
+     */
+    private static float readFloat(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) return 0;
+        if (token != JsonToken.VALUE_STRING) return parser.getFloatValue();
+
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (length == 0) return 0;
+        boolean negative = chars[offset] == '-';
+        int start = negative ? offset + 1 : offset;
+        int end = offset + length;
+        if (start == end || end - start > 18) return Float.parseFloat(parser.getText());
+
+        long mantissa = 0;
+        int decimals = -1;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (decimals >= 0) decimals++;
+            } else {
+                return Float.parseFloat(parser.getText());
+            }
+        }
+        if (decimals < 0) decimals = 0;
+        while (decimals > 0 && mantissa % 10 == 0) {
+            mantissa /= 10;
+            decimals--;
+        }
+        if (mantissa > MAX_EXACT_FLOAT_INT || decimals >= EXACT_FLOAT_POWERS_OF_TEN.length) {
+            return Float.parseFloat(parser.getText());
+        }
+        float value = mantissa / EXACT_FLOAT_POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads ISO local date times (such as <code>2019-07-23T00:23:00</code>) as UTC, without creating the string in
+     * the common case (no fraction of seconds).
+     */
+    private static Instant readInstant(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(parser, "Expected a timestamp");
+        }
+
+        char[] chars = parser.getTextCharacters();
+        int o = parser.getTextOffset();
+        if (parser.getTextLength() != 19 || chars[o + 4] != '-' || chars[o + 7] != '-' || chars[o + 10] != 'T'
+                || chars[o + 13] != ':' || chars[o + 16] != ':') {
+            return Instant.parse(parser.getText() + "Z");
+        }
+        return Instant.ofEpochSecond(LocalDateTime.of(digits(chars, o, 4), digits(chars, o + 5, 2), digits(chars, o + 8, 2),
+                        digits(chars, o + 11, 2), digits(chars, o + 14, 2), digits(chars, o + 17, 2))
+                .toEpochSecond(ZoneOffset.UTC));
+    }
+
+    private static int digits(char[] chars, int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid timestamp: " + new String(chars, offset, length));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Reads MarineTraffic records one by one into its fields, reused for all records.
+     */
+    private static class MarineTrafficParser {
+        private final JsonParser parser;
+
+        private Instant instant;
+        private float lon;
+        private float lat;
+        private float speed;
+        private int course;
+        private int mmsi;
+        private int shipId;
+        private int windAngle;
+        private float windSpeed;
+        private float windTemperature;
+
+        private MarineTrafficParser(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        /**
+         * @return false if there are no more records.
+         */
+        private boolean next() throws IOException {
+            if (!nextRecord(parser)) return false;
+
+            instant = null;
+            lon = lat = speed = windSpeed = windTemperature = 0;
+            course = mmsi = shipId = windAngle = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "timestamp" -> instant = readInstant(parser);
+                    case "lon" -> lon = readFloat(parser);
+                    case "lat" -> lat = readFloat(parser);
+                    case "speed" -> speed = readFloat(parser);
+                    case "course" -> course = readInt(parser);
+                    case "mmsi" -> mmsi = readInt(parser);
+                    case "ship_id" -> shipId = readInt(parser);
+                    case "wind_angle" -> windAngle = readInt(parser);
+                    case "wind_speed" -> windSpeed = readFloat(parser);
+                    case "wind_temperature" -> windTemperature = readFloat(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+            if (instant == null) throw new JsonParseException(parser, "Missing timestamp");
+            return true;
+        }
+
+        private float getSpeed() {
+            return speed / 10f;
+        }
+
+        private float getCourse() {
+            return (float) Math.toRadians(course);
+        }
+
+        private int getVesselId() {
+            return mmsi != 0 ? mmsi : shipId;
+        }
+
+        private VesselData toVesselData() {
+            VesselData vesselData = new VesselData(new Coordinate(lon, lat), instant);
+            vesselData
+                    .setWindAngle(windAngle)
+                    .setWindSpeed(windSpeed)
+                    .setWindTemperature(windTemperature)
+                    .setSource(VesselDataSource.MARINE_TRAFFIC)
+                    .setVesselId(getVesselId())
+                    .setSpeed(getSpeed())
+                    .setCourse(getCourse());
+            return vesselData;
+        }
+    }
+
+    /**
+     * YellowBrick records by columns. Speed and course of a record are computed from the previous one, and records
+     * with the same instant as the previous one are skipped (as the first record).
+     */
+    private static class YellowBrickTrack {
+        private long[] at;
+        private double[] lons;
+        private double[] lats;
+        private int size;
+        private boolean sorted = true;
+        // distance and azimuth from the previous record
+        private final double[] inverse = new double[2];
+        // speed and course of the last computed record
+        private float speed;
+        private float course;
+
+        private YellowBrickTrack(int capacity) {
+            capacity = Math.max(capacity, 1);
+            this.at = new long[capacity];
+            this.lons = new double[capacity];
+            this.lats = new double[capacity];
+        }
+
+        /**
+         * @param tracks Tracks sorted by instant.
+         * @return a new track with the records of all of them sorted by instant; records with the same instant are
+         * in the order of the tracks, as a stable sort of all the records.
+         */
+        private static YellowBrickTrack merge(List<YellowBrickTrack> tracks) {
+            YellowBrickTrack merged = new YellowBrickTrack(tracks.stream().mapToInt(track -> track.size).sum());
+            int[] next = new int[tracks.size()];
+            PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator
+                    .<Integer>comparingLong(i -> tracks.get(i).at[next[i]])
+                    .thenComparingInt(i -> i));
+            for (int i = 0; i < tracks.size(); i++) {
+                if (tracks.get(i).size > 0) queue.add(i);
+            }
+            while (!queue.isEmpty()) {
+                int i = queue.poll();
+                YellowBrickTrack track = tracks.get(i);
+                // take all the records up to the head of the next track, usually the whole track for sorted files
+                int nextTrack = queue.isEmpty() ? -1 : queue.peek();
+                long limit = nextTrack < 0 ? Long.MAX_VALUE : tracks.get(nextTrack).at[next[nextTrack]];
+                do {
+                    int record = next[i]++;
+                    merged.add(track.at[record], track.lons[record], track.lats[record]);
+                } while (next[i] < track.size
+                        && (track.at[next[i]] < limit || track.at[next[i]] == limit && i < nextTrack));
+                if (next[i] < track.size) queue.add(i);
+            }
+            return merged;
+        }
+
+        private void add(long at, double lon, double lat) {
+            if (size == this.at.length) {
+                this.at = Arrays.copyOf(this.at, size * 2);
+                this.lons = Arrays.copyOf(this.lons, size * 2);
+                this.lats = Arrays.copyOf(this.lats, size * 2);
+            }
+            sorted &= size == 0 || this.at[size - 1] <= at;
+            this.at[size] = at;
+            this.lons[size] = lon;
+            this.lats[size] = lat;
+            size++;
+        }
+
+        private void sort() {
+            if (sorted) return;
+            // stable, as the record array sort
+            Integer[] order = new Integer[size];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingLong(i -> at[i]));
+            long[] sortedAt = new long[size];
+            double[] sortedLons = new double[size];
+            double[] sortedLats = new double[size];
+            for (int i = 0; i < size; i++) {
+                sortedAt[i] = at[order[i]];
+                sortedLons[i] = lons[order[i]];
+                sortedLats[i] = lats[order[i]];
+            }
+            at = sortedAt;
+            lons = sortedLons;
+            lats = sortedLats;
+            sorted = true;
+        }
+
+        /**
+         * @return the index of the next record to keep after the given one, or the size if there are no more.
+         */
+        private int nextIndex(int index) {
+            int next = index + 1;
+            while (next < size && at[next] == at[next - 1]) {
+                next++;
+            }
+            return next;
+        }
+
+        private void computeSpeedAndCourse(int index) {
+            GEODESIC_KERNEL.inverse(lons[index - 1], lats[index - 1], lons[index], lats[index], inverse);
+            course = (float) Math.toRadians((inverse[1] + 360) % 360);
+            double seconds = at[index] - at[index - 1];
+            speed = (float) (inverse[0] / seconds);
+            if (speed < 0.1) {
+                speed = 0;
+                course = 0;
+            }
+        }
+
+        private VesselData toVesselData(int index) {
+            computeSpeedAndCourse(index);
+            VesselData vesselData = new VesselData(new Coordinate(lons[index], lats[index]), Instant.ofEpochSecond(at[index]));
+            vesselData
+                    .setWindAngle(-1)
+                    .setWindSpeed(-1)
+                    .setWindTemperature(-1)
+                    .setSource(VesselDataSource.YELLOW_BRICK)
+                    .setSpeed(speed)
+                    .setCourse(course);
+            return vesselData;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package victorzinho.music.usecases.atyla.input;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.diffplug.common.base.Errors.rethrow;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Parses a file with a top-level JSON array of flat records (objects without nested objects or arrays, as the
+ * MarineTraffic and YellowBrick feeds) in parallel, splitting it into byte ranges at record boundaries.
+ * <p>
+ * Boundaries are found by looking for the end of a record followed by the start of the next one (<code>},{"</code>,
+ * with any whitespace) near evenly spaced positions, without parsing what comes before. Each range is parsed as an
+ * array on its own, so a boundary found inside a string value makes a range invalid JSON; in that case (or if the
+ * file does not even look like an array) the results are discarded and the caller falls back to sequential parsing,
+ * which also reports any actual syntax error.
+ */
+class JsonArrayChunks {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int MAX_CHUNK_BYTES = 64 << 20;
+    private static final int SCAN_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Parses the records of a range, as a JSON array.
+     */
+    @FunctionalInterface
+    interface ChunkParser<T> {
+        /**
+         * @param parser A parser just after the start of the array; the records must be read up to the end of it.
+         */
+        T parse(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * @param file        The file with the JSON array.
+     * @param parallelism The number of ranges to parse at the same time.
+     * @param chunkParser The parser of the records in each range.
+     * @return the results of the ranges, in file order, or <code>null</code> if the file could not be split and
+     * parsed in ranges or there is no parallelism to gain (so it must be parsed sequentially).
+     * @throws IOException if the file cannot be read.
+     */
+    static <T> List<T> parse(Path file, int parallelism, ChunkParser<T> chunkParser) throws IOException {
+        if (parallelism < 2) return null;
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            List<long[]> ranges = split(channel, parallelism);
+            if (ranges == null) return null;
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                return pool.submit(() -> ranges.parallelStream()
+                        .map(range -> rethrow().get(() -> parseRange(channel, range[0], range[1], chunkParser)))
+                        .toList()).join();
+            } catch (RuntimeException e) {
+                // most likely a boundary inside a string value; anything else (such as failing to read the file)
+                // would not be solved by parsing it sequentially
+                if (getCause(e, JsonProcessingException.class) != null) return null;
+                IOException ioException = getCause(e, IOException.class);
+                if (ioException != null) throw ioException;
+                throw e;
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // failures in the ranges come wrapped (by rethrow() and again by the pool when rethrown in the caller)
+    private static <E extends Throwable> E getCause(Throwable throwable, Class<E> type) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) return type.cast(cause);
+        }
+        return null;
+    }
+
+    private static <T> T parseRange(FileChannel channel, long start, long end, ChunkParser<T> chunkParser)
+            throws IOException {
+        int length = (int) (end - start);
+        byte[] bytes = new byte[length + 2];
+        bytes[0] = '[';
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position() - 1) < 0) throw new IOException("Unexpected end of file");
+        }
+        bytes[length + 1] = ']';
+
+        try (JsonParser parser = JSON_FACTORY.createParser(bytes)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) throw new JsonParseException(parser, "Expected an array");
+            T result = chunkParser.parse(parser);
+            if (parser.nextToken() != null) throw new JsonParseException(parser, "Unexpected content after the records");
+            return result;
+        }
+    }
+
+    /**
+     * @return the ranges (start and end offsets) with the records, or <code>null</code> if the file does not look
+     * like an array of records.
+     */
+    private static List<long[]> split(FileChannel channel, int parallelism) throws IOException {
+        ByteScanner scanner = new ByteScanner(channel, 0);
+        if (scanner.nextNonWhitespace() != '[') return null;
+        int c = scanner.nextNonWhitespace();
+        if (c == ']') return List.of();
+        if (c != '{') return null;
+        long start = scanner.position() - 1;
+        long end = findLastRecordEnd(channel);
+        if (end <= start) return null;
+
+        long bytes = end - start;
+        long chunks = Math.max((long) parallelism * CHUNKS_PER_THREAD, bytes / MAX_CHUNK_BYTES + 1);
+        chunks = Math.max(1, Math.min(chunks, bytes / MIN_CHUNK_BYTES));
+        long chunkBytes = bytes / chunks;
+
+        List<long[]> ranges = new ArrayList<>();
+        long rangeStart = start;
+        for (long i = 1; i < chunks; i++) {
+            long position = start + i * chunkBytes;
+            if (position <= rangeStart) continue;
+            long[] boundary = findBoundary(channel, position, end);
+            if (boundary == null) break;
+            ranges.add(new long[]{rangeStart, boundary[0]});
+            rangeStart = boundary[1];
+        }
+        ranges.add(new long[]{rangeStart, end});
+
+        for (long[] range : ranges) {
+            if (range[1] - range[0] > Integer.MAX_VALUE - 2) return null;
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the offset after the <code>}</code> of the last record, or -1 if the file does not end with one and
+     * the end of the array.
+     */
+    private static long findLastRecordEnd(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, SCAN_BUFFER_BYTES));
+        long tailStart = size - tail.capacity();
+        while (tail.hasRemaining()) {
+            if (channel.read(tail, tailStart + tail.position()) < 0) return -1;
+        }
+
+        int i = tail.capacity() - 1;
+        while (i >= 0 && isWhitespace(tail.get(i))) i--;
+        if (i < 0 || tail.get(i) != ']') return -1;
+        i--;
+        while (i >= 0 && isWhitespace(tail.get(i))) i--;
+        if (i < 0 || tail.get(i) != '}') return -1;
+        return tailStart + i + 1;
+    }
+
+    /**
+     * @return the end of the record (after its <code>}</code>) and the start of the next one (its <code>{</code>)
+     * of the first boundary after the position, or <code>null</code> if there is none before the end.
+     */
+    private static long[] findBoundary(FileChannel channel, long position, long end) throws IOException {
+        ByteScanner scanner = new ByteScanner(channel, position);
+        while (scanner.position() < end) {
+            int c = scanner.next();
+            while (c == '}') {
+                long recordEnd = scanner.position();
+                c = scanner.nextNonWhitespace();
+                if (c == ',') {
+                    c = scanner.nextNonWhitespace();
+                    if (c != '{') continue;
+                    long recordStart = scanner.position() - 1;
+                    // a record starts with a field name (or is empty); skips most boundary lookalikes in strings
+                    c = scanner.nextNonWhitespace();
+                    if (c == '"' || c == '}') return new long[]{recordEnd, recordStart};
+                }
+            }
+            if (c < 0) return null;
+        }
+        return null;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * Reads a file byte by byte from a position, in blocks.
+     */
+    private static class ByteScanner {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+        // file offset of the start of the buffer
+        private long bufferStart;
+
+        private ByteScanner(FileChannel channel, long position) {
+            this.channel = channel;
+            this.bufferStart = position;
+            buffer.limit(0);
+        }
+
+        /**
+         * @return the file offset of the next byte.
+         */
+        private long position() {
+            return bufferStart + buffer.position();
+        }
+
+        /**
+         * @return the next byte or -1 at the end of the file.
+         */
+        private int next() throws IOException {
+            if (!buffer.hasRemaining()) {
+                bufferStart += buffer.limit();
+                buffer.clear();
+                int read = channel.read(buffer, bufferStart);
+                buffer.flip();
+                if (read <= 0) return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        private int nextNonWhitespace() throws IOException {
+            int c;
+            do {
+                c = next();
+            } while (isWhitespace(c));
+            return c;
+        }
+    }
+}
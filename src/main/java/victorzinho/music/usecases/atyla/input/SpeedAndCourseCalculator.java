@@ -1,22 +1,29 @@
 package victorzinho.music.usecases.atyla.input;
 
-import org.geotools.referencing.GeodeticCalculator;
+import victorzinho.music.pointdata.GeodesicKernel;
 import victorzinho.music.pointdata.PointData;
+import victorzinho.music.pointdata.PointDataTable;
 
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.IntToDoubleFunction;
 
 public class SpeedAndCourseCalculator {
-    private static final GeodeticCalculator GEODETIC_CALCULATOR = new GeodeticCalculator();
+    private static final GeodesicKernel GEODESIC_KERNEL = GeodesicKernel.ELLIPSOIDAL;
 
     public static <TPointData extends PointData> List<TPointData> updateSpeedAndCourseIfNeeded(Collection<TPointData> pointData) {
         List<TPointData> pointDataList = new ArrayList<>(pointData);
         pointDataList.sort(Comparator.comparing(PointData::getInstant));
 
-        for (int i = 1; i < pointDataList.size(); i++) {
+        int n = pointDataList.size();
+        double[] distances = new double[Math.max(n - 1, 0)];
+        double[] azimuths = new double[distances.length];
+        inverse(n, i -> pointDataList.get(i).getPosition().x, i -> pointDataList.get(i).getPosition().y, distances, azimuths);
+
+        for (int i = 1; i < n; i++) {
             TPointData previous = pointDataList.get(i - 1);
             TPointData current = pointDataList.get(i);
 
@@ -25,10 +32,8 @@ public class SpeedAndCourseCalculator {
                 continue;
             }
 
-            GEODETIC_CALCULATOR.setStartingGeographicPoint(previous.getPosition().x, previous.getPosition().y);
-            GEODETIC_CALCULATOR.setDestinationGeographicPoint(current.getPosition().x, current.getPosition().y);
-            float course = (float) Math.toRadians((GEODETIC_CALCULATOR.getAzimuth() + 360) % 360);
-            double meters = GEODETIC_CALCULATOR.getOrthodromicDistance();
+            float course = (float) Math.toRadians((azimuths[i - 1] + 360) % 360);
+            double meters = distances[i - 1];
             float speed = (float) (meters / seconds);
             current.setSpeed(speed < 0.1 ? 0f : speed);
             current.setCourse(speed < 0.1 ? 0f : course);
@@ -36,4 +41,43 @@ public class SpeedAndCourseCalculator {
 
         return pointDataList;
     }
+
+    /**
+     * Same as {@link #updateSpeedAndCourseIfNeeded(Collection)}, on the columns of the table (sorted by instant in
+     * place).
+     */
+    public static void updateSpeedAndCourseIfNeeded(PointDataTable table) {
+        table.sortByInstant();
+
+        int n = table.size();
+        double[] distances = new double[Math.max(n - 1, 0)];
+        double[] azimuths = new double[distances.length];
+        inverse(n, table::getLon, table::getLat, distances, azimuths);
+
+        for (int i = 1; i < n; i++) {
+            double seconds = Duration.between(table.getInstant(i - 1), table.getInstant(i)).getSeconds();
+            if (seconds <= 0) {
+                continue;
+            }
+
+            float course = (float) Math.toRadians((azimuths[i - 1] + 360) % 360);
+            double meters = distances[i - 1];
+            float speed = (float) (meters / seconds);
+            table.getSpeed().set(i, speed < 0.1 ? 0f : speed);
+            table.getCourse().set(i, speed < 0.1 ? 0f : course);
+        }
+    }
+
+    // distance and azimuth between consecutive positions, in one batch
+    private static void inverse(
+            int n, IntToDoubleFunction lon, IntToDoubleFunction lat, double[] distances, double[] azimuths
+    ) {
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = lon.applyAsDouble(i);
+            lats[i] = lat.applyAsDouble(i);
+        }
+        GEODESIC_KERNEL.inverse(lons, lats, n, distances, azimuths);
+    }
 }
@@ -13,6 +13,7 @@ public class VesselData extends PointData {
     private Float windSpeed; // knots
     private Float windTemperature; // celsius
     private VesselDataSource source;
+    private Integer vesselId; // MMSI, or MarineTraffic ship id if unknown
 
     public VesselData(Coordinate position, Instant instant) {
         super(position, instant);
@@ -53,4 +54,13 @@ public class VesselData extends PointData {
         this.source = source;
         return this;
     }
+
+    public Integer getVesselId() {
+        return vesselId;
+    }
+
+    public VesselData setVesselId(Integer vesselId) {
+        this.vesselId = vesselId;
+        return this;
+    }
 }
@@ -0,0 +1,109 @@
+package victorzinho.music.usecases.atyla.input;
+
+import org.locationtech.jts.geom.Coordinate;
+import victorzinho.music.pointdata.PointDataTable;
+
+import java.util.Collection;
+
+/**
+ * Stores {@link VesselData} in a {@link PointDataTable}, with extension columns for the values of the vessel.
+ */
+public class VesselDataColumns {
+    public static final String WIND_ANGLE = "wind_angle";
+    public static final String WIND_SPEED = "wind_speed";
+    public static final String WIND_TEMPERATURE = "wind_temperature";
+    public static final String SOURCE = "source";
+    public static final String VESSEL_ID = "vessel_id";
+
+    /**
+     * @param capacity The initial number of rows to allocate.
+     * @return a new empty table with the vessel data columns.
+     */
+    public static PointDataTable newTable(int capacity) {
+        PointDataTable table = new PointDataTable(capacity);
+        table.addIntColumn(WIND_ANGLE);
+        table.addFloatColumn(WIND_SPEED);
+        table.addFloatColumn(WIND_TEMPERATURE);
+        table.addEnumColumn(SOURCE, VesselDataSource.class);
+        table.addIntColumn(VESSEL_ID);
+        return table;
+    }
+
+    /**
+     * @param vesselData The vessel data to copy.
+     * @return a new table with a row for each vessel data, in the same order.
+     */
+    public static PointDataTable toTable(Collection<VesselData> vesselData) {
+        PointDataTable table = newTable(vesselData.size());
+        vesselData.forEach(v -> add(table, v));
+        return table;
+    }
+
+    /**
+     * @param table      A table created with {@link #newTable(int)}.
+     * @param vesselData The vessel data to append.
+     * @return the index of the new row.
+     */
+    public static int add(PointDataTable table, VesselData vesselData) {
+        int row = table.add(vesselData);
+        windAngle(table).set(row, vesselData.getWindAngle());
+        windSpeed(table).set(row, vesselData.getWindSpeed());
+        windTemperature(table).set(row, vesselData.getWindTemperature());
+        source(table).set(row, vesselData.getSource());
+        vesselId(table).set(row, vesselData.getVesselId());
+        return row;
+    }
+
+    /**
+     * Maps a row of a table created with {@link #newTable(int)}; a {@link PointDataTable.RowMapper}.
+     *
+     * @return a new vessel data for the row.
+     */
+    public static VesselData get(PointDataTable table, int row) {
+        VesselData vesselData = new VesselData(new Coordinate(table.getLon(row), table.getLat(row)), table.getInstant(row));
+        if (!table.getSpeed().isNull(row)) vesselData.setSpeed(table.getSpeed().get(row));
+        if (!table.getCourse().isNull(row)) vesselData.setCourse(table.getCourse().get(row));
+        if (!windAngle(table).isNull(row)) vesselData.setWindAngle(windAngle(table).get(row));
+        if (!windSpeed(table).isNull(row)) vesselData.setWindSpeed(windSpeed(table).get(row));
+        if (!windTemperature(table).isNull(row)) vesselData.setWindTemperature(windTemperature(table).get(row));
+        vesselData.setSource(source(table).get(row));
+        vesselData.setVesselId(vesselId(table).getOrNull(row));
+        return vesselData;
+    }
+
+    /**
+     * @return the {@link #WIND_ANGLE} column of a table created with {@link #newTable(int)}.
+     */
+    public static PointDataTable.IntColumn windAngle(PointDataTable table) {
+        return (PointDataTable.IntColumn) table.getColumn(WIND_ANGLE);
+    }
+
+    /**
+     * @return the {@link #WIND_SPEED} column of a table created with {@link #newTable(int)}.
+     */
+    public static PointDataTable.FloatColumn windSpeed(PointDataTable table) {
+        return (PointDataTable.FloatColumn) table.getColumn(WIND_SPEED);
+    }
+
+    /**
+     * @return the {@link #WIND_TEMPERATURE} column of a table created with {@link #newTable(int)}.
+     */
+    public static PointDataTable.FloatColumn windTemperature(PointDataTable table) {
+        return (PointDataTable.FloatColumn) table.getColumn(WIND_TEMPERATURE);
+    }
+
+    /**
+     * @return the {@link #VESSEL_ID} column of a table created with {@link #newTable(int)}.
+     */
+    public static PointDataTable.IntColumn vesselId(PointDataTable table) {
+        return (PointDataTable.IntColumn) table.getColumn(VESSEL_ID);
+    }
+
+    /**
+     * @return the {@link #SOURCE} column of a table created with {@link #newTable(int)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static PointDataTable.EnumColumn<VesselDataSource> source(PointDataTable table) {
+        return (PointDataTable.EnumColumn<VesselDataSource>) table.getColumn(SOURCE);
+    }
+}
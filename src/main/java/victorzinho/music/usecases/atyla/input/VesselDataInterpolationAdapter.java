@@ -3,38 +3,80 @@ package victorzinho.music.usecases.atyla.input;
 import org.locationtech.jts.geom.Coordinate;
 import victorzinho.music.pointdata.PointDataInterpolator;
 
-import java.util.Date;
-import java.util.List;
-import java.util.function.Function;
+import java.time.Instant;
+
+public class VesselDataInterpolationAdapter implements PointDataInterpolator.PrimitiveAdapter<VesselData> {
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int SPEED = 2;
+    private static final int COURSE = 3;
+    private static final int WIND_ANGLE = 4;
+    private static final int WIND_SPEED = 5;
+    private static final int WIND_TEMPERATURE = 6;
+
+    // the snapshot column of each channel, read in place from snapshot rows
+    private static final VesselDataSnapshot.Column[] SNAPSHOT_COLUMNS = {
+            VesselDataSnapshot.Column.LON, VesselDataSnapshot.Column.LAT, VesselDataSnapshot.Column.SPEED,
+            VesselDataSnapshot.Column.COURSE, VesselDataSnapshot.Column.WIND_ANGLE,
+            VesselDataSnapshot.Column.WIND_SPEED, VesselDataSnapshot.Column.WIND_TEMPERATURE};
+
+    private final boolean interpolateWind;
+
+    public VesselDataInterpolationAdapter() {
+        this(true);
+    }
+
+    /**
+     * @param interpolateWind Whether to interpolate the wind values too. Sources without them (such as AIS) must not,
+     *                        since the interpolation needs valid values of every channel.
+     */
+    public VesselDataInterpolationAdapter(boolean interpolateWind) {
+        this.interpolateWind = interpolateWind;
+    }
+
+    @Override
+    public int channels() {
+        return interpolateWind ? 7 : 4;
+    }
 
-public class VesselDataInterpolationAdapter implements PointDataInterpolator.Adapter<VesselData> {
     @Override
-    public List<Function<VesselData, ? extends Number>> getYFunctions() {
-        return List.of(
-                vesselData -> vesselData.getPosition().x,
-                vesselData -> vesselData.getPosition().y,
-                VesselData::getSpeed,
-                VesselData::getCourse,
-                VesselData::getWindAngle,
-                VesselData::getWindSpeed,
-                VesselData::getWindTemperature
-        );
+    public double extract(VesselData vesselData, int channel) {
+        if (vesselData instanceof VesselDataSnapshot.Row row && channel >= 0 && channel < SNAPSHOT_COLUMNS.length) {
+            return row.getValue(SNAPSHOT_COLUMNS[channel]);
+        }
+        return switch (channel) {
+            case X -> vesselData.getPosition().x;
+            case Y -> vesselData.getPosition().y;
+            case SPEED -> toDouble(vesselData.getSpeed());
+            case COURSE -> toDouble(vesselData.getCourse());
+            case WIND_ANGLE -> toDouble(vesselData.getWindAngle());
+            case WIND_SPEED -> toDouble(vesselData.getWindSpeed());
+            case WIND_TEMPERATURE -> toDouble(vesselData.getWindTemperature());
+            default -> throw new IndexOutOfBoundsException(channel);
+        };
+    }
+
+    private static double toDouble(Number value) {
+        return value != null ? value.doubleValue() : Double.NaN;
     }
 
     @Override
-    public VesselData build(List<Double> values) {
-        VesselData vesselData = new VesselData(new Coordinate(values.get(1), values.get(2)), new Date(values.get(0).longValue() * 1000).toInstant());
+    public VesselData build(long epochSecond, double[] values) {
+        VesselData vesselData = new VesselData(new Coordinate(values[X], values[Y]), Instant.ofEpochSecond(epochSecond));
+        if (interpolateWind) {
+            vesselData
+                    .setWindAngle((int) values[WIND_ANGLE])
+                    .setWindSpeed((float) values[WIND_SPEED])
+                    .setWindTemperature((float) values[WIND_TEMPERATURE]);
+        }
         vesselData
-                .setWindAngle(values.get(5).intValue())
-                .setWindSpeed(values.get(6).floatValue())
-                .setWindTemperature(values.get(7).floatValue())
-                .setSpeed(values.get(3).floatValue())
-                .setCourse(values.get(4).floatValue());
+                .setSpeed((float) values[SPEED])
+                .setCourse((float) values[COURSE]);
         return vesselData;
     }
 
     @Override
-    public boolean filter(Number yValue) {
-        return yValue.doubleValue() >= 0.0;
+    public boolean accept(int channel, double value) {
+        return value >= 0.0;
     }
 }
@@ -0,0 +1,206 @@
+package victorzinho.music.usecases.atyla.input;
+
+import victorzinho.music.pointdata.PointDataTable;
+
+import java.util.*;
+
+/**
+ * Merges vessel data from several sources (feeds) into a single sequence, ordered by instant, with at most one element
+ * per vessel and second (the unit the {@link victorzinho.music.pointdata.PointDataInterpolator} deduplicates by).
+ * <p>
+ * Each input must already be sorted by instant (as each feed is, or is once on its own) and is expected to come from a
+ * single source; they are merged with a heap of the next element of each input, so the output is never sorted as a
+ * whole. When several elements of the same vessel (by vessel id) fall in the same second, the one with the source of
+ * highest priority is kept, and the first one of its input among those. Elements of different vessels in the same
+ * second are all kept. Elements without vessel id (such as YellowBrick fixes) belong to the default vessel (see
+ * {@link #setDefaultVesselId(Integer)}).
+ */
+public class VesselDataMerger {
+    private final int[] ranks = new int[VesselDataSource.values().length];
+    private Integer defaultVesselId;
+
+    /**
+     * @param priority The sources, from highest to lowest priority when elements collide. Sources not given (and
+     *                 elements without a source) have the lowest priority, in declaration order.
+     */
+    public VesselDataMerger(VesselDataSource... priority) {
+        Arrays.fill(ranks, Integer.MAX_VALUE);
+        for (int i = 0; i < priority.length; i++) {
+            ranks[priority[i].ordinal()] = Math.min(ranks[priority[i].ordinal()], i);
+        }
+        for (VesselDataSource source : VesselDataSource.values()) {
+            if (ranks[source.ordinal()] == Integer.MAX_VALUE) ranks[source.ordinal()] = priority.length + source.ordinal();
+        }
+    }
+
+    /**
+     * @param defaultVesselId The vessel of the elements without vessel id, or <code>null</code> (the default) for a
+     *                        vessel of their own.
+     */
+    public VesselDataMerger setDefaultVesselId(Integer defaultVesselId) {
+        this.defaultVesselId = defaultVesselId;
+        return this;
+    }
+
+    private Integer getVesselId(Integer vesselId) {
+        return vesselId != null ? vesselId : defaultVesselId;
+    }
+
+    private int getRank(VesselDataSource source) {
+        return source != null ? ranks[source.ordinal()] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param inputs The inputs, each one sorted by instant.
+     * @return an iterator with the merged elements, consuming the inputs as it advances.
+     * @throws IllegalArgumentException while iterating, if an input is not sorted.
+     */
+    public Iterator<VesselData> merge(List<? extends Iterator<VesselData>> inputs) {
+        PriorityQueue<Head> heads = new PriorityQueue<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            Head head = new Head(i);
+            if (advance(head, inputs.get(i))) heads.add(head);
+        }
+
+        Kept kept = new Kept();
+        return new Iterator<>() {
+            private VesselData next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !heads.isEmpty()) {
+                    Head head = heads.poll();
+                    if (kept.add(head)) next = head.vesselData;
+                    if (advance(head, inputs.get(head.input))) heads.add(head);
+                }
+                return next != null;
+            }
+
+            @Override
+            public VesselData next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                VesselData vesselData = next;
+                next = null;
+                return vesselData;
+            }
+        };
+    }
+
+    private boolean advance(Head head, Iterator<VesselData> input) {
+        if (!input.hasNext()) return false;
+        VesselData vesselData = input.next();
+        setEpochSecond(head, vesselData.getEpochSecond());
+        head.vesselData = vesselData;
+        head.vesselId = getVesselId(vesselData.getVesselId());
+        head.rank = getRank(vesselData.getSource());
+        return true;
+    }
+
+    // only one element is kept per vessel and second, so the order within a second does not matter
+    private static void setEpochSecond(Head head, long epochSecond) {
+        if (epochSecond < head.epochSecond) throw new IllegalArgumentException("Vessel data must be sorted by instant");
+        head.epochSecond = epochSecond;
+    }
+
+    /**
+     * Same as {@link #merge(List)}, for tables (see {@link VesselDataColumns}), copying runs of rows at once.
+     *
+     * @param inputs The tables, each one sorted by instant.
+     * @return a new table with the merged rows.
+     * @throws IllegalArgumentException if a table is not sorted or the tables have different columns.
+     */
+    public PointDataTable merge(PointDataTable... inputs) {
+        int capacity = 0;
+        for (PointDataTable input : inputs) {
+            capacity += input.size();
+        }
+        PointDataTable merged = VesselDataColumns.newTable(Math.max(capacity, 1));
+
+        PriorityQueue<Head> heads = new PriorityQueue<>();
+        for (int i = 0; i < inputs.length; i++) {
+            Head head = new Head(i);
+            head.source = VesselDataColumns.source(inputs[i]);
+            head.vesselIds = VesselDataColumns.vesselId(inputs[i]);
+            if (advance(head, inputs[i])) heads.add(head);
+        }
+
+        Kept kept = new Kept();
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            PointDataTable input = inputs[head.input];
+            if (!kept.add(head)) {
+                if (advance(head, input)) heads.add(head);
+                continue;
+            }
+
+            // take the rows of this table up to the next head, or to a vessel repeated in a second
+            int from = head.row;
+            Head nextHead = heads.peek();
+            while (advance(head, input) && (nextHead == null || head.compareTo(nextHead) < 0)
+                    && !kept.contains(head)) {
+                kept.add(head);
+            }
+            merged.addAll(input, from, head.row);
+            if (head.row < input.size()) heads.add(head);
+        }
+        return merged;
+    }
+
+    // moves the head to the next row (up to the size of the table); false if there are no more rows
+    private boolean advance(Head head, PointDataTable input) {
+        int row = ++head.row;
+        if (row >= input.size()) return false;
+        setEpochSecond(head, input.getEpochSecond(row));
+        head.vesselId = getVesselId(head.vesselIds.getOrNull(row));
+        head.rank = getRank(head.source.get(row));
+        return true;
+    }
+
+    /**
+     * The next element of an input, ordered by second, priority of its source and input.
+     */
+    private static class Head implements Comparable<Head> {
+        private final int input;
+        private long epochSecond = Long.MIN_VALUE;
+        private int rank;
+        private Integer vesselId;
+        // the element, when merging iterators
+        private VesselData vesselData;
+        // the row and the source and vessel id columns, when merging tables
+        private int row = -1;
+        private PointDataTable.EnumColumn<VesselDataSource> source;
+        private PointDataTable.IntColumn vesselIds;
+
+        private Head(int input) {
+            this.input = input;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int comparison = Long.compare(epochSecond, other.epochSecond);
+            if (comparison == 0) comparison = Integer.compare(rank, other.rank);
+            return comparison != 0 ? comparison : Integer.compare(input, other.input);
+        }
+    }
+
+    /**
+     * The vessels with an element kept in the current second; heads are taken in order, so earlier seconds are done.
+     */
+    private static class Kept {
+        private final Set<Integer> vesselIds = new HashSet<>();
+        private long epochSecond = Long.MIN_VALUE;
+
+        // false if the vessel of the head has an element kept in its second already, which is dropped then
+        private boolean add(Head head) {
+            if (head.epochSecond != epochSecond) {
+                vesselIds.clear();
+                epochSecond = head.epochSecond;
+            }
+            return vesselIds.add(head.vesselId);
+        }
+
+        private boolean contains(Head head) {
+            return head.epochSecond == epochSecond && vesselIds.contains(head.vesselId);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package victorzinho.music.usecases.atyla.input;
+
+import org.locationtech.jts.geom.Coordinate;
+import victorzinho.music.pointdata.PointData;
+import victorzinho.music.pointdata.PointDataTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Binary snapshot of normalized vessel data (as read from the feeds, merged by instant), stored by fixed-width
+ * columns so later runs can memory-map it instead of parsing the feeds again.
+ * <p>
+ * The file starts with a small header (row and column count, a fingerprint of the feeds it was written from and a
+ * checksum of the header and the index) followed by an index with the name, width and offsets of each column and of
+ * its bitmap of non-null values. Columns are 8-byte aligned and each of them is mapped on its own, so they are read in
+ * place (see the buffer getters and {@link #rows()}) and the file is not limited to the 2 GB of a single mapping.
+ * Only the header and index are checked: a snapshot written from other feeds (another fingerprint) is not opened, so
+ * it is written again, but the columns themselves are trusted.
+ */
+public class VesselDataSnapshot {
+    public static final String FILE_NAME = "vessel_data.snapshot";
+
+    private static final int MAGIC = 0x56534e50; // VSNP
+    // 2: one row per second, see VesselDataMerger; 3: fingerprint of the feeds
+    private static final int VERSION = 3;
+    // magic, version, rows, columns, fingerprint and checksum
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int FINGERPRINT_OFFSET = 4 * Integer.BYTES;
+    private static final int CHECKSUM_OFFSET = FINGERPRINT_OFFSET + Long.BYTES;
+    private static final int ROWS_PER_WRITE = 1 << 16;
+    private static final int MAX_COLUMNS = 64;
+
+    /**
+     * The columns of the snapshot, in file order.
+     */
+    public enum Column {
+        EPOCH_SECOND("epoch_second", Long.BYTES, false),
+        NANO("nano", Integer.BYTES, false),
+        LON("lon", Double.BYTES, false),
+        LAT("lat", Double.BYTES, false),
+        SPEED("speed", Float.BYTES, true),
+        COURSE("course", Float.BYTES, true),
+        WIND_ANGLE(VesselDataColumns.WIND_ANGLE, Integer.BYTES, true),
+        WIND_SPEED(VesselDataColumns.WIND_SPEED, Float.BYTES, true),
+        WIND_TEMPERATURE(VesselDataColumns.WIND_TEMPERATURE, Float.BYTES, true),
+        SOURCE(VesselDataColumns.SOURCE, Byte.BYTES, true),
+        VESSEL_ID(VesselDataColumns.VESSEL_ID, Integer.BYTES, true);
+
+        private final String name;
+        private final int width;
+        private final boolean nullable;
+
+        Column(String name, int width, boolean nullable) {
+            this.name = name;
+            this.width = width;
+            this.nullable = nullable;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final int size;
+    private final Map<Column, ByteBuffer> values;
+    private final Map<Column, LongBuffer> nonNull;
+
+    private VesselDataSnapshot(int size, Map<Column, ByteBuffer> values, Map<Column, LongBuffer> nonNull) {
+        this.size = size;
+        this.values = values;
+        this.nonNull = nonNull;
+    }
+
+    /**
+     * Writes the rows of a table to a snapshot file, replacing it if it exists.
+     *
+     * @param table       A table created with {@link VesselDataColumns#newTable(int)}.
+     * @param file        The snapshot file.
+     * @param fingerprint The fingerprint of the feeds the table was read from, to check in {@link #open(File, long)}.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(PointDataTable table, File file, long fingerprint) throws IOException {
+        int size = table.size();
+        Column[] columns = Column.values();
+
+        // index: name, width, offset of the values and offset of the non-null bitmap (-1 if not nullable)
+        int indexBytes = 0;
+        for (Column column : columns) {
+            indexBytes += Short.BYTES + column.name.length() + Byte.BYTES + 2 * Long.BYTES;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + indexBytes);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(columns.length).putLong(fingerprint).putLong(0);
+        long offset = align(header.capacity());
+        long bitmapBytes = (long) ((size + 63) >>> 6) * Long.BYTES;
+        for (Column column : columns) {
+            byte[] name = column.name.getBytes(StandardCharsets.US_ASCII);
+            header.putShort((short) name.length).put(name).put((byte) column.width).putLong(offset);
+            offset = align(offset + (long) size * column.width);
+            header.putLong(column.nullable ? offset : -1);
+            if (column.nullable) offset = align(offset + bitmapBytes);
+        }
+        header.putLong(CHECKSUM_OFFSET, checksum(header));
+        header.flip();
+
+        // write to a temporary file first, so a failed write never leaves a valid looking snapshot
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Path tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), FILE_NAME, ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, WRITE, TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            ByteBuffer buffer = ByteBuffer.allocate(ROWS_PER_WRITE * Long.BYTES);
+            for (Column column : columns) {
+                pad(channel);
+                for (int from = 0; from < size; from += ROWS_PER_WRITE) {
+                    int to = Math.min(size, from + ROWS_PER_WRITE);
+                    buffer.clear();
+                    for (int row = from; row < to; row++) {
+                        putValue(buffer, column, table, row);
+                    }
+                    writeFully(channel, buffer.flip());
+                }
+                if (!column.nullable) continue;
+
+                pad(channel);
+                for (int from = 0; from < size; from += ROWS_PER_WRITE) {
+                    int to = Math.min(size, from + ROWS_PER_WRITE);
+                    buffer.clear();
+                    for (int word = from; word < to; word += 64) {
+                        long bits = 0;
+                        for (int row = word; row < Math.min(to, word + 64); row++) {
+                            if (!isNullInTable(column, table, row)) bits |= 1L << row;
+                        }
+                        buffer.putLong(bits);
+                    }
+                    writeFully(channel, buffer.flip());
+                }
+            }
+            pad(channel);
+        }
+        Files.move(tmp, file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file        The snapshot file.
+     * @param fingerprint The fingerprint of the current feeds.
+     * @return the memory-mapped snapshot or <code>null</code> if there is no file, it is not a valid snapshot or it
+     * was written from other feeds (with another fingerprint).
+     * @throws IOException if the file cannot be read.
+     */
+    public static VesselDataSnapshot open(File file, long fingerprint) throws IOException {
+        if (!file.isFile()) return null;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            long fileSize = channel.size();
+            ByteBuffer start = ByteBuffer.allocate((int) Math.min(fileSize, HEADER_BYTES));
+            channel.read(start, 0);
+            start.flip();
+            if (start.remaining() < HEADER_BYTES || start.getInt() != MAGIC || start.getInt() != VERSION) return null;
+            int size = start.getInt();
+            int columnCount = start.getInt();
+            if (size < 0 || columnCount < 0 || columnCount > MAX_COLUMNS) return null;
+            if (start.getLong() != fingerprint) return null;
+
+            // the index is small, read it whole
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(fileSize, HEADER_BYTES + columnCount * (Short.BYTES + 255L + Byte.BYTES + 2 * Long.BYTES)));
+            channel.read(header, 0);
+            header.flip().position(HEADER_BYTES);
+            Map<String, long[]> index = new HashMap<>();
+            for (int i = 0; i < columnCount; i++) {
+                byte[] name = new byte[header.getShort()];
+                header.get(name);
+                index.put(new String(name, StandardCharsets.US_ASCII),
+                        new long[]{header.get(), header.getLong(), header.getLong()});
+            }
+            if (header.getLong(CHECKSUM_OFFSET) != checksum(header.flip())) return null;
+
+            // the mappings stay valid after closing the channel
+            Map<Column, ByteBuffer> values = new EnumMap<>(Column.class);
+            Map<Column, LongBuffer> nonNull = new EnumMap<>(Column.class);
+            long bitmapBytes = (long) ((size + 63) >>> 6) * Long.BYTES;
+            for (Column column : Column.values()) {
+                long[] entry = index.get(column.name);
+                if (entry == null || entry[0] != column.width) return null;
+                long valueBytes = (long) size * column.width;
+                if (entry[1] < 0 || entry[1] + valueBytes > fileSize) return null;
+                values.put(column, channel.map(FileChannel.MapMode.READ_ONLY, entry[1], valueBytes));
+                if (column.nullable) {
+                    if (entry[2] < 0 || entry[2] + bitmapBytes > fileSize) return null;
+                    nonNull.put(column, channel.map(FileChannel.MapMode.READ_ONLY, entry[2], bitmapBytes).asLongBuffer());
+                }
+            }
+            return new VesselDataSnapshot(size, values, nonNull);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // truncated or otherwise corrupt
+            return null;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public LongBuffer getEpochSeconds() {
+        return values.get(Column.EPOCH_SECOND).asLongBuffer();
+    }
+
+    public IntBuffer getNanos() {
+        return values.get(Column.NANO).asIntBuffer();
+    }
+
+    public DoubleBuffer getLons() {
+        return values.get(Column.LON).asDoubleBuffer();
+    }
+
+    public DoubleBuffer getLats() {
+        return values.get(Column.LAT).asDoubleBuffer();
+    }
+
+    public FloatBuffer getSpeeds() {
+        return values.get(Column.SPEED).asFloatBuffer();
+    }
+
+    public FloatBuffer getCourses() {
+        return values.get(Column.COURSE).asFloatBuffer();
+    }
+
+    public IntBuffer getWindAngles() {
+        return values.get(Column.WIND_ANGLE).asIntBuffer();
+    }
+
+    public FloatBuffer getWindSpeeds() {
+        return values.get(Column.WIND_SPEED).asFloatBuffer();
+    }
+
+    public FloatBuffer getWindTemperatures() {
+        return values.get(Column.WIND_TEMPERATURE).asFloatBuffer();
+    }
+
+    /**
+     * @return the ordinals of the {@link VesselDataSource} of each row.
+     */
+    public ByteBuffer getSources() {
+        return values.get(Column.SOURCE).duplicate();
+    }
+
+    public IntBuffer getVesselIds() {
+        return values.get(Column.VESSEL_ID).asIntBuffer();
+    }
+
+    /**
+     * @return whether the column has no value for the row (always false for not nullable columns).
+     */
+    public boolean isNull(Column column, int row) {
+        LongBuffer bitmap = nonNull.get(column);
+        return bitmap != null && (bitmap.get(row >>> 6) & (1L << row)) == 0;
+    }
+
+    /**
+     * @return a new vessel data with the values of the row.
+     */
+    public VesselData get(int row) {
+        ByteBuffer sources = values.get(Column.SOURCE);
+        VesselData vesselData = new VesselData(
+                new Coordinate(values.get(Column.LON).getDouble(row * Double.BYTES),
+                        values.get(Column.LAT).getDouble(row * Double.BYTES)),
+                Instant.ofEpochSecond(values.get(Column.EPOCH_SECOND).getLong(row * Long.BYTES),
+                        values.get(Column.NANO).getInt(row * Integer.BYTES)));
+        if (!isNull(Column.SPEED, row)) vesselData.setSpeed(getFloat(Column.SPEED, row));
+        if (!isNull(Column.COURSE, row)) vesselData.setCourse(getFloat(Column.COURSE, row));
+        if (!isNull(Column.WIND_ANGLE, row)) vesselData.setWindAngle(getInt(Column.WIND_ANGLE, row));
+        if (!isNull(Column.WIND_SPEED, row)) vesselData.setWindSpeed(getFloat(Column.WIND_SPEED, row));
+        if (!isNull(Column.WIND_TEMPERATURE, row)) {
+            vesselData.setWindTemperature(getFloat(Column.WIND_TEMPERATURE, row));
+        }
+        if (!isNull(Column.SOURCE, row)) vesselData.setSource(VesselDataSource.values()[sources.get(row) & 0xFF]);
+        if (!isNull(Column.VESSEL_ID, row)) vesselData.setVesselId(getInt(Column.VESSEL_ID, row));
+        return vesselData;
+    }
+
+    /**
+     * @return an iterator building each row as a new vessel data when reached, straight from the mapped columns
+     * (such as for {@link victorzinho.music.pointdata.PointDataInterpolator#interpolate(Iterator, double)}).
+     */
+    public Iterator<VesselData> iterator() {
+        return new Iterator<>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public VesselData next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return get(row++);
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over a single {@link Row} moved to each row in turn, reading the mapped columns in place, so
+     * nothing is built or copied per row. Use {@link #iterator()} to keep the rows.
+     */
+    public Iterator<Row> rows() {
+        Row cursor = new Row();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.row + 1 < size;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                cursor.row++;
+                return cursor;
+            }
+        };
+    }
+
+    /**
+     * @return a new table (see {@link VesselDataColumns}) with a copy of the rows.
+     */
+    public PointDataTable toTable() {
+        PointDataTable table = VesselDataColumns.newTable(size);
+        for (int row = 0; row < size; row++) {
+            VesselDataColumns.add(table, get(row));
+        }
+        return table;
+    }
+
+    /**
+     * A read-only view of the current row of {@link #rows()}, with the getters of a vessel data reading the mapped
+     * columns. It changes as the iterator moves, so it must not be kept, modified or compared (it has no instant of
+     * its own); see {@link #get(int)} for that.
+     */
+    public class Row extends VesselData {
+        private int row = -1;
+
+        private Row() {
+            super(null, null);
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * @return the value of a numeric column in the row, or NaN if it has no value (as with
+         * {@link VesselDataInterpolationAdapter#extract(VesselData, int)}).
+         */
+        public double getValue(Column column) {
+            if (isNull(column, row)) return Double.NaN;
+            return switch (column) {
+                case EPOCH_SECOND -> values.get(column).getLong(row * Long.BYTES);
+                case LON, LAT -> values.get(column).getDouble(row * Double.BYTES);
+                case SPEED, COURSE, WIND_SPEED, WIND_TEMPERATURE -> getFloat(column, row);
+                case NANO, WIND_ANGLE, VESSEL_ID -> getInt(column, row);
+                case SOURCE -> throw new IllegalArgumentException("Not a numeric column: " + column);
+            };
+        }
+
+        @Override
+        public Coordinate getPosition() {
+            return new Coordinate(values.get(Column.LON).getDouble(row * Double.BYTES),
+                    values.get(Column.LAT).getDouble(row * Double.BYTES));
+        }
+
+        @Override
+        public Instant getInstant() {
+            return Instant.ofEpochSecond(getEpochSecond(), getInt(Column.NANO, row));
+        }
+
+        @Override
+        public long getEpochSecond() {
+            return values.get(Column.EPOCH_SECOND).getLong(row * Long.BYTES);
+        }
+
+        @Override
+        public Float getSpeed() {
+            return isNull(Column.SPEED, row) ? null : getFloat(Column.SPEED, row);
+        }
+
+        @Override
+        public Float getCourse() {
+            return isNull(Column.COURSE, row) ? null : getFloat(Column.COURSE, row);
+        }
+
+        @Override
+        public Integer getWindAngle() {
+            return isNull(Column.WIND_ANGLE, row) ? null : getInt(Column.WIND_ANGLE, row);
+        }
+
+        @Override
+        public Float getWindSpeed() {
+            return isNull(Column.WIND_SPEED, row) ? null : getFloat(Column.WIND_SPEED, row);
+        }
+
+        @Override
+        public Float getWindTemperature() {
+            return isNull(Column.WIND_TEMPERATURE, row) ? null : getFloat(Column.WIND_TEMPERATURE, row);
+        }
+
+        @Override
+        public VesselDataSource getSource() {
+            return isNull(Column.SOURCE, row) ? null
+                    : VesselDataSource.values()[values.get(Column.SOURCE).get(row) & 0xFF];
+        }
+
+        @Override
+        public Integer getVesselId() {
+            return isNull(Column.VESSEL_ID, row) ? null : getInt(Column.VESSEL_ID, row);
+        }
+
+        @Override
+        public PointData setSpeed(float speed) {
+            throw readOnly();
+        }
+
+        @Override
+        public PointData setCourse(float course) {
+            throw readOnly();
+        }
+
+        @Override
+        public VesselData setWindAngle(int windAngle) {
+            throw readOnly();
+        }
+
+        @Override
+        public VesselData setWindSpeed(float windSpeed) {
+            throw readOnly();
+        }
+
+        @Override
+        public VesselData setWindTemperature(float windTemperature) {
+            throw readOnly();
+        }
+
+        @Override
+        public VesselData setSource(VesselDataSource source) {
+            throw readOnly();
+        }
+
+        @Override
+        public VesselData setVesselId(Integer vesselId) {
+            throw readOnly();
+        }
+
+        @Override
+        public int compareTo(PointData pointData) {
+            throw new UnsupportedOperationException("Snapshot rows change as they are iterated; get them to compare");
+        }
+
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("Snapshot rows are read-only; get them to modify");
+        }
+    }
+
+    private float getFloat(Column column, int row) {
+        return values.get(column).getFloat(row * Float.BYTES);
+    }
+
+    private int getInt(Column column, int row) {
+        return values.get(column).getInt(row * Integer.BYTES);
+    }
+
+    private static void putValue(ByteBuffer buffer, Column column, PointDataTable table, int row) {
+        switch (column) {
+            case EPOCH_SECOND -> buffer.putLong(table.getEpochSecond(row));
+            case NANO -> buffer.putInt(table.getInstant(row).getNano());
+            case LON -> buffer.putDouble(table.getLon(row));
+            case LAT -> buffer.putDouble(table.getLat(row));
+            case SPEED -> buffer.putFloat(table.getSpeed().get(row));
+            case COURSE -> buffer.putFloat(table.getCourse().get(row));
+            case WIND_ANGLE -> buffer.putInt(VesselDataColumns.windAngle(table).get(row));
+            case WIND_SPEED -> buffer.putFloat(VesselDataColumns.windSpeed(table).get(row));
+            case WIND_TEMPERATURE -> buffer.putFloat(VesselDataColumns.windTemperature(table).get(row));
+            case SOURCE -> {
+                VesselDataSource source = VesselDataColumns.source(table).get(row);
+                buffer.put((byte) (source != null ? source.ordinal() : 0));
+            }
+            case VESSEL_ID -> buffer.putInt(VesselDataColumns.vesselId(table).get(row));
+        }
+    }
+
+    private static boolean isNullInTable(Column column, PointDataTable table, int row) {
+        return switch (column) {
+            case EPOCH_SECOND, NANO, LON, LAT -> false;
+            case SPEED -> table.getSpeed().isNull(row);
+            case COURSE -> table.getCourse().isNull(row);
+            case WIND_ANGLE -> VesselDataColumns.windAngle(table).isNull(row);
+            case WIND_SPEED -> VesselDataColumns.windSpeed(table).isNull(row);
+            case WIND_TEMPERATURE -> VesselDataColumns.windTemperature(table).isNull(row);
+            case SOURCE -> VesselDataColumns.source(table).isNull(row);
+            case VESSEL_ID -> VesselDataColumns.vesselId(table).isNull(row);
+        };
+    }
+
+    // of the header and index, without the checksum itself
+    private static long checksum(ByteBuffer header) {
+        CRC32 crc = new CRC32();
+        crc.update(header.slice(0, CHECKSUM_OFFSET));
+        crc.update(header.slice(HEADER_BYTES, header.limit() - HEADER_BYTES));
+        return crc.getValue();
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void pad(FileChannel channel) throws IOException {
+        long position = channel.position();
+        writeFully(channel, ByteBuffer.allocate((int) (align(position) - position)));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -2,7 +2,8 @@ package victorzinho.music.usecases.atyla.input;
 
 public enum VesselDataSource {
     MARINE_TRAFFIC("marine_traffic"),
-    YELLOW_BRICK("yellow_brick");
+    YELLOW_BRICK("yellow_brick"),
+    AIS("ais");
 
     private final String value;
 
@@ -0,0 +1,52 @@
+package victorzinho.music.usecases.benchmark;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Minimal timing helpers for the benchmarks in this package: warm up, run a few times and report the median.
+ */
+public class Benchmark {
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 5;
+
+    /**
+     * Runs the given task a few times and prints the median throughput.
+     *
+     * @param name       The name of the benchmark, to be printed.
+     * @param operations The number of operations performed by each run of the task.
+     * @param task       The task to measure.
+     * @return the median number of operations per second.
+     */
+    public static double measure(String name, long operations, Runnable task) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            task.run();
+        }
+
+        double[] opsPerSecond = new double[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            opsPerSecond[i] = operations / ((System.nanoTime() - start) / 1e9);
+        }
+        Arrays.sort(opsPerSecond);
+
+        double median = opsPerSecond[RUNS / 2];
+        System.out.printf("%-50s %,15.0f ops/s%n", name, median);
+        return median;
+    }
+
+    /**
+     * Runs the given task once and prints the elapsed time.
+     *
+     * @param name The name of the benchmark, to be printed.
+     * @param task The task to measure.
+     * @return the result of the task.
+     */
+    public static <T> T time(String name, Supplier<T> task) {
+        long start = System.nanoTime();
+        T result = task.get();
+        System.out.printf("%-50s %,15.3f s%n", name, (System.nanoTime() - start) / 1e9);
+        return result;
+    }
+}
@@ -0,0 +1,100 @@
+package victorzinho.music.usecases.benchmark;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import victorzinho.music.hexgrid.HexGridPitchClassProvider;
+import victorzinho.music.usecases.atyla.MusicHarmonyGenerator;
+import victorzinho.music.usecases.atyla.input.AtylaJsonReader;
+import victorzinho.music.usecases.atyla.input.VesselData;
+import victorzinho.music.usecases.atyla.input.VesselDataCalculations;
+import victorzinho.music.usecases.atyla.input.VesselDataInterpolationAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.diffplug.common.base.Errors.rethrow;
+
+/**
+ * Measures {@link MusicHarmonyGenerator#generateScores} for a synthetic fleet in the 2nm North Sea grid of the Atyla
+ * use case, processing from one track at a time up to one per available processor, to show how it scales. The
+ * fixes of one of the vessels have no vessel id (as YellowBrick ones), so they are scored as the default track.
+ */
+public class FleetScoreBenchmark {
+    private static final int VESSELS = 64;
+    private static final int FIXES_PER_VESSEL = 2_000;
+    private static final int FIX_INTERVAL_IN_SECONDS = 60;
+    private static final int INTERPOLATION_STEP_IN_SECONDS = 5 * 60;
+    private static final Integer DEFAULT_TRACK = 0;
+
+    public static void main(String[] args) throws IOException {
+        Envelope envelope = new Envelope(3, 12.5, 55, 61);
+        File exportDir = Files.createTempDirectory("fleet_scores").toFile();
+        MusicHarmonyGenerator<VesselData> generator = new MusicHarmonyGenerator<>(
+                new HexGridPitchClassProvider(5, 4, 9), AtylaJsonReader.NAUTIC_MILE_IN_M * 2, envelope, exportDir, false);
+        List<VesselData> fleet = randomFleet(envelope);
+        System.out.printf("Fleet: %,d vessels, %,d fixes, written to %s%n", VESSELS, fleet.size(), exportDir);
+
+        double sequential = 0;
+        int processors = Runtime.getRuntime().availableProcessors();
+        // 1, 2, 4... threads, and all the processors
+        for (int parallelism = 1; ; parallelism = Math.min(2 * parallelism, processors)) {
+            int threads = parallelism;
+            double tracksPerSecond = Benchmark.measure("Score per track (" + threads + " threads, tracks)", VESSELS,
+                    () -> rethrow().run(() -> generateScores(generator, fleet, false, threads)));
+            if (threads == 1) sequential = tracksPerSecond;
+            System.out.printf("Speedup: %.1fx%n", tracksPerSecond / sequential);
+            if (threads == processors) break;
+        }
+        Benchmark.measure("Single score (" + processors + " threads, tracks)", VESSELS,
+                () -> rethrow().run(() -> generateScores(generator, fleet, true, processors)));
+    }
+
+    private static void generateScores(
+            MusicHarmonyGenerator<VesselData> generator, List<VesselData> fleet, boolean singleScore, int parallelism
+    ) throws Exception {
+        generator.generateScores(fleet, VesselData::getVesselId, DEFAULT_TRACK, new VesselDataInterpolationAdapter(),
+                INTERPOLATION_STEP_IN_SECONDS, VesselDataCalculations.getAttributes(), singleScore, parallelism);
+    }
+
+    // random walks at ~6 knots, turning around before leaving the envelope
+    private static List<VesselData> randomFleet(Envelope envelope) {
+        Random random = new Random(42);
+        Envelope area = new Envelope(envelope);
+        area.expandBy(-0.1);
+        Instant start = Instant.parse("2021-06-01T00:00:00Z");
+        List<VesselData> fleet = new ArrayList<>(VESSELS * FIXES_PER_VESSEL);
+        for (int vessel = 0; vessel < VESSELS; vessel++) {
+            double x = area.getMinX() + random.nextDouble() * area.getWidth();
+            double y = area.getMinY() + random.nextDouble() * area.getHeight();
+            double course = random.nextDouble() * 360;
+            for (int i = 0; i < FIXES_PER_VESSEL; i++) {
+                course = (course + random.nextGaussian() * 5 + 360) % 360;
+                if (!area.contains(x + dx(course), y + dy(course))) course = (course + 180) % 360;
+                x += dx(course);
+                y += dy(course);
+                VesselData vesselData = new VesselData(new Coordinate(x, y),
+                        start.plusSeconds((long) i * FIX_INTERVAL_IN_SECONDS))
+                        .setVesselId(vessel == 0 ? null : 200_000_000 + vessel)
+                        .setWindAngle(random.nextInt(360))
+                        .setWindSpeed(random.nextFloat() * 30)
+                        .setWindTemperature(10 + random.nextFloat() * 10);
+                vesselData.setSpeed(5 + random.nextFloat() * 2).setCourse((float) course);
+                fleet.add(vesselData);
+            }
+        }
+        return fleet;
+    }
+
+    private static double dx(double course) {
+        return 0.003 * Math.sin(Math.toRadians(course));
+    }
+
+    private static double dy(double course) {
+        return 0.0017 * Math.cos(Math.toRadians(course));
+    }
+}
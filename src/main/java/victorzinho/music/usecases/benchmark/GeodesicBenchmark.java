@@ -0,0 +1,142 @@
+package victorzinho.music.usecases.benchmark;
+
+import org.geotools.referencing.GeodeticCalculator;
+import victorzinho.music.pointdata.GeodesicKernel;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Compares the spherical and ellipsoidal modes of {@link GeodesicKernel} with GeoTools' {@link GeodeticCalculator}
+ * (the previous implementation) for the distance and azimuth between consecutive fixes of a synthetic 1M points track
+ * in the North Sea. Before that, it prints the maximum differences of each mode with the calculator for that track,
+ * random pairs, nearly antipodal pairs and same positions.
+ * <p>
+ * Last run, with the calculator solving on GeographicLib 1.49 (as GeoTools 28 does):
+ * <ul>
+ *     <li>Track: ellipsoidal within 0.1 mm and 1.3e-7 degrees, spherical up to 1.4 m and 0.06 degrees.</li>
+ *     <li>Random pairs, not nearly antipodal: ellipsoidal within 0.1 mm and 2e-8 degrees, spherical up to 38 km and
+ *     12 degrees.</li>
+ *     <li>Nearly antipodal pairs: ellipsoidal within 0.1 mm and 2e-7 degrees, spherical up to 21 km and 88
+ *     degrees.</li>
+ *     <li>Same positions: no differences.</li>
+ *     <li>Throughput: 152k pairs/s with the calculator, 4.7M spherical and 1.7M ellipsoidal.</li>
+ * </ul>
+ */
+public class GeodesicBenchmark {
+    private static final int POINTS = 1_000_000;
+    private static final int PAIRS = 100_000;
+    // below this distance (in degrees) from antipodal, the ellipsoidal mode is solved with GeographicLib
+    private static final double NEARLY_ANTIPODAL_DEGREES = 1;
+
+    public static void main(String[] args) {
+        double[] lons = new double[POINTS];
+        double[] lats = new double[POINTS];
+        Random random = new Random(42);
+        lons[0] = 5;
+        lats[0] = 58;
+        for (int i = 1; i < POINTS; i++) {
+            lons[i] = lons[i - 1] + (random.nextDouble() - 0.5) * 0.01;
+            lats[i] = lats[i - 1] + (random.nextDouble() - 0.5) * 0.01;
+        }
+
+        printDifferences("Track", Arrays.copyOf(lons, POINTS - 1), Arrays.copyOf(lats, POINTS - 1),
+                Arrays.copyOfRange(lons, 1, POINTS), Arrays.copyOfRange(lats, 1, POINTS));
+        printPairDifferences("Random pairs, not nearly antipodal", (first, second) -> {
+            do {
+                setRandomPosition(random, first);
+                setRandomPosition(random, second);
+            } while (isNearlyAntipodal(first, second));
+        });
+        printPairDifferences("Nearly antipodal pairs", (first, second) -> {
+            setRandomPosition(random, first);
+            second[0] = first[0] + 180 + (random.nextDouble() * 2 - 1) * NEARLY_ANTIPODAL_DEGREES / 2;
+            second[1] = -first[1] + (random.nextDouble() * 2 - 1) * NEARLY_ANTIPODAL_DEGREES / 2;
+        });
+        printPairDifferences("Same positions", (first, second) -> {
+            setRandomPosition(random, first);
+            System.arraycopy(first, 0, second, 0, 2);
+        });
+
+        double[] distances = new double[POINTS - 1];
+        double[] azimuths = new double[POINTS - 1];
+        Benchmark.measure("GeodeticCalculator (pairs)", POINTS - 1,
+                () -> withGeodeticCalculator(lons, lats, distances, azimuths));
+        Benchmark.measure("Kernel, spherical (pairs)", POINTS - 1,
+                () -> GeodesicKernel.SPHERICAL.inverse(lons, lats, POINTS, distances, azimuths));
+        Benchmark.measure("Kernel, ellipsoidal (pairs)", POINTS - 1,
+                () -> GeodesicKernel.ELLIPSOIDAL.inverse(lons, lats, POINTS, distances, azimuths));
+    }
+
+    /**
+     * Prints the differences with the calculator for pairs of positions from the given generator, which sets the
+     * lon/lat of both positions of each pair.
+     */
+    private static void printPairDifferences(String name, BiConsumer<double[], double[]> pairGenerator) {
+        double[] lons1 = new double[PAIRS];
+        double[] lats1 = new double[PAIRS];
+        double[] lons2 = new double[PAIRS];
+        double[] lats2 = new double[PAIRS];
+        double[] first = new double[2];
+        double[] second = new double[2];
+        for (int i = 0; i < PAIRS; i++) {
+            pairGenerator.accept(first, second);
+            lons1[i] = first[0];
+            lats1[i] = first[1];
+            lons2[i] = second[0];
+            lats2[i] = second[1];
+        }
+        printDifferences(name, lons1, lats1, lons2, lats2);
+    }
+
+    // uniform on the sphere, away from the poles (where azimuths depend on the longitude convention)
+    private static void setRandomPosition(Random random, double[] position) {
+        position[0] = -180 + random.nextDouble() * 360;
+        position[1] = Math.toDegrees(Math.asin((random.nextDouble() * 2 - 1) * Math.sin(Math.toRadians(89))));
+    }
+
+    private static boolean isNearlyAntipodal(double[] first, double[] second) {
+        // spherical distances are proportional to the angle, half the circumference for antipodal positions
+        double halfCircumference = GeodesicKernel.SPHERICAL.distance(0, 0, 180, 0);
+        return GeodesicKernel.SPHERICAL.distance(first[0], first[1], second[0], second[1])
+                > (1 - NEARLY_ANTIPODAL_DEGREES / 180) * halfCircumference;
+    }
+
+    private static void printDifferences(String name, double[] lons1, double[] lats1, double[] lons2, double[] lats2) {
+        int pairs = lons1.length;
+        double[] expectedDistances = new double[pairs];
+        double[] expectedAzimuths = new double[pairs];
+        GeodeticCalculator calculator = new GeodeticCalculator();
+        for (int i = 0; i < pairs; i++) {
+            calculator.setStartingGeographicPoint(lons1[i], lats1[i]);
+            calculator.setDestinationGeographicPoint(lons2[i], lats2[i]);
+            expectedDistances[i] = calculator.getOrthodromicDistance();
+            expectedAzimuths[i] = calculator.getAzimuth();
+        }
+
+        double[] result = new double[2];
+        for (GeodesicKernel kernel : GeodesicKernel.values()) {
+            double maxDistanceDifference = 0;
+            double maxAzimuthDifference = 0;
+            for (int i = 0; i < pairs; i++) {
+                kernel.inverse(lons1[i], lats1[i], lons2[i], lats2[i], result);
+                maxDistanceDifference = Math.max(maxDistanceDifference, Math.abs(result[0] - expectedDistances[i]));
+                double azimuthDifference = Math.abs(result[1] - expectedAzimuths[i]);
+                maxAzimuthDifference = Math.max(maxAzimuthDifference, Math.min(azimuthDifference, 360 - azimuthDifference));
+            }
+            System.out.printf("%s, %s: max difference %.6f m, %.9f degrees%n",
+                    name, kernel, maxDistanceDifference, maxAzimuthDifference);
+        }
+    }
+
+    private static void withGeodeticCalculator(double[] lons, double[] lats, double[] distances, double[] azimuths) {
+        GeodeticCalculator calculator = new GeodeticCalculator();
+        for (int i = 0; i < lons.length - 1; i++) {
+            calculator.setStartingGeographicPoint(lons[i], lats[i]);
+            calculator.setDestinationGeographicPoint(lons[i + 1], lats[i + 1]);
+            distances[i] = calculator.getOrthodromicDistance();
+            azimuths[i] = calculator.getAzimuth();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package victorzinho.music.usecases.benchmark;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import victorzinho.music.hexgrid.CompactHexGrid;
+import victorzinho.music.hexgrid.HexGridFeatureCollection;
+import victorzinho.music.hexgrid.HexGridPitchClassProvider;
+import victorzinho.music.hexgrid.UtmZone;
+import victorzinho.music.pitch.PitchClass;
+import victorzinho.music.usecases.atyla.input.AtylaJsonReader;
+
+import java.util.Objects;
+
+import static com.diffplug.common.base.Errors.rethrow;
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_GEOM;
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_VALUE;
+
+/**
+ * Measures the generation of the 2nm grid of the Atyla use case (North Sea). The generation used to look up the
+ * transforms of the UTM zone (with {@link CRS#findMathTransform}) for every transformed coordinate and polygon; the
+ * benchmark compares that with the transforms cached by {@link UtmZone}, and the sequential generation with
+ * {@link HexGridFeatureCollection#generateParallel(int)} (from axial coordinates, or walking path dependent values)
+ * and {@link CompactHexGrid}. It also measures {@link HexGridFeatureCollection#size()} on new collections, which
+ * counts the cells without generating them.
+ */
+public class HexGridGenerationBenchmark {
+    private static final int TRANSFORMS = 100_000;
+    // compact grids rebuild the centers from axial coordinates, so positions may differ in the last bits
+    private static final double TOLERANCE_DEGREES = 1e-9;
+
+    public static void main(String[] args) {
+        Envelope envelope = new Envelope(3, 12.5, 55, 61);
+        HexGridFeatureCollection<PitchClass> hexGrid = new HexGridFeatureCollection<>(
+                AtylaJsonReader.NAUTIC_MILE_IN_M * 2, envelope, new HexGridPitchClassProvider(5, 4, 9));
+
+        int cells = Benchmark.time("Count cells", () -> countFeatures(hexGrid));
+        System.out.printf("Cells: %,d%n", cells);
+
+        Benchmark.measure("Generate features (cells)", cells, () -> countFeatures(hexGrid));
+        System.out.printf("Size: %,d%n", new HexGridFeatureCollection<>(AtylaJsonReader.NAUTIC_MILE_IN_M * 2, envelope,
+                new HexGridPitchClassProvider(5, 4, 9)).size());
+        Benchmark.measure("Size without generating cells (cells)", cells, () -> new HexGridFeatureCollection<>(
+                AtylaJsonReader.NAUTIC_MILE_IN_M * 2, envelope, new HexGridPitchClassProvider(5, 4, 9)).size());
+
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        SimpleFeatureCollection parallel = Benchmark.time("Generate in parallel", () -> hexGrid.generateParallel(parallelism));
+        System.out.printf("Differences with sequential generation: %d%n", countDifferences(hexGrid, parallel));
+        Benchmark.measure("Generate in parallel (" + parallelism + " threads, cells)", cells,
+                () -> hexGrid.generateParallel(parallelism));
+        // same cells, but values depend on the path, so they are still walked in order
+        HexGridFeatureCollection<PitchClass> pathDependentGrid = new HexGridFeatureCollection<>(
+                AtylaJsonReader.NAUTIC_MILE_IN_M * 2, envelope, new HexGridPitchClassProvider(5, 3, 9));
+        Benchmark.measure("Generate in parallel, path dependent values (" + parallelism + " threads, cells)", cells,
+                () -> pathDependentGrid.generateParallel(parallelism));
+
+        CompactHexGrid<PitchClass> compact = Benchmark.time("Build compact grid", hexGrid::buildCompactGrid);
+        System.out.printf("Compact grid: %,d bytes off-heap%n", (long) compact.size() * CompactHexGrid.CELL_BYTES);
+        System.out.printf("Differences with compact grid: %d%n", countDifferences(hexGrid, compact.asFeatureCollection()));
+        Benchmark.measure("Build compact grid (cells)", cells, hexGrid::buildCompactGrid);
+
+        UtmZone zone = UtmZone.of(new Coordinate(envelope.getMinX(), envelope.getMinY()));
+        Coordinate center = zone.fromWgs84(new Coordinate(envelope.centre().x, envelope.centre().y));
+        Benchmark.measure("UTM to WGS84, finding the transform per call", TRANSFORMS, () -> {
+            for (int i = 0; i < TRANSFORMS; i++) {
+                rethrow().get(() -> JTS.transform(center, null, CRS.findMathTransform(zone.getCrs(), WGS84, true)));
+            }
+        });
+        Benchmark.measure("UTM to WGS84, cached transform", TRANSFORMS, () -> {
+            for (int i = 0; i < TRANSFORMS; i++) {
+                zone.toWgs84(center);
+            }
+        });
+    }
+
+    private static int countDifferences(SimpleFeatureCollection expected, SimpleFeatureCollection actual) {
+        int differences = Math.abs(expected.size() - actual.size());
+        try (SimpleFeatureIterator expectedIterator = expected.features();
+             SimpleFeatureIterator actualIterator = actual.features()) {
+            while (expectedIterator.hasNext() && actualIterator.hasNext()) {
+                SimpleFeature expectedFeature = expectedIterator.next();
+                SimpleFeature actualFeature = actualIterator.next();
+                if (!Objects.equals(expectedFeature.getAttribute(ATTR_VALUE), actualFeature.getAttribute(ATTR_VALUE))
+                        || !((Geometry) expectedFeature.getAttribute(ATTR_GEOM))
+                        .equalsExact((Geometry) actualFeature.getAttribute(ATTR_GEOM), TOLERANCE_DEGREES)) {
+                    differences++;
+                }
+            }
+        }
+        return differences;
+    }
+
+    private static int countFeatures(HexGridFeatureCollection<PitchClass> hexGrid) {
+        int count = 0;
+        try (SimpleFeatureIterator iterator = hexGrid.features()) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
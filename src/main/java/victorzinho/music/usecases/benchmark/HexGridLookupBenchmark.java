@@ -0,0 +1,91 @@
+package victorzinho.music.usecases.benchmark;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.SpatialIndexFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import victorzinho.music.hexgrid.HexGridFeatureCollection;
+import victorzinho.music.hexgrid.HexGridLookup;
+import victorzinho.music.hexgrid.HexGridPitchClassProvider;
+import victorzinho.music.pitch.PitchClass;
+import victorzinho.music.usecases.atyla.input.AtylaJsonReader;
+
+import java.util.Objects;
+import java.util.Random;
+
+import static com.diffplug.common.base.Errors.rethrow;
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_GEOM;
+import static victorzinho.music.hexgrid.HexGridFeatureCollection.ATTR_VALUE;
+
+/**
+ * Compares point-to-cell lookups using an <code>intersects</code> filter over a spatial index (as
+ * {@link victorzinho.music.usecases.atyla.MusicHarmonyGenerator} used to do) with {@link HexGridLookup}.
+ * Uses the grid of the Atyla use case.
+ */
+public class HexGridLookupBenchmark {
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+    private static final FilterFactory2 FILTER_FACTORY = CommonFactoryFinder.getFilterFactory2();
+
+    private static final int FILTER_LOOKUPS = 10_000;
+    private static final int AXIAL_LOOKUPS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Envelope envelope = new Envelope(3, 12.5, 55, 61);
+        HexGridFeatureCollection<PitchClass> hexGrid = new HexGridFeatureCollection<>(
+                AtylaJsonReader.NAUTIC_MILE_IN_M * 2, envelope, new HexGridPitchClassProvider(5, 4, 9));
+
+        Coordinate[] coordinates = randomCoordinates(envelope, AXIAL_LOOKUPS);
+
+        SimpleFeatureSource source = Benchmark.time("Build spatial index",
+                () -> DataUtilities.source(rethrow().get(() -> new SpatialIndexFeatureCollection(hexGrid))));
+        HexGridLookup<PitchClass> lookup = Benchmark.time("Build lookup", hexGrid::buildLookup);
+
+        int mismatches = 0;
+        for (int i = 0; i < FILTER_LOOKUPS; i++) {
+            if (!Objects.equals(getValueWithFilter(source, coordinates[i]), lookup.getValue(coordinates[i]))) {
+                mismatches++;
+            }
+        }
+        System.out.printf("Mismatches (cells overlapping in zone seams): %d/%d%n", mismatches, FILTER_LOOKUPS);
+
+        Benchmark.measure("Intersects filter + spatial index", FILTER_LOOKUPS, () -> {
+            for (int i = 0; i < FILTER_LOOKUPS; i++) {
+                getValueWithFilter(source, coordinates[i]);
+            }
+        });
+        Benchmark.measure("Axial lookup", AXIAL_LOOKUPS, () -> {
+            for (Coordinate coordinate : coordinates) {
+                lookup.getValue(coordinate);
+            }
+        });
+    }
+
+    private static Coordinate[] randomCoordinates(Envelope envelope, int n) {
+        Random random = new Random(42);
+        Coordinate[] coordinates = new Coordinate[n];
+        for (int i = 0; i < n; i++) {
+            coordinates[i] = new Coordinate(
+                    envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                    envelope.getMinY() + random.nextDouble() * envelope.getHeight());
+        }
+        return coordinates;
+    }
+
+    private static PitchClass getValueWithFilter(SimpleFeatureSource source, Coordinate coordinate) {
+        Filter intersects = FILTER_FACTORY.intersects(
+                FILTER_FACTORY.property(ATTR_GEOM),
+                FILTER_FACTORY.literal(GEOMETRY_FACTORY.createPoint(coordinate)));
+        try (SimpleFeatureIterator iterator = rethrow().get(() -> source.getFeatures(intersects)).features()) {
+            if (!iterator.hasNext()) return null;
+            SimpleFeature hex = iterator.next();
+            return (PitchClass) hex.getAttribute(ATTR_VALUE);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package victorzinho.music.usecases.benchmark;
+
+import org.apache.commons.math3.analysis.interpolation.LinearInterpolator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+import org.locationtech.jts.geom.Coordinate;
+import victorzinho.music.pointdata.PointData;
+import victorzinho.music.pointdata.PointDataInterpolator;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Compares {@link PointDataInterpolator} with its previous implementation (one commons-math spline per Y function,
+ * kept here), interpolating a synthetic track of 1M points with some repeated seconds and invalid values. The
+ * streaming interpolation is compared with the list one on the sorted track, and both with a primitive adapter.
+ */
+public class InterpolationBenchmark {
+    private static final int POINTS = 1_000_000;
+    private static final double TIME_STEP_IN_SECONDS = 60;
+
+    private static final PointDataInterpolator.DefaultAdapter ADAPTER = new PointDataInterpolator.DefaultAdapter() {
+        @Override
+        public boolean filter(Number yValue) {
+            return yValue.doubleValue() >= 0.0;
+        }
+    };
+
+    // same as ADAPTER, without boxing
+    private static final PointDataInterpolator.PrimitiveAdapter<PointData> PRIMITIVE_ADAPTER =
+            new PointDataInterpolator.PrimitiveAdapter<>() {
+                @Override
+                public int channels() {
+                    return 4;
+                }
+
+                @Override
+                public double extract(PointData pointData, int channel) {
+                    return switch (channel) {
+                        case 0 -> pointData.getPosition().x;
+                        case 1 -> pointData.getPosition().y;
+                        case 2 -> pointData.getSpeed();
+                        default -> pointData.getCourse();
+                    };
+                }
+
+                @Override
+                public boolean accept(int channel, double value) {
+                    return value >= 0.0;
+                }
+
+                @Override
+                public PointData build(long epochSecond, double[] values) {
+                    return new PointData(new Coordinate(values[0], values[1]), Instant.ofEpochSecond(epochSecond))
+                            .setSpeed((float) values[2])
+                            .setCourse((float) values[3]);
+                }
+            };
+
+    public static void main(String[] args) {
+        List<PointData> track = randomTrack(POINTS);
+
+        List<PointData> expected = interpolateWithSplines(new ArrayList<>(track), TIME_STEP_IN_SECONDS);
+        List<PointData> actual = new PointDataInterpolator<>(ADAPTER).interpolate(new ArrayList<>(track), TIME_STEP_IN_SECONDS);
+        System.out.printf("Interpolated points: %,d; differences: %d%n", actual.size(), countDifferences(expected, actual));
+        List<PointData> primitive = new PointDataInterpolator<>(PRIMITIVE_ADAPTER)
+                .interpolate(new ArrayList<>(track), TIME_STEP_IN_SECONDS);
+        System.out.printf("Primitive adapter differences: %d%n", countDifferences(expected, primitive));
+
+        Benchmark.measure("Splines per Y function (points)", POINTS,
+                () -> interpolateWithSplines(new ArrayList<>(track), TIME_STEP_IN_SECONDS));
+        Benchmark.measure("Columns (points)", POINTS,
+                () -> new PointDataInterpolator<>(ADAPTER).interpolate(new ArrayList<>(track), TIME_STEP_IN_SECONDS));
+        Benchmark.measure("Columns, primitive adapter (points)", POINTS,
+                () -> new PointDataInterpolator<>(PRIMITIVE_ADAPTER).interpolate(new ArrayList<>(track), TIME_STEP_IN_SECONDS));
+
+        List<PointData> sortedTrack = track.stream().sorted().toList();
+        List<PointData> streamed = new ArrayList<>();
+        new PointDataInterpolator<>(ADAPTER).interpolate(sortedTrack.iterator(), TIME_STEP_IN_SECONDS)
+                .forEachRemaining(streamed::add);
+        List<PointData> listed = new PointDataInterpolator<>(ADAPTER)
+                .interpolate(new ArrayList<>(sortedTrack), TIME_STEP_IN_SECONDS);
+        System.out.printf("Streamed points: %,d; differences: %d%n", streamed.size(), countDifferences(listed, streamed));
+
+        Benchmark.measure("Streaming (points)", POINTS, () -> {
+            Iterator<PointData> iterator = new PointDataInterpolator<>(ADAPTER)
+                    .interpolate(sortedTrack.iterator(), TIME_STEP_IN_SECONDS);
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+        });
+        Benchmark.measure("Streaming, primitive adapter (points)", POINTS, () -> {
+            Iterator<PointData> iterator = new PointDataInterpolator<>(PRIMITIVE_ADAPTER)
+                    .interpolate(sortedTrack.iterator(), TIME_STEP_IN_SECONDS);
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+        });
+    }
+
+    private static List<PointData> randomTrack(int n) {
+        Random random = new Random(42);
+        List<PointData> track = new ArrayList<>(n);
+        Instant instant = Instant.parse("2019-07-01T00:00:00Z");
+        double x = 5;
+        double y = 58;
+        for (int i = 0; i < n; i++) {
+            // some points share the same second
+            instant = instant.plusMillis(random.nextInt(20_000));
+            x += (random.nextDouble() - 0.5) * 0.01;
+            y += (random.nextDouble() - 0.5) * 0.01;
+            track.add(new PointData(new Coordinate(x, y), instant)
+                    // some invalid (filtered) values
+                    .setSpeed(random.nextInt(10) == 0 ? -1 : random.nextFloat() * 10)
+                    .setCourse(random.nextFloat() * (float) (2 * Math.PI)));
+        }
+        // not sorted, as read from several sources
+        Collections.shuffle(track, random);
+        return track;
+    }
+
+    private static int countDifferences(List<PointData> expected, List<PointData> actual) {
+        int differences = Math.abs(expected.size() - actual.size());
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            PointData e = expected.get(i);
+            PointData a = actual.get(i);
+            if (!e.getInstant().equals(a.getInstant())
+                    || Double.compare(e.getPosition().x, a.getPosition().x) != 0
+                    || Double.compare(e.getPosition().y, a.getPosition().y) != 0
+                    || !Objects.equals(e.getSpeed(), a.getSpeed())
+                    || !Objects.equals(e.getCourse(), a.getCourse())) {
+                differences++;
+            }
+        }
+        return differences;
+    }
+
+    private static List<PointData> interpolateWithSplines(List<PointData> data, double timeStepInSeconds) {
+        List<PolynomialSplineFunction> splines = ADAPTER.getYFunctions().stream()
+                .map(yFunction -> interpolateWithSpline(data, yFunction))
+                .toList();
+
+        Collections.sort(data);
+        List<PointData> ret = new ArrayList<>();
+        double firstInstant = data.get(0).getEpochSecond();
+        double lastInstant = data.get(data.size() - 1).getEpochSecond();
+        for (double time = firstInstant; time < lastInstant; time += timeStepInSeconds) {
+            List<Double> values = new ArrayList<>();
+            values.add(time);
+            double t = time;
+            values.addAll(splines.stream().map(spline -> spline.value(t)).toList());
+            ret.add(ADAPTER.build(values));
+        }
+        return ret;
+    }
+
+    private static PolynomialSplineFunction interpolateWithSpline(
+            List<PointData> list, Function<PointData, ? extends Number> yFunction
+    ) {
+        List<PointData> uniqueValuesByX = list.stream()
+                .collect(toMap(PointData::getEpochSecond, Function.identity(), (value1, value2) -> value1))
+                .values().stream().sorted().toList();
+        List<Long> x = uniqueValuesByX.stream()
+                .filter(data -> ADAPTER.filter(yFunction.apply(data)))
+                .map(PointData::getEpochSecond).collect(toList());
+        List<Number> y = uniqueValuesByX.stream()
+                .filter(data -> ADAPTER.filter(yFunction.apply(data)))
+                .map(yFunction).collect(toList());
+
+        long firstX = uniqueValuesByX.get(0).getEpochSecond();
+        long lastX = uniqueValuesByX.get(uniqueValuesByX.size() - 1).getEpochSecond();
+        if (x.get(0) != firstX) {
+            x.add(0, firstX);
+            y.add(0, y.get(0));
+        }
+        if (x.get(x.size() - 1) != lastX) {
+            x.add(lastX);
+            y.add(y.get(y.size() - 1));
+        }
+        return new LinearInterpolator().interpolate(
+                x.stream().mapToDouble(Long::doubleValue).toArray(),
+                y.stream().mapToDouble(Number::doubleValue).toArray());
+    }
+}
@@ -0,0 +1,105 @@
+package victorzinho.music.usecases.benchmark;
+
+import victorzinho.music.usecases.atyla.input.AtylaJsonReader;
+import victorzinho.music.usecases.atyla.input.AtylaJsonStreamingReader;
+import victorzinho.music.usecases.atyla.input.VesselData;
+import victorzinho.music.usecases.atyla.input.VesselDataColumns;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
+
+import static com.diffplug.common.base.Errors.rethrow;
+
+/**
+ * Compares the throughput (MB/s) of the record binding {@link AtylaJsonReader} with the token streaming
+ * {@link AtylaJsonStreamingReader} (into vessel data, into a table and into a table from a file in parallel chunks)
+ * for ~100 MB MarineTraffic and YellowBrick dumps, synthesized from the records of the Atyla resources.
+ */
+public class JsonReaderBenchmark {
+    private static final int TARGET_BYTES = 100_000_000;
+
+    public static void main(String[] args) throws IOException {
+        byte[] marineTraffic = repeatMarineTraffic();
+        byte[] yellowBrick = synthesizeYellowBrick();
+        Path marineTrafficFile = Files.createTempFile("marine_traffic", ".json");
+        Path yellowBrickFile = Files.createTempFile("yellow_brick", ".json");
+        marineTrafficFile.toFile().deleteOnExit();
+        yellowBrickFile.toFile().deleteOnExit();
+        Files.write(marineTrafficFile, marineTraffic);
+        Files.write(yellowBrickFile, yellowBrick);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        AtylaJsonReader reader = new AtylaJsonReader();
+        AtylaJsonStreamingReader streamingReader = new AtylaJsonStreamingReader();
+
+        measure("MarineTraffic, records", marineTraffic,
+                () -> rethrow().get(() -> reader.readFromMarineTraffic(input(marineTraffic))));
+        measure("MarineTraffic, streaming", marineTraffic,
+                () -> consume(rethrow().get(() -> streamingReader.readFromMarineTraffic(input(marineTraffic)))));
+        measure("MarineTraffic, streaming into table", marineTraffic, () -> rethrow().run(
+                () -> streamingReader.readFromMarineTraffic(input(marineTraffic), VesselDataColumns.newTable(1024))));
+        measure("MarineTraffic, parallel chunks (" + parallelism + ")", marineTraffic,
+                () -> rethrow().get(() -> streamingReader.readFromMarineTraffic(marineTrafficFile, parallelism)));
+
+        measure("YellowBrick, records", yellowBrick,
+                () -> rethrow().get(() -> reader.readFromYellowBrick(input(yellowBrick))));
+        measure("YellowBrick, streaming", yellowBrick,
+                () -> consume(rethrow().get(() -> streamingReader.readFromYellowBrick(input(yellowBrick)))));
+        measure("YellowBrick, streaming into table", yellowBrick, () -> rethrow().run(
+                () -> streamingReader.readFromYellowBrick(input(yellowBrick), VesselDataColumns.newTable(1024))));
+        measure("YellowBrick, parallel chunks (" + parallelism + ")", yellowBrick,
+                () -> rethrow().get(() -> streamingReader.readFromYellowBrick(yellowBrickFile, parallelism)));
+    }
+
+    private static void measure(String name, byte[] data, Runnable task) {
+        double bytesPerSecond = Benchmark.measure(name + " (bytes)", data.length, task);
+        System.out.printf("%-50s %,15.1f MB/s%n", name, bytesPerSecond / 1e6);
+    }
+
+    private static InputStream input(byte[] data) {
+        return new ByteArrayInputStream(data);
+    }
+
+    private static void consume(Iterator<VesselData> vesselData) {
+        while (vesselData.hasNext()) {
+            vesselData.next();
+        }
+    }
+
+    private static byte[] repeatMarineTraffic() throws IOException {
+        String records;
+        try (InputStream input = JsonReaderBenchmark.class.getResourceAsStream("/atyla_marine_traffic.json")) {
+            String json = new String(input.readAllBytes(), StandardCharsets.UTF_8).trim();
+            records = json.substring(1, json.length() - 1).trim();
+        }
+
+        StringBuilder json = new StringBuilder(TARGET_BYTES + records.length()).append('[');
+        while (json.length() < TARGET_BYTES) {
+            if (json.length() > 1) json.append(',');
+            json.append(records);
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] synthesizeYellowBrick() {
+        StringBuilder json = new StringBuilder(TARGET_BYTES + 100).append('[');
+        Random random = new Random(42);
+        long at = 1563753623;
+        double lon = 5.3242;
+        double lat = 60.3961;
+        while (json.length() < TARGET_BYTES) {
+            if (json.length() > 1) json.append(',');
+            at += 60 + random.nextInt(3600);
+            lon += (random.nextDouble() - 0.5) * 0.01;
+            lat += (random.nextDouble() - 0.5) * 0.01;
+            json.append(String.format(Locale.ROOT, "{\"dtf\":568866,\"lat\":%.4f,\"lon\":%.4f,\"at\":%d,\"pc\":null}", lat, lon, at));
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}